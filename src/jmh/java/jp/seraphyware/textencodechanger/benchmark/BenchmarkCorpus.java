@@ -0,0 +1,102 @@
+package jp.seraphyware.textencodechanger.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import java.util.Random;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.TextTermType;
+
+/**
+ * ベンチマーク用の合成テキスト.<br>
+ * 乱数の種を固定しているため、同じ引数であれば常に同じテキストとなる.<br>
+ *
+ * @author seraphy
+ */
+final class BenchmarkCorpus {
+
+    /**
+     * テキストの種類.
+     */
+    enum Kind {
+        /**
+         * ASCIIのみ(ソースコードやログ相当).
+         */
+        ASCII,
+
+        /**
+         * 漢字、ひらがな、カタカナ、ASCIIの混在(日本語の文書相当).
+         */
+        JAPANESE
+    }
+
+    /**
+     * ASCIIの単語.
+     */
+    private static final String[] ASCII_WORDS = {
+        "public", "static", "final", "return", "import", "class", "value",
+        "encoding", "buffer", "0x7f", "(i + 1)", "{", "}", ";", "=", "//",
+    };
+
+    /**
+     * 日本語の単語.
+     * (Windows-31J, EUC-JPのいずれでも表現できる文字に限る.)
+     */
+    private static final String[] JAPANESE_WORDS = {
+        "文字", "変換", "日本語", "ファイル", "テキスト", "を", "は", "の",
+        "する", "された", "、", "。", "「設定」", "読み込み", "書き込み",
+        "ｶﾀｶﾅ", "全角", "漢字", "ひらがな",
+    };
+
+    /**
+     * プライベートコンストラクタ.
+     */
+    private BenchmarkCorpus() {
+        super();
+    }
+
+    /**
+     * 指定した文字数程度のテキストを生成する.
+     *
+     * @param kind テキストの種類
+     * @param chars 文字数
+     * @param termType 行末
+     * @return テキスト
+     */
+    static String generate(Kind kind, int chars, TextTermType termType) {
+        Random rnd = new Random(chars);
+        String term = termType.getChars() == null ? "\n" : termType.getChars();
+        StringBuilder buf = new StringBuilder(chars + 100);
+        int lineLen = 0;
+        while (buf.length() < chars) {
+            String[] words = (kind == Kind.JAPANESE && rnd.nextInt(3) != 0)
+                    ? JAPANESE_WORDS : ASCII_WORDS;
+            String word = words[rnd.nextInt(words.length)];
+            buf.append(word);
+            lineLen += word.length();
+            if (lineLen > 40 + rnd.nextInt(40)) {
+                buf.append(term);
+                lineLen = 0;
+            } else if (words == ASCII_WORDS) {
+                buf.append(' ');
+            }
+        }
+        buf.setLength(chars);
+        return buf.toString();
+    }
+
+    /**
+     * テキストを指定した文字コードのバイト列に変換する.
+     *
+     * @param text テキスト
+     * @param encoding 文字コード
+     * @return バイト列
+     * @throws CharacterCodingException 変換できない文字がある
+     */
+    static byte[] encode(String text, EncodingType encoding)
+            throws CharacterCodingException {
+        ByteBuffer data = encoding.encode(CharBuffer.wrap(text));
+        return Arrays.copyOf(data.array(), data.limit());
+    }
+}
@@ -0,0 +1,72 @@
+package jp.seraphyware.textencodechanger.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.TextTermType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 文字コードごとの読み込み(デコード)と書き込み(エンコード)のベンチマーク.
+ *
+ * @author seraphy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    /**
+     * 文字コード.
+     */
+    @Param({"UTF8", "Windows31J", "EUC_JP", "UTF16_BOM_LE"})
+    private EncodingType encoding;
+
+    /**
+     * テキストの種類.
+     */
+    @Param({"ASCII", "JAPANESE"})
+    private BenchmarkCorpus.Kind kind;
+
+    /**
+     * テキストの文字数.
+     */
+    @Param({"4096", "1048576"})
+    private int size;
+
+    private CharBuffer text;
+
+    private ByteBuffer data;
+
+    @Setup
+    public void setup() throws IOException {
+        String str = BenchmarkCorpus.generate(kind, size, TextTermType.CRLF);
+        text = CharBuffer.wrap(str);
+        data = ByteBuffer.wrap(BenchmarkCorpus.encode(str, encoding));
+    }
+
+    @Benchmark
+    public CharBuffer decode() throws IOException {
+        return encoding.decode(data.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return encoding.encode(text.duplicate());
+    }
+}
@@ -0,0 +1,132 @@
+package jp.seraphyware.textencodechanger.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.FileLoadService;
+import jp.seraphyware.textencodechanger.services.FileReplaceService;
+import jp.seraphyware.textencodechanger.services.OverwriteMode;
+import jp.seraphyware.textencodechanger.services.TextEncodeConvService;
+import jp.seraphyware.textencodechanger.services.TextTermConvService;
+import jp.seraphyware.textencodechanger.services.TextTermType;
+import jp.seraphyware.textencodechanger.services.TransferType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+/**
+ * ファイル変換のベンチマーク.<br>
+ * 一定サイズずつ逐次変換する方法と、ファイル全体をメモリに読み込んで変換する方法を比較する.<br>
+ *
+ * @author seraphy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertBenchmark {
+
+    /**
+     * 入力ファイル名.
+     */
+    private static final String FILE_NAME = "input.txt";
+
+    /**
+     * 入力ファイルの文字コード.
+     * (出力ファイルと同じ場合は、逐次変換はバイト列のまま改行コードを変換する.)
+     */
+    @Param({"Windows31J", "UTF8"})
+    private EncodingType srcEncoding;
+
+    /**
+     * 出力ファイルの文字コード.
+     */
+    @Param({"UTF8"})
+    private EncodingType destEncoding;
+
+    /**
+     * 入力ファイルの文字数.
+     */
+    @Param({"65536", "8388608"})
+    private int size;
+
+    private AnnotationConfigApplicationContext context;
+
+    private TextEncodeConvService encConvSrv;
+
+    private TextTermConvService termConvSrv;
+
+    private FileReplaceService replaceSrv;
+
+    private Path tempDir;
+
+    private Path srcDir;
+
+    private Path destDir;
+
+    @Setup
+    public void setup() throws IOException {
+        context = new AnnotationConfigApplicationContext(
+                TextEncodeConvService.class,
+                TextTermConvService.class,
+                FileLoadService.class,
+                FileReplaceService.class);
+        encConvSrv = context.getBean(TextEncodeConvService.class);
+        termConvSrv = context.getBean(TextTermConvService.class);
+        replaceSrv = context.getBean(FileReplaceService.class);
+
+        tempDir = Files.createTempDirectory("convert-benchmark");
+        srcDir = Files.createDirectory(tempDir.resolve("src"));
+        destDir = Files.createDirectory(tempDir.resolve("dest"));
+        Files.write(srcDir.resolve(FILE_NAME), BenchmarkCorpus.encode(
+                BenchmarkCorpus.generate(BenchmarkCorpus.Kind.JAPANESE,
+                        size, TextTermType.CRLF), srcEncoding));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean streamConvert() throws IOException {
+        FileReplaceService.StreamFileContentConverter converter
+                = replaceSrv.createStreamFileContentConverter(
+                        srcDir.toString(), destDir.toString(),
+                        TransferType.COPY, OverwriteMode.OVERWRITE,
+                        destEncoding, TextTermType.LF);
+        return converter.convert(FILE_NAME, srcEncoding);
+    }
+
+    @Benchmark
+    public boolean inMemoryConvert() throws IOException {
+        FileReplaceService.FileContentConverter converter
+                = replaceSrv.createFileContentConverter(
+                        srcDir.toString(), destDir.toString(),
+                        TransferType.COPY, OverwriteMode.OVERWRITE,
+                        text -> encConvSrv.writeBytes(termConvSrv.changeTermType(
+                                text, TextTermType.LF), destEncoding));
+        return converter.convert(FILE_NAME,
+                data -> encConvSrv.readText(data, srcEncoding));
+    }
+}
@@ -0,0 +1,86 @@
+package jp.seraphyware.textencodechanger.benchmark;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import jp.seraphyware.textencodechanger.services.FileWalkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ファイル名パターンの照合のベンチマーク.<br>
+ * パターンごとの正規表現を順に試す方法と、まとめて照合するマッチャーを比較する.<br>
+ *
+ * @author seraphy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileNameMatcherBenchmark {
+
+    /**
+     * ファイル名パターン.
+     */
+    @Param({
+        "*.txt",
+        "*.java;*.xml;*.properties;*.txt;*.md;*.html;*.css;*.js;*.ts;*.json;"
+        + "*.c;*.h;*.cpp;*.hpp;*.py;*.rb;*.go;*.rs;*.sql;*.csv;Makefile;README*"
+    })
+    private String patterns;
+
+    private List<Pattern> regexps;
+
+    private FileWalkService.FileNameMatcher matcher;
+
+    private Path[] names;
+
+    @Setup
+    public void setup() {
+        FileWalkService service = new FileWalkService();
+        regexps = service.makePatterns(patterns);
+        matcher = service.createFileNameMatcher(regexps);
+
+        String[] exts = {"java", "class", "xml", "png", "txt", "jar", "md", "o"};
+        names = new Path[1000];
+        for (int idx = 0; idx < names.length; idx++) {
+            names[idx] = Paths.get("File" + idx + "." + exts[idx % exts.length]);
+        }
+    }
+
+    @Benchmark
+    public int regexList() {
+        int count = 0;
+        for (Path name : names) {
+            if (regexps.stream().anyMatch(
+                    pattern -> pattern.matcher(name.toString()).matches())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int compiled() {
+        int count = 0;
+        for (Path name : names) {
+            if (matcher.match(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
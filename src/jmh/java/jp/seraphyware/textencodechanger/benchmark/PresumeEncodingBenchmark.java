@@ -0,0 +1,98 @@
+package jp.seraphyware.textencodechanger.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.TextEncodeConvService;
+import jp.seraphyware.textencodechanger.services.TextTermConvService;
+import jp.seraphyware.textencodechanger.services.TextTermType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 文字コードの推定のベンチマーク.<br>
+ * 比較のため、候補の文字コードごとに読み込みを試行する方法も計測する.<br>
+ * 文字コードと行末タイプの推定は、同じ走査で行末を数える方法と、
+ * 推定した文字コードで読み込みなおして数える方法を計測する.<br>
+ *
+ * @author seraphy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PresumeEncodingBenchmark {
+
+    /**
+     * テキストの文字コード.
+     */
+    @Param({"UTF8", "UTF8_BOM", "Windows31J", "EUC_JP", "UTF16_BOM_LE", "UTF16_BE"})
+    private EncodingType encoding;
+
+    /**
+     * テキストの種類.
+     */
+    @Param({"ASCII", "JAPANESE"})
+    private BenchmarkCorpus.Kind kind;
+
+    /**
+     * テキストの文字数.
+     */
+    @Param({"4096", "1048576"})
+    private int size;
+
+    private TextEncodeConvService service;
+
+    private TextTermConvService termService;
+
+    private ByteBuffer data;
+
+    @Setup
+    public void setup() throws IOException {
+        service = new TextEncodeConvService();
+        termService = new TextTermConvService();
+        data = ByteBuffer.wrap(BenchmarkCorpus.encode(BenchmarkCorpus.generate(
+                kind, size, TextTermType.CRLF), encoding));
+    }
+
+    @Benchmark
+    public EncodingType presumeEncoding() throws IOException {
+        return service.presumeEncoding(data);
+    }
+
+    @Benchmark
+    public TextEncodeConvService.PresumeResult presumeEncodingAndTermType() {
+        return service.presumeEncodingAndTermType(data);
+    }
+
+    @Benchmark
+    public TextTermType presumeThenCountTerms() throws IOException {
+        EncodingType enc = service.presumeEncoding(data);
+        TextTermConvService.TermCounter counter = termService.createTermCounter();
+        service.readText(data, enc, counter::accept);
+        return counter.getTermType(true);
+    }
+
+    @Benchmark
+    public EncodingType trialDecoding() {
+        for (EncodingType enc : service.getCheckEncodingOrder()) {
+            data.rewind();
+            if (enc.checkEncodable(data)) {
+                return enc;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package jp.seraphyware.textencodechanger.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.TextTermConvService;
+import jp.seraphyware.textencodechanger.services.TextTermType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 行末タイプの推定と変換のベンチマーク.
+ *
+ * @author seraphy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermTypeBenchmark {
+
+    /**
+     * 元のテキストの行末.
+     */
+    @Param({"CRLF", "LF"})
+    private TextTermType srcTermType;
+
+    /**
+     * 変換後の行末.
+     */
+    @Param({"CRLF", "LF"})
+    private TextTermType destTermType;
+
+    /**
+     * テキストの種類.
+     */
+    @Param({"JAPANESE"})
+    private BenchmarkCorpus.Kind kind;
+
+    /**
+     * テキストの文字数.
+     */
+    @Param({"4096", "1048576"})
+    private int size;
+
+    private TextTermConvService service;
+
+    private CharBuffer text;
+
+    /**
+     * テキストをUTF-8にしたバイト列.
+     */
+    private ByteBuffer bytes;
+
+    @Setup
+    public void setup() throws Exception {
+        service = new TextTermConvService();
+        text = CharBuffer.wrap(BenchmarkCorpus.generate(kind, size, srcTermType));
+        bytes = EncodingType.UTF8.encode(text.duplicate());
+    }
+
+    @Benchmark
+    public TextTermType presumeTermType() {
+        return service.presumeTermType(text);
+    }
+
+    @Benchmark
+    public TextTermType presumeTermTypeFromBytes() {
+        return service.presumeTermType(bytes, EncodingType.UTF8);
+    }
+
+    @Benchmark
+    public TextTermType decodeThenPresumeTermType() throws Exception {
+        bytes.rewind();
+        return service.presumeTermType(EncodingType.UTF8.decode(bytes));
+    }
+
+    @Benchmark
+    public CharBuffer changeTermType() {
+        text.rewind();
+        return service.changeTermType(text, destTermType);
+    }
+
+    @Benchmark
+    public int rewriteTermType() {
+        text.rewind();
+        TextTermConvService.TermRewriter rewriter
+                = service.createTermRewriter(destTermType);
+        return rewriter.rewrite(text).remaining()
+                + rewriter.finish().remaining();
+    }
+}
@@ -0,0 +1,102 @@
+package jp.seraphyware.textencodechanger;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import jp.seraphyware.textencodechanger.batch.BatchConfiguration;
+import jp.seraphyware.textencodechanger.batch.BatchOptions;
+import jp.seraphyware.textencodechanger.batch.BatchRunner;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * 画面を使わずにコマンドラインから走査と変換を行うエントリポイント.<br>
+ * JavaFXやスプラッシュは初期化しない.<br>
+ * 「--name=value」形式の引数はSpringのプロパティとして扱い、
+ * それ以外の引数をバッチ処理の引数として解析する.<br>
+ *
+ * @author seraphy
+ */
+public final class BatchMain {
+
+    /**
+     * ログのコンソール出力先を指定するシステムプロパティ(log4j2.xmlで参照).
+     */
+    static final String LOG_TARGET_PROPERTY = "textreencoder.log.target";
+
+    /**
+     * プライベートコンストラクタ.
+     */
+    private BatchMain() {
+        super();
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * バッチ処理を実行する.
+     *
+     * @param args 引数
+     * @return 終了コード
+     */
+    public static int run(String[] args) {
+        // レポートを標準出力に出せるように、ログは標準エラーに出す.
+        // (ロガーの初期化前に設定する必要がある)
+        if (System.getProperty(LOG_TARGET_PROPERTY) == null) {
+            System.setProperty(LOG_TARGET_PROPERTY, "SYSTEM_ERR");
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        List<String> springArgs = new ArrayList<>();
+        List<String> batchArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.indexOf('=') > 0) {
+                springArgs.add(arg);
+            } else {
+                batchArgs.add(arg);
+            }
+        }
+
+        BatchOptions options;
+        try {
+            options = BatchOptions.parse(batchArgs);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            BatchOptions.printUsage(System.err);
+            return BatchRunner.EXIT_USAGE;
+        }
+        if (options.isHelp()) {
+            BatchOptions.printUsage(System.out);
+            return BatchRunner.EXIT_OK;
+        }
+
+        SpringApplication app = new SpringApplication(BatchConfiguration.class);
+        app.setBannerMode(Banner.Mode.OFF);
+        app.setHeadless(true);
+        app.setLogStartupInfo(false);
+        try (ConfigurableApplicationContext context
+                = app.run(springArgs.toArray(new String[0]))) {
+            BatchRunner runner = context.getBean(BatchRunner.class);
+            if (options.getReport() != null) {
+                try (Writer wr = Files.newBufferedWriter(
+                        options.getReport(), StandardCharsets.UTF_8)) {
+                    return runner.run(options, wr);
+                }
+            }
+            Writer wr = new BufferedWriter(new OutputStreamWriter(
+                    System.out, StandardCharsets.UTF_8));
+            return runner.run(options, wr);
+
+        } catch (Exception ex) {
+            ex.printStackTrace(System.err);
+            return BatchRunner.EXIT_FAILED;
+        }
+    }
+}
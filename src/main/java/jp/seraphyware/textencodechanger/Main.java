@@ -1,5 +1,6 @@
 package jp.seraphyware.textencodechanger;
 
+import java.util.Arrays;
 import javafx.application.Application;
 
 /**
@@ -8,7 +9,18 @@ import javafx.application.Application;
  */
 public class Main {
     
+    /**
+     * 画面を使わずにバッチ処理を行う場合に先頭に指定する引数.
+     */
+    public static final String BATCH_OPTION = "--batch";
+
     public static void main(String[] args) {
+        if (args.length > 0 && BATCH_OPTION.equals(args[0])) {
+            // JavaFXを初期化せずにバッチ処理を行う.
+            BatchMain.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         // JavaFX11の関連jarをクラスパスで通した場合、
         // Application派生クラス内のmainメソッドをエントリポイントにすると
         // Applicationクラスの解決のためにJavaFXモジュールを探索して発見できず
@@ -0,0 +1,20 @@
+package jp.seraphyware.textencodechanger.batch;
+
+import jp.seraphyware.textencodechanger.services.FileWalkService;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * バッチ処理用のコンテキスト設定.<br>
+ * JavaFXに依存する画面部品を含めず、サービスとバッチ処理のみを登録する.<br>
+ *
+ * @author seraphy
+ */
+@Configuration
+@ComponentScan(basePackageClasses = {
+    FileWalkService.class,
+    BatchRunner.class
+})
+public class BatchConfiguration {
+
+}
@@ -0,0 +1,346 @@
+package jp.seraphyware.textencodechanger.batch;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.OverwriteMode;
+import jp.seraphyware.textencodechanger.services.TextTermType;
+import jp.seraphyware.textencodechanger.services.TransferType;
+
+/**
+ * バッチ処理のコマンドライン引数.
+ *
+ * @author seraphy
+ */
+public final class BatchOptions {
+
+    /**
+     * 入力元ディレクトリ.
+     */
+    private Path input;
+
+    /**
+     * 再帰的に検査するか？
+     */
+    private boolean recursive = true;
+
+    /**
+     * ファイル名パターン(セミコロン区切り).
+     */
+    private String patterns = "*";
+
+    /**
+     * 除外するファイル名とディレクトリ名のパターン(セミコロン区切り).
+     * nullの場合は既定の除外パターンとする.
+     */
+    private String excludes;
+
+    /**
+     * 変換後の文字コード、nullの場合は走査のみ.
+     */
+    private EncodingType encoding;
+
+    /**
+     * 変換後の改行コード.
+     */
+    private TextTermType termType = TextTermType.UNKNOWN;
+
+    /**
+     * 出力先ディレクトリ.
+     */
+    private String output;
+
+    /**
+     * 転送モード、nullの場合は出力先の有無で決める.
+     */
+    private TransferType transferType;
+
+    /**
+     * 上書きモード.
+     */
+    private OverwriteMode overwriteMode = OverwriteMode.OVERWRITE;
+
+    /**
+     * 変換せずに対象となるファイルを報告するだけか？
+     */
+    private boolean dryRun;
+
+    /**
+     * レポートの出力先、nullの場合は標準出力.
+     */
+    private Path report;
+
+    /**
+     * 使い方の表示か？
+     */
+    private boolean help;
+
+    /**
+     * コマンドライン引数を解析する.
+     *
+     * @param args 引数
+     * @return 解析結果
+     * @throws IllegalArgumentException 引数が不正
+     */
+    public static BatchOptions parse(final List<String> args) {
+        Objects.requireNonNull(args);
+        BatchOptions options = new BatchOptions();
+        Iterator<String> ite = args.iterator();
+        while (ite.hasNext()) {
+            String arg = ite.next();
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    options.help = true;
+                    break;
+                case "-i":
+                case "--input":
+                    options.input = Paths.get(value(arg, ite));
+                    break;
+                case "-p":
+                case "--pattern":
+                    options.patterns = value(arg, ite);
+                    break;
+                case "-x":
+                case "--exclude":
+                    options.excludes = value(arg, ite);
+                    break;
+                case "-n":
+                case "--no-recursive":
+                    options.recursive = false;
+                    break;
+                case "-e":
+                case "--encoding":
+                    options.encoding = valueOf(EncodingType.class, arg, value(arg, ite));
+                    break;
+                case "-t":
+                case "--term":
+                    options.termType = valueOf(TextTermType.class, arg, value(arg, ite));
+                    break;
+                case "-o":
+                case "--output":
+                    options.output = value(arg, ite);
+                    break;
+                case "--transfer":
+                    options.transferType = valueOf(TransferType.class, arg, value(arg, ite));
+                    break;
+                case "--overwrite":
+                    options.overwriteMode = valueOf(OverwriteMode.class, arg, value(arg, ite));
+                    break;
+                case "--dry-run":
+                    options.dryRun = true;
+                    break;
+                case "--report":
+                    options.report = Paths.get(value(arg, ite));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+
+        if (options.help) {
+            return options;
+        }
+        if (options.input == null) {
+            throw new IllegalArgumentException("--input is required");
+        }
+        if (options.transferType == null) {
+            options.transferType = options.output == null
+                    ? TransferType.REPLACE : TransferType.COPY;
+        }
+        if (options.transferType != TransferType.REPLACE && options.output == null) {
+            throw new IllegalArgumentException(
+                    "--output is required for --transfer " + options.transferType);
+        }
+        return options;
+    }
+
+    /**
+     * オプションの値を取得する.
+     *
+     * @param option オプション名
+     * @param ite 引数
+     * @return 値
+     */
+    private static String value(final String option, final Iterator<String> ite) {
+        if (!ite.hasNext()) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return ite.next();
+    }
+
+    /**
+     * オプションの値を列挙子に変換する.(大文字小文字は区別しない)
+     *
+     * @param <E> 列挙型
+     * @param type 列挙型のクラス
+     * @param option オプション名
+     * @param value 値
+     * @return 列挙子
+     */
+    private static <E extends Enum<E>> E valueOf(final Class<E> type,
+            final String option, final String value) {
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("invalid value for " + option + ": "
+                + value + " (" + Arrays.toString(type.getEnumConstants()) + ")");
+    }
+
+    /**
+     * 使い方を表示する.
+     *
+     * @param out 出力先
+     */
+    public static void printUsage(final PrintStream out) {
+        out.println("usage: --batch --input DIR [options] [--property=value ...]");
+        out.println("  -i, --input DIR         directory to scan");
+        out.println("  -p, --pattern PATTERNS  file name patterns separated by ';' (default: *)");
+        out.println("  -x, --exclude PATTERNS  file and directory name patterns to skip, separated by ';'");
+        out.println("                          (default: textreencoder.scan.defaultExcludes)");
+        out.println("  -n, --no-recursive      do not scan subdirectories");
+        out.println("  -e, --encoding NAME     convert to this encoding; scan only if omitted");
+        out.println("                          " + Arrays.toString(EncodingType.values()));
+        out.println("  -t, --term TYPE         convert line terminators to CRLF, LF or CR");
+        out.println("  -o, --output DIR        output directory for COPY/MOVE");
+        out.println("      --transfer MODE     REPLACE, COPY or MOVE"
+                + " (default: COPY with --output, otherwise REPLACE)");
+        out.println("      --overwrite MODE    OVERWRITE, CREATE_BACKUP or SKIP (default: OVERWRITE)");
+        out.println("      --dry-run           report files to be converted without converting");
+        out.println("      --report FILE       write the TSV report to FILE (default: stdout)");
+        out.println("  -h, --help              show this help");
+        out.println("Arguments of the form --name=value override application.properties"
+                + " (e.g. --textreencoder.convert.parallelism=4).");
+        out.println("Exit status: 0 = success, 1 = scan or conversion failed, 2 = invalid arguments.");
+    }
+
+    /**
+     * 入力元ディレクトリ.
+     *
+     * @return 入力元ディレクトリ
+     */
+    public Path getInput() {
+        return input;
+    }
+
+    /**
+     * 除外するファイル名とディレクトリ名のパターン.
+     *
+     * @return セミコロン区切りのパターン、既定の除外パターンとする場合はnull
+     */
+    public String getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * 再帰的に検査するか？
+     *
+     * @return 再帰的に検査する場合はtrue
+     */
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * ファイル名パターン.
+     *
+     * @return セミコロン区切りのパターン
+     */
+    public String getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * 変換後の文字コード.
+     *
+     * @return 文字コード、走査のみの場合はnull
+     */
+    public EncodingType getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * 変換後の改行コード.
+     *
+     * @return 改行コード、変更しない場合はUNKNOWN
+     */
+    public TextTermType getTermType() {
+        return termType;
+    }
+
+    /**
+     * 出力先ディレクトリ.
+     *
+     * @return 出力先ディレクトリ、未指定ならnull
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * 転送モード.
+     *
+     * @return 転送モード
+     */
+    public TransferType getTransferType() {
+        return transferType;
+    }
+
+    /**
+     * 上書きモード.
+     *
+     * @return 上書きモード
+     */
+    public OverwriteMode getOverwriteMode() {
+        return overwriteMode;
+    }
+
+    /**
+     * 変換せずに対象となるファイルを報告するだけか？
+     *
+     * @return 報告のみの場合はtrue
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * レポートの出力先.
+     *
+     * @return 出力先ファイル、標準出力の場合はnull
+     */
+    public Path getReport() {
+        return report;
+    }
+
+    /**
+     * 使い方の表示か？
+     *
+     * @return 使い方の表示の場合はtrue
+     */
+    public boolean isHelp() {
+        return help;
+    }
+
+    /**
+     * 診断文字列を返す.
+     *
+     * @return 診断文字列
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "input=%s, recursive=%s, patterns=%s, excludes=%s, encoding=%s,"
+                + " term=%s, output=%s, transfer=%s, overwrite=%s, dryRun=%s",
+                input, recursive, patterns, excludes, encoding, termType, output,
+                transferType, overwriteMode, dryRun);
+    }
+}
@@ -0,0 +1,256 @@
+package jp.seraphyware.textencodechanger.batch;
+
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import jp.seraphyware.textencodechanger.services.FileReplaceService;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.ConvertResult;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.ConvertTarget;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.StreamFileContentConverter;
+import jp.seraphyware.textencodechanger.services.FileWalkService;
+import jp.seraphyware.textencodechanger.services.FileWalkService.FileInfo;
+import jp.seraphyware.textencodechanger.services.TextTermType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 走査、変換対象の選択、変換を画面を使わずに行い、結果をレポートとして出力する.<br>
+ * レポートはタブ区切りのテキストで、1行目はヘッダ、以降は走査順に1ファイル1行となる.<br>
+ *
+ * @author seraphy
+ */
+@Component
+public class BatchRunner {
+
+    /**
+     * ロガー.
+     */
+    private static final Logger log = LoggerFactory.getLogger(BatchRunner.class);
+
+    /**
+     * 終了コード: 成功.
+     */
+    public static final int EXIT_OK = 0;
+
+    /**
+     * 終了コード: 変換に失敗したファイルがある.
+     */
+    public static final int EXIT_FAILED = 1;
+
+    /**
+     * 終了コード: 引数が不正.
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * レポートのヘッダ.
+     */
+    static final String REPORT_HEADER
+            = "#status\tpath\tencoding\tterm\tverified\tmessage";
+
+    /**
+     * レポートのファイルごとの状態.
+     */
+    public enum Status {
+
+        /**
+         * 走査のみ(変換後の文字コードの指定なし).
+         */
+        SCANNED,
+
+        /**
+         * 変換の必要なし.
+         */
+        UNCHANGED,
+
+        /**
+         * 文字コードが推定できないため対象外.
+         */
+        UNKNOWN,
+
+        /**
+         * バイナリファイルのため対象外.
+         */
+        BINARY,
+
+        /**
+         * 変換対象(--dry-runのため変換していない).
+         */
+        PENDING,
+
+        /**
+         * 変換した.
+         */
+        CONVERTED,
+
+        /**
+         * 出力先が既存のため変換しなかった、または中断された.
+         */
+        SKIPPED,
+
+        /**
+         * 変換に失敗した.
+         */
+        FAILED
+    }
+
+    /**
+     * ファイルの走査サービス.
+     */
+    @Autowired(required = true)
+    private FileWalkService fileWalkService;
+
+    /**
+     * ファイルの変換サービス.
+     */
+    @Autowired(required = true)
+    private FileReplaceService fileReplaceService;
+
+    /**
+     * バッチ処理を実行する.
+     *
+     * @param options 引数
+     * @param report レポートの出力先
+     * @return 終了コード
+     * @throws Exception 走査の失敗、またはレポートの出力に失敗
+     */
+    public int run(final BatchOptions options, final Writer report) throws Exception {
+        Objects.requireNonNull(options);
+        Objects.requireNonNull(report);
+        log.info("batch: " + options);
+
+        // 走査
+        Path srcDir = options.getInput();
+        String excludes = options.getExcludes() != null
+                ? options.getExcludes() : fileWalkService.getDefaultExcludes();
+        List<FileInfo> files = fileWalkService.createCallable(
+                srcDir,
+                options.isRecursive(),
+                fileWalkService.makePatterns(options.getPatterns()),
+                fileWalkService.makePatterns(excludes)).call();
+        log.info("scanned: " + files.size());
+
+        // 変換対象の選択
+        List<ConvertTarget> targets = new ArrayList<>();
+        Map<String, Status> statuses = new HashMap<>();
+        for (FileInfo fileInfo : files) {
+            String relativePath = srcDir.relativize(fileInfo.getPath()).toString();
+            Status status;
+            if (fileInfo.isBinary()) {
+                status = Status.BINARY;
+            } else if (options.getEncoding() == null) {
+                status = Status.SCANNED;
+            } else if (fileInfo.getEncoding() == null) {
+                status = Status.UNKNOWN;
+            } else if (!fileInfo.needsConversion(
+                    options.getEncoding(), options.getTermType())) {
+                status = Status.UNCHANGED;
+            } else if (options.isDryRun()) {
+                status = Status.PENDING;
+            } else {
+                // 行末タイプが確認済みであれば、同じ行末タイプへの変換を省略できる
+                TextTermType srcTermType = fileInfo.isVerified()
+                        ? fileInfo.getTermType() : TextTermType.UNKNOWN;
+                targets.add(new ConvertTarget(relativePath,
+                        fileInfo.getEncoding(), srcTermType,
+                        fileInfo.getContentHash()));
+                status = Status.SKIPPED;
+            }
+            statuses.put(relativePath, status);
+        }
+
+        // 変換
+        Set<String> converted = new HashSet<>();
+        Map<String, Exception> failures = new HashMap<>();
+        if (!targets.isEmpty()) {
+            StreamFileContentConverter converter
+                    = fileReplaceService.createStreamFileContentConverter(
+                            srcDir.toString(),
+                            options.getOutput(),
+                            options.getTransferType(),
+                            options.getOverwriteMode(),
+                            options.getEncoding(),
+                            options.getTermType());
+            ConvertResult result = fileReplaceService.createConvertCallable(
+                    converter, targets).call();
+            result.getConverted().forEach(
+                    target -> converted.add(target.getRelativePath()));
+            result.getFailures().forEach(
+                    (target, ex) -> failures.put(target.getRelativePath(), ex));
+        }
+
+        // レポート
+        Map<Status, Integer> counts = new HashMap<>();
+        report.write(REPORT_HEADER);
+        report.write('\n');
+        for (FileInfo fileInfo : files) {
+            String relativePath = srcDir.relativize(fileInfo.getPath()).toString();
+            Status status = statuses.get(relativePath);
+            Exception cause = failures.get(relativePath);
+            if (cause != null) {
+                status = Status.FAILED;
+            } else if (converted.contains(relativePath)) {
+                status = Status.CONVERTED;
+            }
+            counts.merge(status, 1, Integer::sum);
+
+            report.write(status.name());
+            report.write('\t');
+            report.write(escape(relativePath));
+            report.write('\t');
+            report.write(fileInfo.getEncoding() == null
+                    ? "" : fileInfo.getEncoding().name());
+            report.write('\t');
+            report.write(fileInfo.getTermType() == null
+                    ? "" : fileInfo.getTermType().name());
+            report.write('\t');
+            report.write(Boolean.toString(fileInfo.isVerified()));
+            report.write('\t');
+            report.write(cause == null ? "" : escape(cause.toString()));
+            report.write('\n');
+        }
+        report.flush();
+        log.info("batch result: " + counts);
+
+        return failures.isEmpty() ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * レポートの1項目に含められない文字をエスケープする.
+     *
+     * @param value 値
+     * @return エスケープされた値
+     */
+    private static String escape(final String value) {
+        StringBuilder buf = new StringBuilder(value.length());
+        for (int idx = 0; idx < value.length(); idx++) {
+            char ch = value.charAt(idx);
+            switch (ch) {
+                case '\\':
+                    buf.append("\\\\");
+                    break;
+                case '\t':
+                    buf.append("\\t");
+                    break;
+                case '\r':
+                    buf.append("\\r");
+                    break;
+                case '\n':
+                    buf.append("\\n");
+                    break;
+                default:
+                    buf.append(ch);
+                    break;
+            }
+        }
+        return buf.toString();
+    }
+}
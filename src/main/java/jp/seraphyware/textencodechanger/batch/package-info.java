@@ -0,0 +1,4 @@
+/**
+ * テキストファイルの文字コード変換をGUIを使わずにコマンドラインから行うバッチ処理部.
+ */
+package jp.seraphyware.textencodechanger.batch;
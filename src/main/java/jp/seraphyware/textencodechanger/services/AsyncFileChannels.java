@@ -0,0 +1,400 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * AsynchronousFileChannelによる逐次読み書きのチャネル.<br>
+ * 読み込みは、呼び出し元が読み込んだブロックを処理している間に
+ * 次のブロックを先読みする.<br>
+ * 書き込みは、書き込むバイト列を複製して非同期に書き込み、完了を待たずに戻る.
+ * 書き込み中のバイト数は、複数のチャネルで共有するセマフォで上限を設ける.
+ * 閉じる際に、すべての書き込みの完了を待つ.<br>
+ * いずれのチャネルも、単一のスレッドから使用すること.<br>
+ *
+ * @author seraphy
+ */
+final class AsyncFileChannels {
+
+    /**
+     * 読み込みのブロックサイズ.
+     */
+    static final int READ_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * インスタンス化しない.
+     */
+    private AsyncFileChannels() {
+        super();
+    }
+
+    /**
+     * 先読みしながら読み込むチャネルを開く.
+     *
+     * @param path ファイル
+     * @return チャネル
+     * @throws IOException 失敗
+     */
+    static ReadableByteChannel openReader(final Path path) throws IOException {
+        Objects.requireNonNull(path);
+        return new PrefetchReadChannel(AsynchronousFileChannel.open(
+                path, StandardOpenOption.READ), READ_BLOCK_SIZE);
+    }
+
+    /**
+     * 非同期に書き込むチャネルを開く.<br>
+     * 既存のファイルは切り詰められる.<br>
+     *
+     * @param path ファイル
+     * @param budget 書き込み中のバイト数の上限となるセマフォ(許可数がバイト数)
+     * @param maxInFlightBytes セマフォの許可数の総数
+     * @return チャネル
+     * @throws IOException 失敗
+     */
+    static WritableByteChannel openWriter(final Path path,
+            final Semaphore budget, final int maxInFlightBytes)
+            throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(budget);
+        return new PipelinedWriteChannel(AsynchronousFileChannel.open(path,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING), budget, maxInFlightBytes);
+    }
+
+    /**
+     * 非同期の読み込みの完了を待つ.<br>
+     * 待機中に割り込まれた場合は、チャネルを閉じて割り込み状態を復元する.<br>
+     *
+     * @param ch チャネル
+     * @param future 読み込み
+     * @return 読み込んだバイト数、終端であれば-1
+     * @throws IOException 失敗
+     */
+    private static int await(final AsynchronousFileChannel ch,
+            final Future<Integer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            ch.close();
+            Thread.currentThread().interrupt();
+            throw new ClosedByInterruptException();
+        } catch (ExecutionException ex) {
+            throw toIOException(ex.getCause());
+        }
+    }
+
+    /**
+     * 非同期処理の失敗をIOExceptionとして返す.
+     *
+     * @param cause 原因
+     * @return 例外
+     */
+    private static IOException toIOException(final Throwable cause) {
+        if (cause instanceof IOException) {
+            return new IOException(cause.getMessage(), cause);
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * 次のブロックを先読みしながら読み込むチャネル.
+     */
+    private static final class PrefetchReadChannel implements ReadableByteChannel {
+
+        /**
+         * ファイル.
+         */
+        private final AsynchronousFileChannel ch;
+
+        /**
+         * 読み込み済みで、呼び出し元に渡していないバイト列.
+         */
+        private ByteBuffer current;
+
+        /**
+         * 先読み中のバッファ.
+         */
+        private ByteBuffer next;
+
+        /**
+         * 先読み、なければnull.
+         */
+        private Future<Integer> pending;
+
+        /**
+         * 次に先読みするファイル上の位置.
+         */
+        private long position;
+
+        /**
+         * 終端に達したか？
+         */
+        private boolean eof;
+
+        PrefetchReadChannel(final AsynchronousFileChannel ch, final int blockSize) {
+            this.ch = ch;
+            this.current = ByteBuffer.allocate(blockSize);
+            this.current.flip();
+            this.next = ByteBuffer.allocate(blockSize);
+            prefetch();
+        }
+
+        /**
+         * 次のブロックの読み込みを開始する.
+         */
+        private void prefetch() {
+            next.clear();
+            pending = ch.read(next, position);
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            if (!ch.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (!current.hasRemaining()) {
+                if (eof) {
+                    return -1;
+                }
+                int len = await(ch, pending);
+                pending = null;
+                if (len < 0) {
+                    eof = true;
+                    return -1;
+                }
+                position += len;
+                ByteBuffer filled = next;
+                next = current;
+                current = filled;
+                current.flip();
+                // 呼び出し元が処理している間に、次のブロックを読み込む
+                prefetch();
+            }
+            int len = Math.min(dst.remaining(), current.remaining());
+            ByteBuffer part = current.duplicate();
+            part.limit(part.position() + len);
+            dst.put(part);
+            current.position(current.position() + len);
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return ch.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // 先読み中の読み込みは取り消される
+            ch.close();
+        }
+    }
+
+    /**
+     * 完了を待たずに書き込むチャネル.
+     */
+    private static final class PipelinedWriteChannel implements WritableByteChannel {
+
+        /**
+         * ファイル.
+         */
+        private final AsynchronousFileChannel ch;
+
+        /**
+         * 書き込み中のバイト数の上限となるセマフォ.
+         */
+        private final Semaphore budget;
+
+        /**
+         * セマフォの許可数の総数.
+         */
+        private final int maxInFlightBytes;
+
+        /**
+         * 次に書き込むファイル上の位置.
+         */
+        private long position;
+
+        /**
+         * 完了していない書き込みの数.
+         */
+        private int pending;
+
+        /**
+         * 最初に失敗した書き込みの原因、なければnull.
+         */
+        private volatile Throwable failure;
+
+        /**
+         * 開いているか？
+         */
+        private boolean open = true;
+
+        PipelinedWriteChannel(final AsynchronousFileChannel ch,
+                final Semaphore budget, final int maxInFlightBytes) {
+            this.ch = ch;
+            this.budget = budget;
+            this.maxInFlightBytes = Math.max(maxInFlightBytes, 1);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            checkFailure();
+            int len = src.remaining();
+            if (len == 0) {
+                return 0;
+            }
+            // 上限より大きい書き込みは、上限分の許可で書き込む
+            int permits = Math.min(len, maxInFlightBytes);
+            try {
+                budget.acquire(permits);
+            } catch (InterruptedException ex) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new ClosedByInterruptException();
+            }
+            ByteBuffer buf = ByteBuffer.allocate(len);
+            buf.put(src);
+            buf.flip();
+            synchronized (this) {
+                pending++;
+            }
+            new WriteHandler(position, permits).start(buf);
+            position += len;
+            return len;
+        }
+
+        /**
+         * 書き込みに失敗していれば例外とする.
+         *
+         * @throws IOException 書き込みの失敗
+         */
+        private void checkFailure() throws IOException {
+            Throwable cause = failure;
+            if (cause != null) {
+                throw toIOException(cause);
+            }
+        }
+
+        /**
+         * 書き込みが完了したことを通知する.
+         *
+         * @param permits 返却する許可数
+         * @param cause 失敗した場合は原因、成功した場合はnull
+         */
+        private void done(final int permits, final Throwable cause) {
+            if (cause != null && failure == null) {
+                failure = cause;
+            }
+            budget.release(permits);
+            synchronized (this) {
+                pending--;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * すべての書き込みの完了を待ってから閉じる.<br>
+         * 書き込みに失敗していた場合は例外とする.<br>
+         *
+         * @throws IOException 失敗
+         */
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            boolean interrupted = false;
+            try {
+                synchronized (this) {
+                    while (pending > 0) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            // 書き込み中のバッファを解放しないよう、完了まで待つ
+                            interrupted = true;
+                        }
+                    }
+                }
+            } finally {
+                ch.close();
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            checkFailure();
+        }
+
+        /**
+         * 1回分の書き込み.<br>
+         * 一部だけが書き込まれた場合は、残りを続けて書き込む.<br>
+         */
+        private final class WriteHandler
+                implements CompletionHandler<Integer, ByteBuffer> {
+
+            /**
+             * 書き込み位置.
+             */
+            private long pos;
+
+            /**
+             * 完了時に返却する許可数.
+             */
+            private final int permits;
+
+            WriteHandler(final long pos, final int permits) {
+                this.pos = pos;
+                this.permits = permits;
+            }
+
+            /**
+             * 書き込みを開始する.
+             *
+             * @param buf 書き込むバイト列
+             */
+            void start(final ByteBuffer buf) {
+                try {
+                    ch.write(buf, pos, buf, this);
+                } catch (RuntimeException ex) {
+                    done(permits, ex);
+                }
+            }
+
+            @Override
+            public void completed(final Integer result, final ByteBuffer buf) {
+                if (buf.hasRemaining()) {
+                    pos += result;
+                    start(buf);
+                    return;
+                }
+                done(permits, null);
+            }
+
+            @Override
+            public void failed(final Throwable exc, final ByteBuffer buf) {
+                done(permits, exc);
+            }
+        }
+    }
+}
@@ -1,18 +1,23 @@
 package jp.seraphyware.textencodechanger.services;
 
+import java.lang.reflect.Method;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 /**
- * バックグラウンドタスク用サービス.
+ * バックグラウンドタスク用サービス.<br>
+ * タスクを実行するスレッドの種類とスレッド数は設定により選択する.<br>
  *
  * @author seraphy
  */
@@ -24,6 +29,26 @@ public class BackgroundTaskService {
      */
     private static final Logger log = LoggerFactory.getLogger(BackgroundTaskService.class);
 
+    /**
+     * タスクを実行するスレッドの種類.
+     */
+    @Value("${textreencoder.background.executor:FIXED}")
+    private ExecutorType executorType = ExecutorType.FIXED;
+
+    /**
+     * FIXED, WORK_STEALINGのスレッド数.
+     * 0以下の場合はプロセッサ数とする.
+     */
+    @Value("${textreencoder.background.threads:1}")
+    private int threads = 1;
+
+    /**
+     * 破棄時に実行中のタスクの完了を待つ秒数.
+     * 経過しても完了しないタスクは割り込まれる.
+     */
+    @Value("${textreencoder.background.shutdownTimeout:0}")
+    private long shutdownTimeout;
+
     /**
      * スレッドサービス.
      */
@@ -34,21 +59,123 @@ public class BackgroundTaskService {
      */
     @PostConstruct
     public void init() {
-        log.info("★FileWalkService#init");
-        executor = Executors.newFixedThreadPool(1);
+        log.info("★BackgroundTaskService#init: " + executorType);
+        executor = createExecutor();
     }
 
     /**
-     * 破棄処理.
+     * 設定に従いスレッドサービスを作成する.
+     *
+     * @return スレッドサービス
+     */
+    private ExecutorService createExecutor() {
+        int nThreads = threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
+        switch (executorType) {
+            case WORK_STEALING:
+                return Executors.newWorkStealingPool(nThreads);
+
+            case VIRTUAL:
+                try {
+                    // JDK 21以降のみ
+                    Method method = Executors.class.getMethod(
+                            "newVirtualThreadPerTaskExecutor");
+                    return (ExecutorService) method.invoke(null);
+                } catch (ReflectiveOperationException ex) {
+                    log.warn("virtual threads are not available. use FIXED.");
+                    return Executors.newFixedThreadPool(nThreads);
+                }
+
+            default:
+                return Executors.newFixedThreadPool(nThreads);
+        }
+    }
+
+    /**
+     * 破棄処理.<br>
+     * 新たなタスクの受け付けを止め、実行中のタスクの完了を一定時間待ってから、
+     * 残りのタスクに割り込む.<br>
      */
     @PreDestroy
     public void dispose() {
-        log.info("★FileWalkService#dispose");
+        log.info("★BackgroundTaskService#dispose");
+        executor.shutdown();
+        try {
+            if (shutdownTimeout > 0
+                    && !executor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
+                log.warn("background tasks are still running. interrupt them.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
         executor.shutdownNow();
     }
 
     /**
-     * バックグラウンドジョブのキューに入れFutureを返す.
+     * タスクを実行するスレッドの種類を取得する.
+     *
+     * @return スレッドの種類
+     */
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+
+    /**
+     * タスクを実行するスレッドの種類を設定する.
+     * 初期化前に設定すること.
+     *
+     * @param executorType スレッドの種類
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setExecutorType(final ExecutorType executorType) {
+        Objects.requireNonNull(executorType);
+        this.executorType = executorType;
+    }
+
+    /**
+     * FIXED, WORK_STEALINGのスレッド数を取得する.
+     *
+     * @return スレッド数、0以下の場合はプロセッサ数
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * FIXED, WORK_STEALINGのスレッド数を設定する.
+     * 初期化前に設定すること.
+     *
+     * @param threads スレッド数、0以下の場合はプロセッサ数
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * 破棄時に実行中のタスクの完了を待つ秒数を取得する.
+     *
+     * @return 秒数
+     */
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * 破棄時に実行中のタスクの完了を待つ秒数を設定する.
+     *
+     * @param shutdownTimeout 秒数、0以下の場合は待たずに割り込む
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setShutdownTimeout(final long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * バックグラウンドジョブのキューに入れFutureを返す.<br>
+     * スレッドの種類にかかわらず、Futureの取り消しで実行中のタスクに割り込む.<br>
+     * (ワークスティーリングのプールのsubmitが返すFutureは割り込まないため、
+     * FutureTaskとして実行する.)<br>
      *
      * @param <V> データ型
      * @param task タスク
@@ -56,7 +183,9 @@ public class BackgroundTaskService {
      */
     public <V> Future<V> execute(final Callable<V> task) {
         Objects.requireNonNull(task);
-        return executor.submit(task);
+        FutureTask<V> future = new FutureTask<>(task);
+        executor.execute(future);
+        return future;
     }
 
     /**
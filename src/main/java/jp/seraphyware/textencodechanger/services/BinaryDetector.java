@@ -0,0 +1,263 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ファイルの先頭部分からバイナリファイルを判定する.<br>
+ * 文字コードの推定の前に用い、画像やアーカイブなどのバイナリファイルを
+ * 全体を読み込まずに除外する.<br>
+ * 以下のいずれかに該当すればバイナリとする.<br>
+ * <ul>
+ * <li>既知のバイナリ形式のマジックナンバーで始まる</li>
+ * <li>Windowsの実行ファイル(MZヘッダが指す位置にPEシグネチャがある)</li>
+ * <li>NULが偶数位置と奇数位置の両方に一定以上ある
+ * (BOMのないUTF-16のテキストでは、NULはほぼ一方の位置にのみ現れる.
+ * 一方に偏っていてUTF-16として読み込める場合は、他方のNULはU+xx00の文字の一部とみなし、
+ * 2バイトともNULの単位だけを数える)</li>
+ * <li>NULがなく、テキストで用いられない制御文字が一定以上の割合を占める</li>
+ * </ul>
+ * UTF-8, UTF-16のBOMで始まる場合はテキストとする.<br>
+ *
+ * @author seraphy
+ */
+final class BinaryDetector {
+
+    /**
+     * 判定に用いる先頭部分のバイト数.
+     */
+    static final int PREFIX_SIZE = 8 * 1024;
+
+    /**
+     * バイナリとするNULの割合の下限(少ない側の位置のNULの数に対する分母).
+     */
+    private static final int NUL_RATIO = 32;
+
+    /**
+     * NULが一方の位置に偏っているとみなす比率(多い側の位置のNULの数が、少ない側の何倍以上か).
+     */
+    private static final int NUL_DOMINANCE = 4;
+
+    /**
+     * MZヘッダのPEヘッダの位置(e_lfanew)のオフセット.
+     */
+    private static final int PE_OFFSET_POS = 0x3c;
+
+    /**
+     * PEシグネチャ.
+     */
+    private static final byte[] PE_SIGNATURE = {'P', 'E', 0, 0};
+
+    /**
+     * バイナリとする制御文字の割合の下限(判定したバイト数に対する分母).
+     */
+    private static final int CONTROL_RATIO = 10;
+
+    /**
+     * テキストであることを示すBOM.
+     */
+    private static final byte[][] TEXT_BOMS = {
+        {(byte) 0xef, (byte) 0xbb, (byte) 0xbf},
+        {(byte) 0xff, (byte) 0xfe},
+        {(byte) 0xfe, (byte) 0xff},
+    };
+
+    /**
+     * バイナリ形式のマジックナンバー.
+     */
+    private static final byte[][] MAGIC_NUMBERS = {
+        // PNG
+        {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'},
+        // GIF
+        {'G', 'I', 'F', '8'},
+        // JPEG
+        {(byte) 0xff, (byte) 0xd8, (byte) 0xff},
+        // PDF
+        {'%', 'P', 'D', 'F', '-'},
+        // ZIP (jar, docxなどを含む)
+        {'P', 'K', 0x03, 0x04},
+        {'P', 'K', 0x05, 0x06},
+        // GZIP
+        {0x1f, (byte) 0x8b},
+        // BZIP2
+        {'B', 'Z', 'h'},
+        // 7-Zip
+        {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},
+        // XZ
+        {(byte) 0xfd, '7', 'z', 'X', 'Z', 0x00},
+        // RAR
+        {'R', 'a', 'r', '!', 0x1a, 0x07},
+        // Javaのクラスファイル
+        {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe},
+        // ELF
+        {0x7f, 'E', 'L', 'F'},
+        // OLE2 (doc, xlsなど)
+        {(byte) 0xd0, (byte) 0xcf, 0x11, (byte) 0xe0, (byte) 0xa1, (byte) 0xb1, 0x1a, (byte) 0xe1},
+    };
+
+    /**
+     * インスタンス化しない.
+     */
+    private BinaryDetector() {
+        super();
+    }
+
+    /**
+     * バイト列の先頭部分からバイナリであるか判定する.<br>
+     * バッファの位置は変更しない.<br>
+     *
+     * @param buf バイト列(位置からリミットまでを判定する)
+     * @return バイナリであればtrue
+     */
+    static boolean isBinary(final ByteBuffer buf) {
+        int start = buf.position();
+        int len = Math.min(buf.remaining(), PREFIX_SIZE);
+        if (len == 0) {
+            return false;
+        }
+        for (byte[] bom : TEXT_BOMS) {
+            if (startsWith(buf, start, len, bom)) {
+                return false;
+            }
+        }
+        for (byte[] magic : MAGIC_NUMBERS) {
+            if (startsWith(buf, start, len, magic)) {
+                return true;
+            }
+        }
+        if (isPortableExecutable(buf, start, len)) {
+            return true;
+        }
+
+        int nulEven = 0;
+        int nulOdd = 0;
+        int nulUnits = 0;
+        int controls = 0;
+        for (int idx = 0; idx < len; idx++) {
+            int b = buf.get(start + idx) & 0xff;
+            if (b == 0) {
+                if ((idx & 1) == 0) {
+                    nulEven++;
+                } else {
+                    nulOdd++;
+                    if (buf.get(start + idx - 1) == 0) {
+                        nulUnits++;
+                    }
+                }
+            } else if (isBinaryControl(b)) {
+                controls++;
+            }
+        }
+        if (nulEven > 0 || nulOdd > 0) {
+            int units = (len + 1) / 2;
+            int minority = Math.min(nulEven, nulOdd);
+            boolean littleEndian = nulOdd > nulEven;
+            if (Math.max(nulEven, nulOdd) >= minority * NUL_DOMINANCE
+                    && isUtf16(buf, start, len, littleEndian)) {
+                // 少ない側のNULは、U+xx00の文字の一部とみなす
+                minority = nulUnits;
+            }
+            return minority * NUL_RATIO > units;
+        }
+        return controls * CONTROL_RATIO > len;
+    }
+
+    /**
+     * BOMのないUTF-16として読み込めるか？<br>
+     * 末尾で文字が完結していなくてもよい.<br>
+     *
+     * @param buf バッファ
+     * @param start 開始位置
+     * @param len 判定するバイト数
+     * @param littleEndian リトルエンディアンであるか？
+     * @return 読み込めればtrue
+     */
+    private static boolean isUtf16(final ByteBuffer buf, final int start,
+            final int len, final boolean littleEndian) {
+        EncodingType enc = littleEndian
+                ? EncodingType.UTF16_LE : EncodingType.UTF16_BE;
+        ByteBuffer prefix = buf.duplicate();
+        prefix.limit(start + len);
+        prefix.position(start);
+        EncodingDetector detector = EncodingDetector.forEncoding(enc);
+        detector.feed(prefix);
+        return detector.getCandidates(false)[enc.ordinal()];
+    }
+
+    /**
+     * Windowsの実行ファイルであるか？<br>
+     * MZで始まり、MZヘッダのe_lfanewが指す位置にPEシグネチャがあればtrueとする.
+     * (MZだけではテキストでも始まりうるため.)<br>
+     *
+     * @param buf バッファ
+     * @param start 開始位置
+     * @param len 判定するバイト数
+     * @return 実行ファイルであればtrue
+     */
+    private static boolean isPortableExecutable(final ByteBuffer buf,
+            final int start, final int len) {
+        if (len < PE_OFFSET_POS + 4 || buf.get(start) != 'M'
+                || buf.get(start + 1) != 'Z') {
+            return false;
+        }
+        long offset = 0;
+        for (int idx = 3; idx >= 0; idx--) {
+            offset = (offset << 8) | (buf.get(start + PE_OFFSET_POS + idx) & 0xff);
+        }
+        if (offset < PE_OFFSET_POS + 4 || offset > len - PE_SIGNATURE.length) {
+            return false;
+        }
+        return startsWith(buf, start + (int) offset, PE_SIGNATURE.length,
+                PE_SIGNATURE);
+    }
+
+    /**
+     * テキストで用いられない制御文字であるか？<br>
+     * タブ、改行、改ページ、バックスペース、エスケープ(ISO-2022-JPなど)と
+     * EOF(0x1A)は除く.<br>
+     *
+     * @param b バイト
+     * @return テキストで用いられない制御文字であればtrue
+     */
+    private static boolean isBinaryControl(final int b) {
+        if (b == 0x7f) {
+            return true;
+        }
+        if (b >= 0x20) {
+            return false;
+        }
+        switch (b) {
+            case '\t':
+            case '\n':
+            case '\r':
+            case '\f':
+            case '\b':
+            case 0x1a:
+            case 0x1b:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 指定したバイト列で始まるか？
+     *
+     * @param buf バッファ
+     * @param start 開始位置
+     * @param len 判定するバイト数
+     * @param prefix バイト列
+     * @return 始まる場合はtrue
+     */
+    private static boolean startsWith(final ByteBuffer buf, final int start,
+            final int len, final byte[] prefix) {
+        if (len < prefix.length) {
+            return false;
+        }
+        for (int idx = 0; idx < prefix.length; idx++) {
+            if (buf.get(start + idx) != prefix[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
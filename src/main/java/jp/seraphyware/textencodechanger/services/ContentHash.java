@@ -0,0 +1,140 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * ファイルの内容のハッシュ.<br>
+ * 同じ内容のファイルの解析と変換を1回にまとめるために用いる.
+ * ハッシュはSHA-256の16進表記とする.<br>
+ *
+ * @author seraphy
+ */
+final class ContentHash {
+
+    /**
+     * ハッシュのアルゴリズム.
+     */
+    private static final String ALGORITHM = "SHA-256";
+
+    /**
+     * ファイルから読み込む際のバッファサイズ.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 16進表記の文字.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * インスタンス化しない.
+     */
+    private ContentHash() {
+        super();
+    }
+
+    /**
+     * ハッシュを計算するダイジェストを作成する.
+     *
+     * @return ダイジェスト
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256はすべてのJava実装で必須
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * バイト列のハッシュを返す.<br>
+     * バッファの位置は変更しない.<br>
+     *
+     * @param buf バイト列(位置からリミットまで)
+     * @return ハッシュ
+     */
+    static String of(final ByteBuffer buf) {
+        MessageDigest digest = newDigest();
+        digest.update(buf.duplicate());
+        return toHex(digest.digest());
+    }
+
+    /**
+     * ファイルの内容のハッシュを返す.
+     *
+     * @param file ファイル
+     * @return ハッシュ
+     * @throws IOException 読み込みに失敗
+     */
+    static String of(final Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * 読み込んだバイト列をダイジェストに渡すチャネルを返す.<br>
+     * 終端まで読み込んだ後に、ダイジェストからハッシュを得る.<br>
+     *
+     * @param ch 読み込むチャネル
+     * @param digest ダイジェスト
+     * @return チャネル
+     */
+    static ReadableByteChannel digesting(final ReadableByteChannel ch,
+            final MessageDigest digest) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(final ByteBuffer dst) throws IOException {
+                int pos = dst.position();
+                int len = ch.read(dst);
+                if (len > 0) {
+                    ByteBuffer read = dst.duplicate();
+                    read.flip();
+                    read.position(pos);
+                    digest.update(read);
+                }
+                return len;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return ch.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                ch.close();
+            }
+        };
+    }
+
+    /**
+     * ダイジェストの結果を16進表記にする.
+     *
+     * @param hash ダイジェストの結果
+     * @return 16進表記
+     */
+    static String toHex(final byte[] hash) {
+        char[] buf = new char[hash.length * 2];
+        for (int idx = 0; idx < hash.length; idx++) {
+            buf[idx * 2] = HEX[(hash[idx] >> 4) & 0x0f];
+            buf[idx * 2 + 1] = HEX[hash[idx] & 0x0f];
+        }
+        return new String(buf);
+    }
+}
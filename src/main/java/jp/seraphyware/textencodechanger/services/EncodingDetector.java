@@ -0,0 +1,729 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.Objects;
+import jp.seraphyware.textencodechanger.services.TextTermConvService.ByteTermCounter;
+
+/**
+ * 文字コードの一括推定器.<br>
+ * バイト列を一度だけ走査し、UTF-8, Windows-31J, EUC-JP, UTF-16LE/BEの
+ * バイト構造を判定するステートマシンを並行して動かすことで、
+ * 適合しない候補を走査中に除外してゆく.<br>
+ * Windows-31JとEUC-JPの未定義文字の判定には、JDKのデコーダから
+ * 生成した有効なバイト組み合わせの表を用いるため、
+ * 各文字コードのデコーダで読み込みを試行した場合と同じ結果となる.<br>
+ * バイト列は分割して与えることもでき、ファイル全体をメモリに読み込まずに判定できる.<br>
+ * 行末を数える指定をした場合は、同じ走査の中で行末(CR, LF, CRLF)も数える.
+ * UTF-8, Windows-31J, EUC-JPではCR, LFのバイトが複数バイト文字の一部になることはないため
+ * バイト単位で、UTF-16LE/BEでは2バイト単位で数える.
+ * 推定した文字コードで読み込めるバイト列であれば、読み込んだテキストの行末を数えた場合と
+ * 同じ結果となる.<br>
+ *
+ * @author seraphy
+ */
+final class EncodingDetector {
+
+    /**
+     * 一度に取り出して走査するバイト数.
+     */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * バイトの分類: 単独では不正なバイト.
+     */
+    private static final byte INVALID = 0;
+
+    /**
+     * バイトの分類: 1バイト文字.
+     */
+    private static final byte SINGLE = 1;
+
+    /**
+     * バイトの分類: 2バイト文字の先行バイト.
+     */
+    private static final byte LEAD2 = 2;
+
+    /**
+     * バイトの分類: 3バイト文字の先行バイト.
+     */
+    private static final byte LEAD3 = 3;
+
+    /**
+     * Windows-31J, EUC-JPの有効なバイトの組み合わせ表.<br>
+     * 初回使用時に生成する.<br>
+     */
+    private static final class Tables {
+
+        /**
+         * Windows-31Jのバイト分類.
+         */
+        static final byte[] SJIS_CLASS = new byte[256];
+
+        /**
+         * Windows-31Jの有効な2バイト文字.
+         */
+        static final boolean[] SJIS_PAIR = new boolean[256 * 256];
+
+        /**
+         * EUC-JPのバイト分類.
+         */
+        static final byte[] EUCJP_CLASS = new byte[256];
+
+        /**
+         * EUC-JPの有効な2バイト文字.
+         */
+        static final boolean[] EUCJP_PAIR = new boolean[256 * 256];
+
+        /**
+         * EUC-JPの有効な3バイト文字(SS3に続く2バイト).
+         */
+        static final boolean[] EUCJP_SS3 = new boolean[256 * 256];
+
+        static {
+            build(EncodingType.Windows31J, SJIS_CLASS, SJIS_PAIR, 0x40,
+                    -1, null);
+            build(EncodingType.EUC_JP, EUCJP_CLASS, EUCJP_PAIR, 0x80,
+                    0x8f, EUCJP_SS3);
+        }
+
+        /**
+         * デコーダで1文字分の読み込みを試行して、有効なバイトの組み合わせ表を作成する.<br>
+         * 後続バイトになりえない範囲(Windows-31Jでは0x40未満、
+         * EUC-JPではGR領域外)は試行を省略する.<br>
+         *
+         * @param enc 文字コード
+         * @param classes バイト分類の格納先
+         * @param pairs 有効な2バイト文字の格納先
+         * @param minTrail 後続バイトとして試行する最小値
+         * @param lead3 3バイト文字の先行バイト、なければ-1
+         * @param triples 有効な3バイト文字の格納先、なければnull
+         */
+        private static void build(final EncodingType enc, final byte[] classes,
+                final boolean[] pairs, final int minTrail, final int lead3,
+                final boolean[] triples) {
+            CharsetDecoder dec = enc.getCharset().newDecoder();
+            dec.onMalformedInput(CodingErrorAction.REPORT);
+            dec.onUnmappableCharacter(CodingErrorAction.REPORT);
+            ByteBuffer in = ByteBuffer.allocate(3);
+            CharBuffer out = CharBuffer.allocate(4);
+
+            for (int b1 = 0; b1 < 256; b1++) {
+                if (decodable(dec, in, out, b1)) {
+                    classes[b1] = SINGLE;
+                    continue;
+                }
+                if (b1 == lead3) {
+                    for (int b2 = minTrail; b2 < 256; b2++) {
+                        for (int b3 = minTrail; b3 < 256; b3++) {
+                            if (decodable(dec, in, out, b1, b2, b3)) {
+                                triples[(b2 << 8) | b3] = true;
+                                classes[b1] = LEAD3;
+                            }
+                        }
+                    }
+                    continue;
+                }
+                for (int b2 = minTrail; b2 < 256; b2++) {
+                    if (decodable(dec, in, out, b1, b2)) {
+                        pairs[(b1 << 8) | b2] = true;
+                        classes[b1] = LEAD2;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 指定したバイト列がエラーなく読み込めるか判定する.
+         *
+         * @param dec デコーダ
+         * @param in 入力用バッファ
+         * @param out 出力用バッファ
+         * @param bytes バイト列
+         * @return 読み込めればtrue
+         */
+        private static boolean decodable(final CharsetDecoder dec,
+                final ByteBuffer in, final CharBuffer out,
+                final int... bytes) {
+            in.clear();
+            for (int b : bytes) {
+                in.put((byte) b);
+            }
+            in.flip();
+            out.clear();
+            dec.reset();
+            CoderResult cr = dec.decode(in, out, true);
+            if (cr.isError() || in.hasRemaining()) {
+                return false;
+            }
+            return !dec.flush(out).isError();
+        }
+    }
+
+    /**
+     * UTF-8の適合状態.
+     */
+    private boolean utf8 = true;
+
+    /**
+     * UTF-8の残りの継続バイト数.
+     */
+    private int utf8Need;
+
+    /**
+     * UTF-8の次の継続バイトの下限.
+     */
+    private int utf8Lo = 0x80;
+
+    /**
+     * UTF-8の次の継続バイトの上限.
+     */
+    private int utf8Hi = 0xbf;
+
+    /**
+     * Windows-31Jの適合状態.
+     */
+    private boolean sjis = true;
+
+    /**
+     * Windows-31Jの2バイト目を待っている先行バイト、なければ-1.
+     */
+    private int sjisLead = -1;
+
+    /**
+     * EUC-JPの適合状態.
+     */
+    private boolean eucjp = true;
+
+    /**
+     * EUC-JPの後続バイトを待っているバイト列(先行バイトを含む)、なければ0.
+     */
+    private int eucjpLead;
+
+    /**
+     * EUC-JPの残りの後続バイト数.
+     */
+    private int eucjpNeed;
+
+    /**
+     * UTF-16LEの適合状態.
+     */
+    private boolean utf16le = true;
+
+    /**
+     * UTF-16LEで下位サロゲートを待っているか？
+     */
+    private boolean leLowNeeded;
+
+    /**
+     * UTF-16BEの適合状態.
+     */
+    private boolean utf16be = true;
+
+    /**
+     * UTF-16BEで下位サロゲートを待っているか？
+     */
+    private boolean beLowNeeded;
+
+    /**
+     * UTF-16の組になっていない直前のバイト、なければ-1.
+     */
+    private int utf16Carry = -1;
+
+    /**
+     * BOM判定用の先頭バイト.
+     */
+    private final byte[] head = new byte[3];
+
+    /**
+     * 先頭バイトの長さ.
+     */
+    private int headLen;
+
+    /**
+     * 0x80以上のバイトがあったか？
+     */
+    private boolean nonAscii;
+
+    /**
+     * UTF-8, Windows-31J, EUC-JPの行末の数、数えない場合はnull.
+     */
+    private final ByteTermCounter asciiTerms;
+
+    /**
+     * UTF-16LEの行末の数、数えない場合はnull.
+     */
+    private final ByteTermCounter leTerms;
+
+    /**
+     * UTF-16BEの行末の数、数えない場合はnull.
+     */
+    private final ByteTermCounter beTerms;
+
+    /**
+     * コンストラクタ.
+     */
+    EncodingDetector() {
+        this(false);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param countTerms 行末も数えるか？
+     */
+    EncodingDetector(final boolean countTerms) {
+        if (countTerms) {
+            asciiTerms = new ByteTermCounter(EncodingType.UTF8);
+            leTerms = new ByteTermCounter(EncodingType.UTF16_LE);
+            beTerms = new ByteTermCounter(EncodingType.UTF16_BE);
+        } else {
+            asciiTerms = null;
+            leTerms = null;
+            beTerms = null;
+        }
+    }
+
+    /**
+     * 指定した文字コードで読み込めるかだけを判定する推定器を作成する.<br>
+     * 他の候補は最初から除外するため、指定した文字コードのステートマシンだけが動く.<br>
+     *
+     * @param enc 文字コード
+     * @return 推定器
+     */
+    static EncodingDetector forEncoding(final EncodingType enc) {
+        Objects.requireNonNull(enc);
+        EncodingDetector detector = new EncodingDetector();
+        detector.utf8 = enc == EncodingType.UTF8 || enc == EncodingType.UTF8_BOM;
+        detector.sjis = enc == EncodingType.Windows31J;
+        detector.eucjp = enc == EncodingType.EUC_JP;
+        detector.utf16le = enc == EncodingType.UTF16_BOM_LE
+                || enc == EncodingType.UTF16_LE;
+        detector.utf16be = enc == EncodingType.UTF16_BOM_BE
+                || enc == EncodingType.UTF16_BE;
+        return detector;
+    }
+
+    /**
+     * 指定したバイトバッファ内の文字コードを推定する.<br>
+     * 候補は検査順に評価され、最初に適合したものを返す.<br>
+     * 不明な場合はnullを返す.<br>
+     *
+     * @param byteBuf バイトバッファ(位置は変更されない)
+     * @param checkOrder 文字コードの検査順
+     * @return 文字コード、もしくはnull
+     */
+    static EncodingType detect(
+            final ByteBuffer byteBuf,
+            final List<EncodingType> checkOrder
+    ) {
+        Objects.requireNonNull(byteBuf);
+        Objects.requireNonNull(checkOrder);
+
+        ByteBuffer src = byteBuf.duplicate();
+        src.rewind();
+
+        EncodingDetector detector = new EncodingDetector();
+        detector.feed(src);
+        return detector.select(checkOrder, true);
+    }
+
+    /**
+     * バイト列の続きを与える.<br>
+     * バッファの残りすべてを読み取り、位置はリミットまで進む.<br>
+     *
+     * @param src バイトバッファ
+     */
+    void feed(final ByteBuffer src) {
+        Objects.requireNonNull(src);
+        final int length = src.remaining();
+        for (int idx = 0; headLen < head.length && idx < length; idx++) {
+            head[headLen++] = src.get(src.position() + idx);
+        }
+
+        byte[] chunk;
+        int base;
+        if (src.hasArray()) {
+            // ヒープ上のバッファはコピーせずに直接走査する
+            chunk = src.array();
+            base = src.arrayOffset() + src.position();
+        } else {
+            chunk = new byte[Math.min(CHUNK_SIZE, Math.max(length, 2))];
+            base = 0;
+        }
+
+        int offset = 0;
+        while (offset < length && isAnyAlive()) {
+            int len = Math.min(CHUNK_SIZE, length - offset);
+            int from;
+            if (src.hasArray()) {
+                from = base + offset;
+            } else {
+                src.get(chunk, 0, len);
+                from = 0;
+            }
+            int to = from + len;
+            if (asciiTerms != null && (utf8 || sjis || eucjp)) {
+                asciiTerms.count(chunk, from, to);
+            }
+            if (utf8) {
+                feedUtf8(chunk, from, to);
+            }
+            if (sjis) {
+                feedSjis(chunk, from, to);
+            }
+            if (eucjp) {
+                feedEucjp(chunk, from, to);
+            }
+            if (utf16le || utf16be) {
+                if (leTerms != null) {
+                    leTerms.count(chunk, from, to);
+                    beTerms.count(chunk, from, to);
+                }
+                feedUtf16(chunk, from, to);
+            }
+            offset += len;
+        }
+        src.position(src.limit());
+    }
+
+    /**
+     * まだ適合している候補があるか？
+     *
+     * @return 候補があればtrue
+     */
+    boolean isAnyAlive() {
+        return utf8 || sjis || eucjp || utf16le || utf16be;
+    }
+
+    /**
+     * これまでに0x80以上のバイトがあったか？<br>
+     * なければASCIIだけで構成されており、どの文字コードとも区別できない.<br>
+     *
+     * @return 0x80以上のバイトがあればtrue
+     */
+    boolean hasNonAscii() {
+        return nonAscii;
+    }
+
+    /**
+     * これまでに与えたバイト列に対する、文字コードごとの適合状態を返す.<br>
+     * 終端でない場合は、末尾で文字が完結していなくても不適合とはしない.<br>
+     *
+     * @param endOfInput 入力の終端であるか？
+     * @return EncodingTypeの序数ごとの適合状態
+     */
+    boolean[] getCandidates(final boolean endOfInput) {
+        boolean u8 = utf8;
+        boolean sj = sjis;
+        boolean euc = eucjp;
+        boolean le = utf16le;
+        boolean be = utf16be;
+        if (endOfInput) {
+            // 終端で文字が完結していない場合は不適合とする
+            u8 = u8 && utf8Need == 0;
+            sj = sj && sjisLead < 0;
+            euc = euc && eucjpNeed == 0;
+            le = le && !leLowNeeded && utf16Carry < 0;
+            be = be && !beLowNeeded && utf16Carry < 0;
+        }
+
+        boolean[] alive = new boolean[EncodingType.values().length];
+        alive[EncodingType.UTF8.ordinal()] = u8;
+        alive[EncodingType.UTF8_BOM.ordinal()] = u8
+                && hasBOM(EncodingType.UTF8_BOM);
+        alive[EncodingType.Windows31J.ordinal()] = sj;
+        alive[EncodingType.EUC_JP.ordinal()] = euc;
+        alive[EncodingType.UTF16_BOM_LE.ordinal()] = le
+                && hasBOM(EncodingType.UTF16_BOM_LE);
+        alive[EncodingType.UTF16_BOM_BE.ordinal()] = be
+                && hasBOM(EncodingType.UTF16_BOM_BE);
+        alive[EncodingType.UTF16_LE.ordinal()] = le;
+        alive[EncodingType.UTF16_BE.ordinal()] = be;
+        return alive;
+    }
+
+    /**
+     * これまでに与えたバイト列全体が、指定した文字コードで読み込めるか？<br>
+     * 与えたバイト列を入力の終端として判定する.<br>
+     *
+     * @param enc 文字コード
+     * @return 読み込めればtrue
+     */
+    boolean isValid(final EncodingType enc) {
+        return getCandidates(true)[enc.ordinal()];
+    }
+
+    /**
+     * 検査順に評価して、最初に適合した文字コードを返す.<br>
+     * 不明な場合はnullを返す.<br>
+     *
+     * @param checkOrder 文字コードの検査順
+     * @param endOfInput 入力の終端であるか？
+     * @return 文字コード、もしくはnull
+     */
+    EncodingType select(final List<EncodingType> checkOrder,
+            final boolean endOfInput) {
+        boolean[] alive = getCandidates(endOfInput);
+        for (EncodingType enc : checkOrder) {
+            if (alive[enc.ordinal()]) {
+                return enc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * これまでに与えたバイト列を、指定した文字コードで読み込んだ場合の行末タイプを返す.<br>
+     * 終端でない場合、末尾のCRは数えない.<br>
+     *
+     * @param enc 文字コード、nullの場合はUNKNOWNを返す
+     * @param endOfInput 入力の終端であるか？
+     * @return 行末タイプ
+     * @throws IllegalStateException 行末を数えない指定で作成した場合
+     */
+    TextTermType getTermType(final EncodingType enc, final boolean endOfInput) {
+        if (asciiTerms == null) {
+            throw new IllegalStateException("terms are not counted");
+        }
+        if (enc == null) {
+            return TextTermType.UNKNOWN;
+        }
+        switch (enc) {
+            case UTF16_BOM_LE:
+            case UTF16_LE:
+                return leTerms.getTermType(endOfInput);
+            case UTF16_BOM_BE:
+            case UTF16_BE:
+                return beTerms.getTermType(endOfInput);
+            default:
+                return asciiTerms.getTermType(endOfInput);
+        }
+    }
+
+    /**
+     * UTF-8のステートマシンにバイト列を与える.<br>
+     * 冗長表現、サロゲート、U+10FFFFを超える符号は不正とする.<br>
+     *
+     * @param chunk バイト列
+     * @param from 開始位置
+     * @param to 終了位置(この位置を含まない)
+     */
+    private void feedUtf8(final byte[] chunk, final int from,
+            final int to) {
+        int need = utf8Need;
+        int lo = utf8Lo;
+        int hi = utf8Hi;
+        for (int idx = from; idx < to; idx++) {
+            final int b = chunk[idx] & 0xff;
+            if (need == 0) {
+                if (b < 0x80) {
+                    continue;
+                }
+                nonAscii = true;
+                lo = 0x80;
+                hi = 0xbf;
+                if (b >= 0xc2 && b <= 0xdf) {
+                    need = 1;
+                } else if (b >= 0xe0 && b <= 0xef) {
+                    need = 2;
+                    if (b == 0xe0) {
+                        lo = 0xa0; // 冗長表現の除外
+                    } else if (b == 0xed) {
+                        hi = 0x9f; // サロゲートの除外
+                    }
+                } else if (b >= 0xf0 && b <= 0xf4) {
+                    need = 3;
+                    if (b == 0xf0) {
+                        lo = 0x90; // 冗長表現の除外
+                    } else if (b == 0xf4) {
+                        hi = 0x8f; // U+10FFFFを超えるものを除外
+                    }
+                } else {
+                    utf8 = false;
+                    return;
+                }
+            } else if (b < lo || b > hi) {
+                utf8 = false;
+                return;
+            } else {
+                need--;
+                lo = 0x80;
+                hi = 0xbf;
+            }
+        }
+        utf8Need = need;
+        utf8Lo = lo;
+        utf8Hi = hi;
+    }
+
+    /**
+     * Windows-31Jのステートマシンにバイト列を与える.
+     *
+     * @param chunk バイト列
+     * @param from 開始位置
+     * @param to 終了位置(この位置を含まない)
+     */
+    private void feedSjis(final byte[] chunk, final int from,
+            final int to) {
+        final byte[] classes = Tables.SJIS_CLASS;
+        final boolean[] pairs = Tables.SJIS_PAIR;
+        int lead = sjisLead;
+        for (int idx = from; idx < to; idx++) {
+            final int b = chunk[idx] & 0xff;
+            if (lead >= 0) {
+                if (!pairs[(lead << 8) | b]) {
+                    sjis = false;
+                    return;
+                }
+                lead = -1;
+                continue;
+            }
+            byte cls = classes[b];
+            if (cls == LEAD2) {
+                lead = b;
+            } else if (cls != SINGLE) {
+                sjis = false;
+                return;
+            }
+        }
+        sjisLead = lead;
+    }
+
+    /**
+     * EUC-JPのステートマシンにバイト列を与える.
+     *
+     * @param chunk バイト列
+     * @param from 開始位置
+     * @param to 終了位置(この位置を含まない)
+     */
+    private void feedEucjp(final byte[] chunk, final int from,
+            final int to) {
+        final byte[] classes = Tables.EUCJP_CLASS;
+        int lead = eucjpLead;
+        int need = eucjpNeed;
+        for (int idx = from; idx < to; idx++) {
+            final int b = chunk[idx] & 0xff;
+            if (need == 0) {
+                byte cls = classes[b];
+                if (cls == SINGLE) {
+                    continue;
+                }
+                if (cls == LEAD2) {
+                    need = 1;
+                } else if (cls == LEAD3) {
+                    need = 2;
+                } else {
+                    eucjp = false;
+                    return;
+                }
+                lead = b;
+                continue;
+            }
+            need--;
+            if (need > 0) {
+                // SS3の2バイト目
+                lead = (lead << 8) | b;
+                continue;
+            }
+            boolean valid;
+            if (lead > 0xff) {
+                valid = Tables.EUCJP_SS3[((lead & 0xff) << 8) | b];
+            } else {
+                valid = Tables.EUCJP_PAIR[(lead << 8) | b];
+            }
+            if (!valid) {
+                eucjp = false;
+                return;
+            }
+            lead = 0;
+        }
+        eucjpLead = lead;
+        eucjpNeed = need;
+    }
+
+    /**
+     * UTF-16LE/BEのステートマシンにバイト列を与える.<br>
+     * 前回の呼び出しで組にならなかったバイトがあれば、先頭のバイトと組にする.<br>
+     *
+     * @param chunk バイト列
+     * @param from 開始位置
+     * @param to 終了位置(この位置を含まない)
+     */
+    private void feedUtf16(final byte[] chunk, final int from,
+            final int to) {
+        int idx = from;
+        if (utf16Carry >= 0 && idx < to) {
+            feedUtf16Pairs(new byte[]{(byte) utf16Carry, chunk[idx]}, 0, 2);
+            utf16Carry = -1;
+            idx++;
+        }
+        int end = idx + ((to - idx) & ~1);
+        feedUtf16Pairs(chunk, idx, end);
+        if (end < to) {
+            utf16Carry = chunk[end] & 0xff;
+        }
+    }
+
+    /**
+     * UTF-16LE/BEのステートマシンに2バイト単位のバイト列を与える.<br>
+     * サロゲートペアの対応が取れていない場合は不正とする.<br>
+     *
+     * @param chunk バイト列
+     * @param from 開始位置
+     * @param to 終了位置(この位置を含まない、開始位置からの長さは偶数)
+     */
+    private void feedUtf16Pairs(final byte[] chunk, final int from,
+            final int to) {
+        boolean le = utf16le;
+        boolean be = utf16be;
+        boolean leLow = leLowNeeded;
+        boolean beLow = beLowNeeded;
+        for (int idx = from + 1; idx < to; idx += 2) {
+            // 下位バイトが先行する
+            final int leHi = chunk[idx] & 0xfc;
+            if (leLow) {
+                le = le && leHi == 0xdc;
+                leLow = false;
+            } else if (leHi == 0xd8) {
+                leLow = true;
+            } else if (leHi == 0xdc) {
+                le = false;
+            }
+
+            final int beHi = chunk[idx - 1] & 0xfc;
+            if (beLow) {
+                be = be && beHi == 0xdc;
+                beLow = false;
+            } else if (beHi == 0xd8) {
+                beLow = true;
+            } else if (beHi == 0xdc) {
+                be = false;
+            }
+
+            if (!le && !be) {
+                break;
+            }
+        }
+        utf16le = le;
+        utf16be = be;
+        leLowNeeded = leLow;
+        beLowNeeded = beLow;
+    }
+
+    /**
+     * 先頭のバイトが指定した文字コードのBOMであるか判定する.<br>
+     * BOMそのものは、それぞれの文字コードで正しい1文字となるため、
+     * BOM付きの候補はBOMの有無と本体の適合状態だけで判定できる.<br>
+     *
+     * @param enc BOM付きの文字コード
+     * @return BOMで始まっていればtrue
+     */
+    private boolean hasBOM(final EncodingType enc) {
+        return enc.checkBOM(ByteBuffer.wrap(head, 0, headLen));
+    }
+}
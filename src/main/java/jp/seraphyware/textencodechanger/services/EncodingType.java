@@ -6,6 +6,7 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 
 /**
@@ -69,6 +70,27 @@ public enum EncodingType {
      * BOMの定義、なければnull
      */
     private final byte[] bom;
+
+    /**
+     * スレッドごとの再利用可能なデコーダ、使用中またはなければnull.
+     */
+    private final ThreadLocal<CharsetDecoder> idleDecoder = new ThreadLocal<>();
+
+    /**
+     * スレッドごとの再利用可能なエンコーダ、使用中またはなければnull.
+     */
+    private final ThreadLocal<CharsetEncoder> idleEncoder = new ThreadLocal<>();
+
+    /**
+     * 変換結果を捨てる検証用の文字バッファのサイズ.
+     */
+    private static final int SCRATCH_SIZE = 8 * 1024;
+
+    /**
+     * スレッドごとの変換結果を捨てる検証用の文字バッファ.
+     */
+    private static final ThreadLocal<CharBuffer> SCRATCH =
+            ThreadLocal.withInitial(() -> CharBuffer.allocate(SCRATCH_SIZE));
     
     /**
      * コンストラクタ
@@ -162,30 +184,118 @@ public enum EncodingType {
         return isSameBOM(tmp, 0, len);
     }
     
+    /**
+     * 現在のスレッドで再利用可能なデコーダを取得する.<br>
+     * リセット済みで、不正な入力とマップできない文字はエラーとして報告する.<br>
+     * 使用後は{@link #releaseDecoder(CharsetDecoder)}で返却すること.
+     * (返却しなかった場合は、次回は新たに作成される.)<br>
+     * 使用中に同じスレッドで再度取得した場合は、別のデコーダが作成される.<br>
+     * @return デコーダ
+     */
+    public CharsetDecoder acquireDecoder() {
+        CharsetDecoder dec = idleDecoder.get();
+        if (dec == null) {
+            dec = cs.newDecoder();
+        } else {
+            idleDecoder.set(null);
+            dec.reset();
+        }
+        dec.onMalformedInput(CodingErrorAction.REPORT);
+        dec.onUnmappableCharacter(CodingErrorAction.REPORT);
+        return dec;
+    }
+
+    /**
+     * 使用が終わったデコーダを現在のスレッドに返却する.
+     * @param dec {@link #acquireDecoder()}で取得したデコーダ
+     */
+    public void releaseDecoder(CharsetDecoder dec) {
+        if (dec != null && dec.charset().equals(cs)) {
+            idleDecoder.set(dec);
+        }
+    }
+
+    /**
+     * 現在のスレッドで再利用可能なエンコーダを取得する.<br>
+     * リセット済みで、不正な入力とマップできない文字はエラーとして報告する.<br>
+     * 使用後は{@link #releaseEncoder(CharsetEncoder)}で返却すること.
+     * (返却しなかった場合は、次回は新たに作成される.)<br>
+     * 使用中に同じスレッドで再度取得した場合は、別のエンコーダが作成される.<br>
+     * @return エンコーダ
+     */
+    public CharsetEncoder acquireEncoder() {
+        CharsetEncoder enc = idleEncoder.get();
+        if (enc == null) {
+            enc = cs.newEncoder();
+        } else {
+            idleEncoder.set(null);
+            enc.reset();
+        }
+        enc.onMalformedInput(CodingErrorAction.REPORT);
+        enc.onUnmappableCharacter(CodingErrorAction.REPORT);
+        return enc;
+    }
+
+    /**
+     * 使用が終わったエンコーダを現在のスレッドに返却する.
+     * @param enc {@link #acquireEncoder()}で取得したエンコーダ
+     */
+    public void releaseEncoder(CharsetEncoder enc) {
+        if (enc != null && enc.charset().equals(cs)) {
+            idleEncoder.set(enc);
+        }
+    }
+
     /**
      * この文字コードで変換可能なバイト列であるか検証する.<br>
      * BOMが必要な文字コードの場合はBOMの有無もチェックする.<br>
+     * 変換結果は保持しないため、スレッドごとの作業用バッファに繰り返し変換する.<br>
      * @param byteBuf
      * @return 
      */
     public boolean checkEncodable(ByteBuffer byteBuf) {
-        CharsetDecoder dec = cs.newDecoder();
-        dec.onUnmappableCharacter(CodingErrorAction.REPORT);
-        dec.onMalformedInput(CodingErrorAction.REPORT);
+        return validate(byteBuf) < 0;
+    }
+
+    /**
+     * この文字コードで変換可能なバイト列であるか検証し、最初のエラーの位置を返す.<br>
+     * BOMが必要な文字コードの場合はBOMの有無もチェックし、BOMがなければ0を返す.<br>
+     * 変換結果は保持しないため、スレッドごとの作業用バッファに繰り返し変換する.
+     * (バイト列の大きさにかかわらず、文字バッファは割り当てない.)<br>
+     * 末尾で文字が途切れている場合は、途切れた文字の先頭の位置を返す.<br>
+     * @param byteBuf バイト列(位置からリミットまで、位置は進められる)
+     * @return 変換可能であれば-1、そうでなければ検証開始位置からの最初のエラーのバイト位置
+     */
+    public int validate(ByteBuffer byteBuf) {
+        int start = byteBuf.position();
 
         // BOMの読み取り(もしくはスキップ)
-        if (checkBOM(byteBuf)) {
-            // BOMの読み取り成功の場合
-            try {
-                // 読み込みを試行する.
-                dec.decode(byteBuf);
-                return true;
-
-            } catch (CharacterCodingException ex) {
-                // 無視する.
-            }
+        if (!checkBOM(byteBuf)) {
+            return 0;
+        }
+
+        // BOMの読み取り成功の場合、読み込みを試行する.
+        CharsetDecoder dec = acquireDecoder();
+        try {
+            CharBuffer out = SCRATCH.get();
+            CoderResult cr;
+            do {
+                out.clear();
+                cr = dec.decode(byteBuf, out, true);
+                if (cr.isError()) {
+                    // デコーダはエラーとなったバイト列の先頭で止まる
+                    return byteBuf.position() - start;
+                }
+            } while (cr.isOverflow());
+            do {
+                out.clear();
+                cr = dec.flush(out);
+            } while (cr.isOverflow());
+            return cr.isError() ? byteBuf.position() - start : -1;
+
+        } finally {
+            releaseDecoder(dec);
         }
-        return false;
     }
     
     /**
@@ -201,8 +311,12 @@ public enum EncodingType {
             // BOMの不一致
             throw new CharacterCodingException();
         }
-        CharsetDecoder dec = cs.newDecoder();
-        return dec.decode(byteBuf);
+        CharsetDecoder dec = acquireDecoder();
+        try {
+            return dec.decode(byteBuf);
+        } finally {
+            releaseDecoder(dec);
+        }
     }
 
     /**
@@ -213,8 +327,13 @@ public enum EncodingType {
      * @throws CharacterCodingException 
      */
     public ByteBuffer encode(CharBuffer charBuf) throws CharacterCodingException {
-        CharsetEncoder enc = cs.newEncoder();
-        ByteBuffer contentBuf = enc.encode(charBuf);
+        ByteBuffer contentBuf;
+        CharsetEncoder enc = acquireEncoder();
+        try {
+            contentBuf = enc.encode(charBuf);
+        } finally {
+            releaseEncoder(enc);
+        }
         
         int len = getBOMLength();
         if (len == 0) {
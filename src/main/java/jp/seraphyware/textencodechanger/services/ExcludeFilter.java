@@ -0,0 +1,203 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 走査から除外するファイルとディレクトリの判定.<br>
+ * ファイルの内容を読み込む前に、名前、.gitignoreの規則、サイズ、拡張子で判定する.
+ * 除外したディレクトリは配下を走査しない.<br>
+ * .gitignoreの規則を走査中のディレクトリごとに保持するため、
+ * 1回の走査ごとに作成し、走査するスレッドからのみ使用すること.<br>
+ *
+ * @author seraphy
+ */
+public final class ExcludeFilter {
+
+    /**
+     * ロガー.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ExcludeFilter.class);
+
+    /**
+     * 除外するファイル名とディレクトリ名のマッチャー、なければnull.
+     */
+    private final FileWalkService.FileNameMatcher nameMatcher;
+
+    /**
+     * .gitignoreの規則を用いるか？
+     */
+    private final boolean useGitIgnore;
+
+    /**
+     * 除外するファイルサイズの上限、0以下は無制限.
+     */
+    private final long maxFileSize;
+
+    /**
+     * 除外するバイナリファイルの拡張子(小文字、ドットを含まない).
+     */
+    private final Set<String> binaryExtensions = new HashSet<>();
+
+    /**
+     * 走査中のディレクトリの.gitignoreの規則(内側が先頭).
+     */
+    private final Deque<GitIgnoreScope> scopes = new ArrayDeque<>();
+
+    /**
+     * コンストラクタ.
+     *
+     * @param excludes 除外するファイル名とディレクトリ名のパターン
+     * @param useGitIgnore .gitignoreの規則を用いるか？
+     * @param maxFileSize 除外するファイルサイズの上限、0以下は無制限
+     * @param binaryExtensions 除外するバイナリファイルの拡張子
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public ExcludeFilter(
+            final List<Pattern> excludes,
+            final boolean useGitIgnore,
+            final long maxFileSize,
+            final Collection<String> binaryExtensions
+    ) {
+        Objects.requireNonNull(excludes);
+        Objects.requireNonNull(binaryExtensions);
+        this.nameMatcher = excludes.isEmpty() ? null
+                : new GlobFileNameMatcher(excludes);
+        this.useGitIgnore = useGitIgnore;
+        this.maxFileSize = maxFileSize;
+        for (String ext : binaryExtensions) {
+            this.binaryExtensions.add(ext.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * 何も除外しないフィルタを作成する.
+     *
+     * @return フィルタ
+     */
+    public static ExcludeFilter none() {
+        return new ExcludeFilter(Collections.emptyList(), false, 0,
+                Collections.emptyList());
+    }
+
+    /**
+     * 除外するファイルまたはディレクトリであるか判定する.<br>
+     *
+     * @param path パス
+     * @param attrs 属性
+     * @return 除外する場合はtrue
+     */
+    public boolean isExcluded(final Path path, final BasicFileAttributes attrs) {
+        boolean excluded = isExcluded0(path, attrs);
+        if (excluded && log.isDebugEnabled()) {
+            log.debug("exclude: " + path);
+        }
+        return excluded;
+    }
+
+    /**
+     * 除外するファイルまたはディレクトリであるか判定する.
+     *
+     * @param path パス
+     * @param attrs 属性
+     * @return 除外する場合はtrue
+     */
+    private boolean isExcluded0(final Path path, final BasicFileAttributes attrs) {
+        Path name = path.getFileName();
+        if (name == null) {
+            return false;
+        }
+        if (nameMatcher != null && nameMatcher.match(name)) {
+            return true;
+        }
+        boolean directory = attrs.isDirectory();
+        if (!directory) {
+            if (maxFileSize > 0 && attrs.size() > maxFileSize) {
+                return true;
+            }
+            if (!binaryExtensions.isEmpty()) {
+                String str = name.toString();
+                int dot = str.lastIndexOf('.');
+                if (dot >= 0 && binaryExtensions.contains(
+                        str.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                    return true;
+                }
+            }
+        }
+        for (GitIgnoreScope scope : scopes) {
+            String relative = scope.dir.relativize(path).toString();
+            if (File.separatorChar != '/') {
+                relative = relative.replace(File.separatorChar, '/');
+            }
+            Boolean ignored = scope.rules.match(relative, directory);
+            if (ignored != null) {
+                return ignored;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ディレクトリの走査を開始する.<br>
+     * .gitignoreを用いる場合は、ディレクトリにある.gitignoreの規則を読み込む.<br>
+     *
+     * @param dir ディレクトリ
+     * @throws IOException .gitignoreの読み込みに失敗
+     */
+    public void enterDirectory(final Path dir) throws IOException {
+        if (!useGitIgnore) {
+            return;
+        }
+        GitIgnoreRules rules = GitIgnoreRules.load(dir);
+        if (rules != null) {
+            scopes.push(new GitIgnoreScope(dir, rules));
+        }
+    }
+
+    /**
+     * ディレクトリの走査を終了する.
+     *
+     * @param dir ディレクトリ
+     */
+    public void leaveDirectory(final Path dir) {
+        GitIgnoreScope scope = scopes.peek();
+        if (scope != null && scope.dir.equals(dir)) {
+            scopes.pop();
+        }
+    }
+
+    /**
+     * ディレクトリと、その.gitignoreの規則.
+     */
+    private static final class GitIgnoreScope {
+
+        /**
+         * .gitignoreのあるディレクトリ.
+         */
+        private final Path dir;
+
+        /**
+         * 規則.
+         */
+        private final GitIgnoreRules rules;
+
+        GitIgnoreScope(final Path dir, final GitIgnoreRules rules) {
+            this.dir = dir;
+            this.rules = rules;
+        }
+    }
+}
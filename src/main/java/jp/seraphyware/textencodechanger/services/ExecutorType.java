@@ -0,0 +1,24 @@
+package jp.seraphyware.textencodechanger.services;
+
+/**
+ * バックグラウンドタスクを実行するスレッドの種類
+ * 
+ * @author seraphy
+ */
+public enum ExecutorType {
+
+    /**
+     * 固定数のスレッドのプール
+     */
+    FIXED,
+
+    /**
+     * ワークスティーリングによるスレッドのプール
+     */
+    WORK_STEALING,
+
+    /**
+     * タスクごとの仮想スレッド(JDK 21以降、それ以前はFIXEDとなる)
+     */
+    VIRTUAL
+}
@@ -0,0 +1,37 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * ファイルの変換結果を返すCallableの拡張.
+ * 進行状況の通知を受けるコールバックと、
+ * 変換が完了したファイルの通知を受けるリスナーの設定メソッドを追加している.
+ *
+ * @author seraphy
+ */
+public interface FileConvertCallable
+    extends Callable<FileReplaceService.ConvertResult> {
+
+    /**
+     * 進行状況の通知を受けるコールバックの設定.
+     *
+     * @param callback コールバック、不要ならnull可
+     */
+    void setProgressCallback(ProgressCallback callback);
+
+    /**
+     * 進行状況の通知を受けるコールバックの取得.
+     *
+     * @return コールバック、未設定ならnull
+     */
+    ProgressCallback getProgressCallback();
+
+    /**
+     * 変換が完了したファイルの通知を受けるリスナーの設定.
+     * リスナーは変換を行ったスレッドから呼び出される.
+     *
+     * @param listener リスナー、不要ならnull可
+     */
+    void setConvertedListener(Consumer<FileReplaceService.ConvertTarget> listener);
+}
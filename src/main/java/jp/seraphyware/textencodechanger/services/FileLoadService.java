@@ -0,0 +1,207 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * ファイル全体の読み込みサービス.<br>
+ * 一定サイズ以上のファイルはJavaヒープにコピーせず、メモリマップして読み込む.<br>
+ *
+ * @author seraphy
+ */
+@Component
+public class FileLoadService {
+
+    /**
+     * ロガー.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileLoadService.class);
+
+    /**
+     * メモリマップを解放する関数.
+     * (解放できない環境ではnullとなり、ガベージコレクタによる解放を待つ.)
+     */
+    private static final Consumer<ByteBuffer> UNMAPPER = createUnmapper();
+
+    /**
+     * メモリマップして読み込むファイルサイズの閾値.
+     * 0以下の場合はメモリマップしない.
+     */
+    @Value("${textreencoder.io.mapThreshold:0}")
+    private long mapThreshold;
+
+    /**
+     * メモリマップして読み込むファイルサイズの閾値を取得する.
+     *
+     * @return 閾値、0以下はメモリマップしない
+     */
+    public long getMapThreshold() {
+        return mapThreshold;
+    }
+
+    /**
+     * メモリマップして読み込むファイルサイズの閾値を設定する.
+     *
+     * @param mapThreshold 閾値、0以下はメモリマップしない
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setMapThreshold(final long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * ファイル全体を読み込む.<br>
+     * サイズが閾値以上のファイルはメモリマップする.<br>
+     * 使用後は必ず閉じること. 閉じた後はバッファにアクセスしてはならない.<br>
+     *
+     * @param filePath ファイルのパス
+     * @return 読み込んだ内容
+     * @throws IOException 失敗
+     */
+    public LoadedFile load(final Path filePath) throws IOException {
+        Objects.requireNonNull(filePath);
+        try (FileChannel ch = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + filePath);
+            }
+            if (mapThreshold > 0 && size >= mapThreshold) {
+                if (log.isDebugEnabled()) {
+                    log.debug("map: " + filePath);
+                }
+                // マップはチャネルを閉じても有効
+                return new LoadedFile(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("load: " + filePath);
+        }
+        return new LoadedFile(ByteBuffer.wrap(Files.readAllBytes(filePath)));
+    }
+
+    /**
+     * 読み込んだファイルの内容.<br>
+     * メモリマップしている場合、閉じるとマップを解放する.
+     * (Windowsではマップしている間はファイルを置き換えられないため.)<br>
+     */
+    public static final class LoadedFile implements Closeable {
+
+        /**
+         * 内容.
+         */
+        private ByteBuffer buffer;
+
+        private LoadedFile(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * 内容を取得する.
+         *
+         * @return 内容
+         * @throws IllegalStateException 閉じた後に呼び出された
+         */
+        public ByteBuffer getBuffer() {
+            if (buffer == null) {
+                throw new IllegalStateException("closed");
+            }
+            return buffer;
+        }
+
+        /**
+         * メモリマップしているか？
+         *
+         * @return メモリマップしていればtrue
+         */
+        public boolean isMapped() {
+            return buffer instanceof MappedByteBuffer;
+        }
+
+        /**
+         * 閉じる.
+         */
+        @Override
+        public void close() {
+            ByteBuffer buf = buffer;
+            buffer = null;
+            if (buf instanceof MappedByteBuffer && UNMAPPER != null) {
+                UNMAPPER.accept(buf);
+            }
+        }
+    }
+
+    /**
+     * メモリマップを直ちに解放する関数を作成する.<br>
+     * 標準のAPIがないため、Java9以降はUnsafe#invokeCleaner、
+     * Java8はDirectBufferのcleanerを用いる.<br>
+     *
+     * @return 関数、使用できない環境ではnull
+     */
+    private static Consumer<ByteBuffer> createUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod(
+                    "invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buf -> invokeQuietly(() -> invokeCleaner.invoke(unsafe, buf));
+
+        } catch (NoSuchMethodException ex) {
+            // Java8
+            try {
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer")
+                        .getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner")
+                        .getMethod("clean");
+                return buf -> invokeQuietly(
+                        () -> clean.invoke(cleaner.invoke(buf)));
+
+            } catch (ReflectiveOperationException | RuntimeException ex2) {
+                log.info("unmapping is not supported: " + ex2);
+                return null;
+            }
+
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            log.info("unmapping is not supported: " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * リフレクションによる呼び出し.
+     */
+    @FunctionalInterface
+    private interface ReflectiveCall {
+
+        void invoke() throws ReflectiveOperationException;
+    }
+
+    /**
+     * 呼び出しに失敗してもログに記録するだけとする.
+     * (マップはガベージコレクタにより解放される.)
+     *
+     * @param call 呼び出し
+     */
+    private static void invokeQuietly(final ReflectiveCall call) {
+        try {
+            call.invoke();
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            log.warn("failed to unmap: " + ex);
+        }
+    }
+}
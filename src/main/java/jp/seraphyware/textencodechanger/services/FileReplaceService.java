@@ -3,17 +3,42 @@ package jp.seraphyware.textencodechanger.services;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.CharacterCodingException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import static java.nio.file.StandardOpenOption.CREATE;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.MessageDigest;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 /**
@@ -29,6 +54,71 @@ public class FileReplaceService {
      */
     private static final Logger log = LoggerFactory.getLogger(FileReplaceService.class);
 
+    /**
+     * バイト列のまま改行コードを変更する際の読み込みのバッファサイズ.
+     */
+    private static final int REWRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * バックアップファイルの拡張子.
+     */
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    /**
+     * 一時ファイルの拡張子.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * テキストの文字コード変換のサービス.
+     */
+    @Autowired(required = true)
+    private TextEncodeConvService encConvSrv;
+
+    /**
+     * 行末タイプの変換サービス.
+     */
+    @Autowired(required = true)
+    private TextTermConvService termConvSrv;
+
+    /**
+     * ファイルの読み込みサービス.
+     */
+    @Autowired(required = true)
+    private FileLoadService fileLoadSrv;
+
+    /**
+     * ファイルの変換を並列に行うスレッド数.
+     * 0以下の場合はプロセッサ数とする.
+     */
+    @Value("${textreencoder.convert.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * 逐次変換でAsynchronousFileChannelによる非同期の読み書きを行うか？
+     */
+    @Value("${textreencoder.convert.asyncIo:false}")
+    private boolean asyncIo;
+
+    /**
+     * 非同期の書き込みで、完了していない書き込みのバイト数の上限.
+     * (1回の変換処理のすべてのファイルで共有する.)
+     */
+    @Value("${textreencoder.convert.maxInFlightBytes:4194304}")
+    private int maxInFlightBytes;
+
+    /**
+     * 変換したファイルをストレージに同期するモード.
+     */
+    @Value("${textreencoder.convert.sync:NONE}")
+    private SyncMode syncMode = SyncMode.NONE;
+
+    /**
+     * 同じ内容のファイルの変換結果を共有するか？
+     */
+    @Value("${textreencoder.convert.dedup:false}")
+    private boolean dedup;
+
     /**
      * バイト列を受け取りテキストとして読み込む.
      */
@@ -62,9 +152,364 @@ public class FileReplaceService {
          */
         boolean convert(String relativeFileName, ContentReader reader) throws IOException;
     }
+
+    /**
+     * テキストファイルを一定サイズずつ逐次変換する.
+     */
+    @FunctionalInterface
+    public interface StreamFileContentConverter {
+
+        /**
+         * 相対パスと文字コードを指定して対象コンテンツを逐次読み取り変換する.<br>
+         * @param relativeFileName 相対パス
+         * @param srcEncoding 入力元の文字コード
+         * @return 変換結果、変換されればtrue
+         * @throws IOException
+         */
+        default boolean convert(String relativeFileName, EncodingType srcEncoding) throws IOException {
+            return convert(relativeFileName, srcEncoding, TextTermType.UNKNOWN);
+        }
+
+        /**
+         * 相対パスと文字コード、改行コードを指定して対象コンテンツを逐次読み取り変換する.<br>
+         * 入力元の改行コードが出力先の改行コードと同じであれば、改行コードの変換を省略する.<br>
+         * @param relativeFileName 相対パス
+         * @param srcEncoding 入力元の文字コード
+         * @param srcTermType 入力元の改行コード、不明であればUNKNOWN
+         * @return 変換結果、変換されればtrue
+         * @throws IOException
+         */
+        boolean convert(String relativeFileName, EncodingType srcEncoding,
+                TextTermType srcTermType) throws IOException;
+
+        /**
+         * 相対パスと文字コード、改行コード、走査時の内容のハッシュを指定して
+         * 対象コンテンツを逐次読み取り変換する.<br>
+         * 同じ内容のファイルをすでに変換していれば、その変換結果を用いることができる.
+         * 既定では、ハッシュを用いずに変換する.<br>
+         * @param relativeFileName 相対パス
+         * @param srcEncoding 入力元の文字コード
+         * @param srcTermType 入力元の改行コード、不明であればUNKNOWN
+         * @param contentHash 走査時の内容のハッシュ、不明であればnull
+         * @return 変換結果、変換されればtrue
+         * @throws IOException
+         */
+        default boolean convert(String relativeFileName, EncodingType srcEncoding,
+                TextTermType srcTermType, String contentHash) throws IOException {
+            return convert(relativeFileName, srcEncoding, srcTermType);
+        }
+
+        /**
+         * まとめて行う同期を実行する.<br>
+         * 同期モードがBATCHの場合、変換したファイルのディレクトリを同期する.
+         * 一連の変換の終了時に呼び出すこと.<br>
+         * @throws IOException
+         */
+        default void flush() throws IOException {
+            // 何もしない
+        }
+
+        /**
+         * 相対パスのファイルを変換した場合の出力先を返す.<br>
+         * 既定では、出力先は不明としてnullを返す.<br>
+         * @param relativeFileName 相対パス
+         * @return 出力先、不明な場合はnull
+         */
+        default Path getDestination(String relativeFileName) {
+            return null;
+        }
+
+        /**
+         * 前回の呼び出し以降に、変換処理が作成したバックアップと一時ファイルを返す.<br>
+         * 返したファイルの記録は消去する. 既定では、記録しないため空を返す.<br>
+         * @return 作成したバックアップと一時ファイルのパス
+         */
+        default Set<Path> takeWorkFiles() {
+            return Collections.emptySet();
+        }
+    }
     
     /**
-     * テキストの変換を行うコンバータを作成して返すファクトリ.
+     * 変換対象のファイル.
+     */
+    public static final class ConvertTarget {
+
+        /**
+         * 入力元ディレクトリからの相対パス.
+         */
+        private final String relativePath;
+
+        /**
+         * 入力元の文字コード.
+         */
+        private final EncodingType srcEncoding;
+
+        /**
+         * 入力元の改行コード.
+         */
+        private final TextTermType srcTermType;
+
+        /**
+         * 走査時の内容のハッシュ.
+         */
+        private final String contentHash;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param relativePath 入力元ディレクトリからの相対パス
+         * @param srcEncoding 入力元の文字コード
+         */
+        public ConvertTarget(final String relativePath,
+                final EncodingType srcEncoding) {
+            this(relativePath, srcEncoding, TextTermType.UNKNOWN);
+        }
+
+        /**
+         * コンストラクタ.
+         *
+         * @param relativePath 入力元ディレクトリからの相対パス
+         * @param srcEncoding 入力元の文字コード
+         * @param srcTermType 入力元の改行コード、不明であればUNKNOWN
+         */
+        public ConvertTarget(final String relativePath,
+                final EncodingType srcEncoding,
+                final TextTermType srcTermType) {
+            this(relativePath, srcEncoding, srcTermType, null);
+        }
+
+        /**
+         * コンストラクタ.
+         *
+         * @param relativePath 入力元ディレクトリからの相対パス
+         * @param srcEncoding 入力元の文字コード
+         * @param srcTermType 入力元の改行コード、不明であればUNKNOWN
+         * @param contentHash 走査時の内容のハッシュ、不明であればnull
+         */
+        @SuppressWarnings("checkstyle:hiddenfield")
+        public ConvertTarget(final String relativePath,
+                final EncodingType srcEncoding,
+                final TextTermType srcTermType,
+                final String contentHash) {
+            Objects.requireNonNull(relativePath);
+            Objects.requireNonNull(srcEncoding);
+            Objects.requireNonNull(srcTermType);
+            this.relativePath = relativePath;
+            this.srcEncoding = srcEncoding;
+            this.srcTermType = srcTermType;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * 入力元ディレクトリからの相対パス.
+         *
+         * @return 相対パス
+         */
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        /**
+         * 入力元の文字コード.
+         *
+         * @return 文字コード
+         */
+        public EncodingType getSrcEncoding() {
+            return srcEncoding;
+        }
+
+        /**
+         * 入力元の改行コード.
+         *
+         * @return 改行コード、不明であればUNKNOWN
+         */
+        public TextTermType getSrcTermType() {
+            return srcTermType;
+        }
+
+        /**
+         * 走査時の内容のハッシュ.
+         *
+         * @return ハッシュ、不明であればnull
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * 診断文字列を返す.
+         *
+         * @return 診断文字列
+         */
+        @Override
+        public String toString() {
+            return srcEncoding + "=" + relativePath;
+        }
+    }
+
+    /**
+     * 変換結果.
+     */
+    public static final class ConvertResult {
+
+        /**
+         * 変換されたファイル(指定順).
+         */
+        private final List<ConvertTarget> converted;
+
+        /**
+         * 変換に失敗したファイルと、その原因(指定順).
+         */
+        private final Map<ConvertTarget, Exception> failures;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param converted 変換されたファイル
+         * @param failures 変換に失敗したファイルと、その原因
+         */
+        @SuppressWarnings("checkstyle:hiddenfield")
+        public ConvertResult(final List<ConvertTarget> converted,
+                final Map<ConvertTarget, Exception> failures) {
+            Objects.requireNonNull(converted);
+            Objects.requireNonNull(failures);
+            this.converted = Collections.unmodifiableList(converted);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * 変換されたファイル.
+         *
+         * @return 変換されたファイルのリスト
+         */
+        public List<ConvertTarget> getConverted() {
+            return converted;
+        }
+
+        /**
+         * 変換に失敗したファイルと、その原因.
+         *
+         * @return 失敗したファイルと原因のマップ
+         */
+        public Map<ConvertTarget, Exception> getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * ファイルの変換を並列に行うスレッド数を取得する.
+     * 0以下の場合はプロセッサ数とし、1の場合は呼び出し元スレッドで逐次変換する.
+     *
+     * @return 並列数
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * ファイルの変換を並列に行うスレッド数を設定する.
+     * 0以下の場合はプロセッサ数とし、1の場合は呼び出し元スレッドで逐次変換する.
+     *
+     * @param parallelism 並列数
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 逐次変換でAsynchronousFileChannelによる非同期の読み書きを行うか？
+     *
+     * @return 非同期に読み書きする場合はtrue
+     */
+    public boolean isAsyncIo() {
+        return asyncIo;
+    }
+
+    /**
+     * 逐次変換でAsynchronousFileChannelによる非同期の読み書きを行うか設定する.<br>
+     * 非同期の場合、次のブロックの読み込みと前のブロックの書き込みが
+     * 変換処理と並行して行われる.
+     * ネットワークドライブなどの遅延の大きいボリュームで有効となる.<br>
+     * 設定後に作成したコンバータから有効となる.<br>
+     *
+     * @param asyncIo 非同期に読み書きする場合はtrue
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setAsyncIo(final boolean asyncIo) {
+        this.asyncIo = asyncIo;
+    }
+
+    /**
+     * 非同期の書き込みで、完了していない書き込みのバイト数の上限を取得する.
+     *
+     * @return バイト数
+     */
+    public int getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    /**
+     * 非同期の書き込みで、完了していない書き込みのバイト数の上限を設定する.<br>
+     * 上限は1回の変換処理のすべてのファイルで共有する.
+     * 設定後に作成したコンバータから有効となる.<br>
+     *
+     * @param maxInFlightBytes バイト数
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setMaxInFlightBytes(final int maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * 変換したファイルをストレージに同期するモードを取得する.
+     *
+     * @return 同期モード
+     */
+    public SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    /**
+     * 変換したファイルをストレージに同期するモードを設定する.<br>
+     * 設定後に作成したコンバータから有効となる.<br>
+     *
+     * @param syncMode 同期モード
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setSyncMode(final SyncMode syncMode) {
+        Objects.requireNonNull(syncMode);
+        this.syncMode = syncMode;
+    }
+
+    /**
+     * 同じ内容のファイルの変換結果を共有するか？
+     *
+     * @return 共有する場合はtrue
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * 同じ内容のファイルの変換結果を共有するか設定する.<br>
+     * 共有する場合、走査時の内容のハッシュが同じファイルは、最初のファイルの変換後に
+     * 続けて変換し、現在の内容のハッシュが一致すれば最初のファイルの変換結果を複製する.<br>
+     * 設定後に作成したコンバータとタスクから有効となる.<br>
+     *
+     * @param dedup 共有する場合はtrue
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setDedup(final boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * テキストの変換を行うコンバータを作成して返すファクトリ.<br>
+     * 変換結果は出力先と同じフォルダの一時ファイルに書き込み、
+     * 書き込みが完了してから出力先に置き換える.
+     * (変換に失敗した場合、出力先と入力元は変更されない.)<br>
+     * 同期モードがBATCHの場合は、FILEと同様にファイルごとに同期する.<br>
      *
      * @param srcDir 入力元ディレクトリ
      * @param destDir 出力先ディレクトリ
@@ -91,6 +536,7 @@ public class FileReplaceService {
         } else {
             destBaseDir = srcBaseDir;
         }
+        SyncMode sync = syncMode == SyncMode.BATCH ? SyncMode.FILE : syncMode;
 
         return (relativePathStr, reader) -> {
             Objects.requireNonNull(relativePathStr);
@@ -99,59 +545,754 @@ public class FileReplaceService {
 
             Path relativePath = Paths.get(relativePathStr);
             Path src = srcBaseDir.resolve(relativePath);
+            Path dest = resolveDest(src, destBaseDir, relativePath, transferType);
+
+            boolean exists = Files.exists(dest);
+            if (exists && overwriteMode == OverwriteMode.SKIP) {
+                // 何もせずスキップする.
+                return false;
+            }
 
             // 入力元ファイルの読み込み
-            byte[] data = Files.readAllBytes(src);
-            ByteBuffer byteBuf = ByteBuffer.wrap(data);
-            CharBuffer inp = reader.read(byteBuf);
-            ByteBuffer outData = converter.convert(inp);
+            // (メモリマップした場合は、上書きする前に解放されるように変換後に閉じる)
+            ByteBuffer outData;
+            try (FileLoadService.LoadedFile loaded = fileLoadSrv.load(src)) {
+                CharBuffer inp = reader.read(loaded.getBuffer());
+                outData = converter.convert(inp);
+            }
 
-            Path dest;
-            if (transferType == TransferType.REPLACE) {
-                // 書き込み先は同一 = 上書き
-                dest = src;
+            // 一時ファイルへの書き込み
+            Path temp = Files.createTempFile(dest.getParent(),
+                    dest.getFileName().toString() + ".", TEMP_SUFFIX);
+            try {
+                copyPermissions(src, temp);
+                try (SeekableByteChannel outCh = Files.newByteChannel(
+                        temp, WRITE, TRUNCATE_EXISTING)) {
+                    while (outData.hasRemaining()) {
+                        outCh.write(outData);
+                    }
+                }
+                install(temp, dest,
+                        exists && overwriteMode == OverwriteMode.CREATE_BACKUP,
+                        sync, null);
 
-            } else {
-                // 移動またはコピー先の出力先パスの確定
-                dest = destBaseDir.resolve(relativePath);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
 
-                // 親フォルダがなければ作成する.
-                Path parent = dest.getParent();
-                if (!Files.isDirectory(parent)) {
-                    Files.createDirectories(parent);
-                }
+            if (transferType == TransferType.MOVE && !dest.equals(src)) {
+                // 移動の場合、出力先が確定してからソース側のファイルを削除する.
+                Files.delete(src);
             }
+            return true;
+        };
+    }
 
-            if (Files.exists(dest)) {
-                if (overwriteMode == OverwriteMode.CREATE_BACKUP) {
-                    // 相手先パスが既存であり、且つ、バックアップが必要な場合は
-                    // 拡張子を.bakとしたファイルにリネームしておく
-                    Path bakPath = dest.resolveSibling(
-                            dest.getFileName().toString() + ".bak");
-                    if (Files.exists(bakPath)) {
-                        Files.delete(bakPath);
-                    }
-                    Files.move(dest, bakPath);
+    /**
+     * テキストを一定サイズずつ逐次変換するコンバータを作成して返すファクトリ.<br>
+     * 読み込み、行末の変換、書き込みを固定サイズのバッファで行うため、
+     * ファイルサイズにかかわらず使用メモリは一定となる.<br>
+     * 変換結果は出力先と同じフォルダの一時ファイルに書き込み、
+     * 書き込みが完了してから出力先に置き換える.
+     * (変換に失敗した場合、出力先と入力元は変更されない.)<br>
+     * 非同期の読み書きを行う設定の場合、読み込みは先読みし、書き込みは完了を待たずに
+     * 次のブロックの変換を続ける. 書き込み中のバイト数の上限は、
+     * このコンバータで変換するすべてのファイルで共有する.<br>
+     * 同期モードがBATCHの場合、ディレクトリの同期は{@link StreamFileContentConverter#flush()}
+     * でまとめて行う.<br>
+     * 同じ内容のファイルの変換結果を共有する設定の場合、走査時の内容のハッシュを指定して
+     * 変換すると、変換しながら内容のハッシュを求めて変換結果を記録する.
+     * 同じハッシュのファイルは、現在の内容のハッシュが一致すれば、
+     * 記録した変換結果を複製する.<br>
+     * 入力元の文字コードと改行コードが出力先と同じであれば、テキストとして読み込まずに
+     * ファイルをそのまま複製する. 同じファイルストアへの移動の場合は、名前の変更だけで行い、
+     * 上書きの場合はファイルに触れずにfalseを返す.<br>
+     *
+     * @param srcDir 入力元ディレクトリ
+     * @param destDir 出力先ディレクトリ
+     * @param transferType 転送モード
+     * @param overwriteMode 上書きモード
+     * @param destEncoding 出力先の文字コード
+     * @param termType 出力先の改行コード、UNKNOWNの場合は変更しない
+     * @return コンバータ
+     */
+    public StreamFileContentConverter createStreamFileContentConverter(
+            final String srcDir,
+            final String destDir,
+            final TransferType transferType,
+            final OverwriteMode overwriteMode,
+            final EncodingType destEncoding,
+            final TextTermType termType
+    ) {
+        Objects.requireNonNull(srcDir);
+        Objects.requireNonNull(transferType);
+        Objects.requireNonNull(destEncoding);
+        Objects.requireNonNull(termType);
 
-                } else if (overwriteMode == OverwriteMode.SKIP) {
+        Path srcBaseDir = Paths.get(srcDir);
+        Path destBaseDir;
+        if (destDir != null && transferType != TransferType.REPLACE) {
+            destBaseDir = Paths.get(destDir);
+        } else {
+            destBaseDir = srcBaseDir;
+        }
+
+        // 非同期の書き込み中のバイト数の上限
+        int inFlightBytes = Math.max(maxInFlightBytes, 1);
+        Semaphore writeBudget = asyncIo ? new Semaphore(inFlightBytes) : null;
+
+        // 同期モードと、まとめて同期するディレクトリ
+        SyncMode sync = syncMode;
+        Set<Path> pendingDirs = ConcurrentHashMap.newKeySet();
+
+        // 作成したバックアップと一時ファイル
+        Set<Path> workFiles = ConcurrentHashMap.newKeySet();
+
+        // 同じ内容のファイルの変換結果(内容のハッシュと入力元の文字コード、改行コードごと)
+        Map<String, Path> outputs = dedup ? new ConcurrentHashMap<>() : null;
+
+        return new StreamFileContentConverter() {
+
+            @Override
+            public boolean convert(final String relativePathStr,
+                    final EncodingType srcEncoding,
+                    final TextTermType srcTermType) throws IOException {
+                return convert(relativePathStr, srcEncoding, srcTermType, null);
+            }
+
+            @Override
+            public boolean convert(final String relativePathStr,
+                    final EncodingType srcEncoding,
+                    final TextTermType srcTermType,
+                    final String contentHash) throws IOException {
+                Objects.requireNonNull(relativePathStr);
+                Objects.requireNonNull(srcEncoding);
+                Objects.requireNonNull(srcTermType);
+                log.info("convert from " + relativePathStr);
+
+                Path relativePath = Paths.get(relativePathStr);
+                Path src = srcBaseDir.resolve(relativePath);
+                Path dest = resolveDest(src, destBaseDir, relativePath,
+                        transferType);
+
+                boolean exists = Files.exists(dest);
+                if (exists && overwriteMode == OverwriteMode.SKIP) {
                     // 何もせずスキップする.
                     return false;
                 }
+                boolean backup = exists
+                        && overwriteMode == OverwriteMode.CREATE_BACKUP;
+                if (backup) {
+                    workFiles.add(backupPathOf(dest));
+                }
+                boolean moveSrc = transferType == TransferType.MOVE
+                        && !dest.equals(src);
+
+                // 文字コードも改行コードも変更しない場合は、内容をそのまま転送する
+                boolean passThrough = srcEncoding == destEncoding
+                        && (termType == TextTermType.UNKNOWN
+                        || termType == srcTermType);
+                if (passThrough && transferType == TransferType.REPLACE) {
+                    // 上書きしても内容は変わらないため、何もしない.
+                    // (バックアップも作成せず、ファイルの更新日時なども変更しない.)
+                    log.info("  no change");
+                    return false;
+                }
+                if (passThrough && moveSrc && Files.getFileStore(src).equals(
+                        Files.getFileStore(dest.getParent()))) {
+                    // 同じファイルストアへの移動は、名前の変更だけで行う.
+                    // (名前の変更はアトミックであり、入力元の削除を待つ必要もない.)
+                    log.info("  as is");
+                    moveInto(src, dest, backup, sync, pendingDirs);
+                    return true;
+                }
+
+                // 同じ内容のファイルの変換結果があれば、現在の内容が走査時と同じか確かめる.
+                // なければ、変換しながら内容のハッシュを求める.
+                // (そのまま転送する場合は、変換結果を共有しても転送量は変わらない.)
+                Path sameOutput = null;
+                MessageDigest digest = null;
+                if (outputs != null && contentHash != null && !passThrough) {
+                    Path output = outputs.get(
+                            outputKey(contentHash, srcEncoding, srcTermType));
+                    if (output != null && Files.isRegularFile(output)
+                            && contentHash.equals(ContentHash.of(src))) {
+                        sameOutput = output;
+                    } else {
+                        digest = ContentHash.newDigest();
+                    }
+                }
+
+                // 一時ファイルへの変換
+                Path temp = Files.createTempFile(dest.getParent(),
+                        dest.getFileName().toString() + ".", TEMP_SUFFIX);
+                workFiles.add(temp);
+                try {
+                    if (sameOutput != null) {
+                        log.info("  same content as " + sameOutput);
+                        Files.copy(sameOutput, temp,
+                                StandardCopyOption.REPLACE_EXISTING);
+                    } else if (passThrough) {
+                        log.info("  as is");
+                        Files.copy(src, temp, StandardCopyOption.REPLACE_EXISTING);
+                    } else {
+                        convertTo(src, temp, srcEncoding, srcTermType, digest);
+                    }
+                    copyPermissions(src, temp);
+
+                    // 移動の場合は、ソース側を削除する前に出力先を確定させる
+                    install(temp, dest, backup,
+                            sync == SyncMode.BATCH && moveSrc ? SyncMode.FILE : sync,
+                            pendingDirs);
+
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+
+                if (digest != null) {
+                    // 同じ内容のファイルのために、変換結果を記録する
+                    outputs.putIfAbsent(outputKey(ContentHash.toHex(digest.digest()),
+                            srcEncoding, srcTermType), dest);
+                }
+
+                if (transferType == TransferType.MOVE && !dest.equals(src)) {
+                    // 移動の場合、ソース側のファイルを削除する.
+                    Files.delete(src);
+                }
+                return true;
             }
 
-            if (transferType == TransferType.MOVE && !dest.equals(src)) {
-                // 移動の場合、ソース側のファイルを削除する.
-                Files.delete(src);
+            /**
+             * 入力元のファイルを変換して一時ファイルに書き込む.<br>
+             * 文字コードが同じで改行コードだけを変更する場合は、
+             * テキストに変換せずにバイト列のまま改行コードを変更する.<br>
+             *
+             * @param src 入力元ファイル
+             * @param temp 一時ファイル
+             * @param srcEncoding 入力元の文字コード
+             * @param srcTermType 入力元の改行コード
+             * @param digest 読み込んだ内容のハッシュを求めるダイジェスト、不要ならnull
+             * @throws IOException 失敗
+             */
+            private void convertTo(final Path src, final Path temp,
+                    final EncodingType srcEncoding,
+                    final TextTermType srcTermType,
+                    final MessageDigest digest) throws IOException {
+                try (ReadableByteChannel srcCh = writeBudget != null
+                        ? AsyncFileChannels.openReader(src)
+                        : FileChannel.open(src, READ);
+                        WritableByteChannel outCh = writeBudget != null
+                        ? AsyncFileChannels.openWriter(temp, writeBudget,
+                                inFlightBytes)
+                        : FileChannel.open(temp, WRITE, TRUNCATE_EXISTING)) {
+                    ReadableByteChannel inCh = digest != null
+                            ? ContentHash.digesting(srcCh, digest) : srcCh;
+                    if (srcEncoding == destEncoding
+                            && termType != TextTermType.UNKNOWN
+                            && termType != srcTermType) {
+                        rewriteTerms(inCh, outCh, srcEncoding);
+                        return;
+                    }
+                    // 改行コードが同じであれば変換しない
+                    TextTermConvService.TermRewriter rewriter
+                            = termConvSrv.createTermRewriter(
+                                    termType == srcTermType
+                                    ? TextTermType.UNKNOWN : termType);
+                    TextEncodeConvService.TextWriter writer
+                            = encConvSrv.createTextWriter(outCh, destEncoding);
+                    encConvSrv.readText(inCh, srcEncoding,
+                            text -> writer.write(rewriter.rewrite(text)));
+                    writer.write(rewriter.finish());
+                    writer.finish();
+                }
             }
 
-            // ファイルの書き込み (強制上書き)
-            log.info("  to " + dest);
-            try (SeekableByteChannel outCh = Files.newByteChannel(
-                    dest,
-                    CREATE, TRUNCATE_EXISTING, WRITE)) {
-                outCh.write(outData);
+            /**
+             * バイト列のまま改行コードを変更して書き込む.<br>
+             * テキストに変換する場合と同様に、入力元の文字コードで読み込めなければ失敗とする.<br>
+             *
+             * @param inCh 入力元
+             * @param outCh 出力先
+             * @param encoding 入力元と出力先の文字コード
+             * @throws CharacterCodingException 入力元の文字コードで読み込めない
+             * @throws IOException 失敗
+             */
+            private void rewriteTerms(final ReadableByteChannel inCh,
+                    final WritableByteChannel outCh,
+                    final EncodingType encoding) throws IOException {
+                TextTermConvService.ByteTermRewriter rewriter
+                        = termConvSrv.createTermRewriter(encoding, termType);
+                EncodingDetector validator = EncodingDetector.forEncoding(encoding);
+                ByteBuffer buf = ByteBuffer.allocate(REWRITE_BUFFER_SIZE);
+                while (inCh.read(buf) >= 0) {
+                    buf.flip();
+                    validator.feed(buf.duplicate());
+                    if (!validator.isAnyAlive()) {
+                        throw new CharacterCodingException();
+                    }
+                    writeFully(outCh, rewriter.rewrite(buf));
+                    buf.clear();
+                }
+                if (!validator.isValid(encoding)) {
+                    throw new CharacterCodingException();
+                }
+                writeFully(outCh, rewriter.finish());
+            }
+
+            @Override
+            public Path getDestination(final String relativeFileName) {
+                Objects.requireNonNull(relativeFileName);
+                // 上書きの場合は、出力先ディレクトリは入力元ディレクトリと同じ
+                return destBaseDir.resolve(relativeFileName);
+            }
+
+            @Override
+            public Set<Path> takeWorkFiles() {
+                Set<Path> taken = new HashSet<>(workFiles);
+                workFiles.removeAll(taken);
+                return taken;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                List<Path> dirs = new ArrayList<>(pendingDirs);
+                pendingDirs.removeAll(dirs);
+                for (Path dir : dirs) {
+                    forceDirectory(dir);
+                }
             }
-            return true;
         };
     }
+
+    /**
+     * 出力先のバックアップのパスを返す.
+     *
+     * @param dest 出力先
+     * @return 拡張子を.bakとしたパス
+     */
+    private static Path backupPathOf(final Path dest) {
+        return dest.resolveSibling(dest.getFileName().toString() + BACKUP_SUFFIX);
+    }
+
+    /**
+     * バッファの残りすべてを書き込む.
+     *
+     * @param ch 出力先
+     * @param buf バイト列
+     * @throws IOException 失敗
+     */
+    private static void writeFully(final WritableByteChannel ch,
+            final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    /**
+     * 同じ内容のファイルの変換結果を記録するキーを返す.
+     *
+     * @param contentHash 内容のハッシュ
+     * @param srcEncoding 入力元の文字コード
+     * @param srcTermType 入力元の改行コード
+     * @return キー
+     */
+    private static String outputKey(final String contentHash,
+            final EncodingType srcEncoding, final TextTermType srcTermType) {
+        return contentHash + "/" + srcEncoding.name() + "/" + srcTermType.name();
+    }
+
+    /**
+     * 出力先のパスを確定する.<br>
+     * 上書きの場合は入力元の実体のパスとし、移動またはコピーの場合は
+     * 出力先の親フォルダがなければ作成する.<br>
+     * (入力元がシンボリックリンクの場合に、リンクを通常のファイルで置き換えず、
+     * リンク先のファイルを置き換えるようにするため.)<br>
+     *
+     * @param src 入力元ファイル
+     * @param destBaseDir 出力先ディレクトリ
+     * @param relativePath 相対パス
+     * @param transferType 転送モード
+     * @return 出力先のパス
+     * @throws IOException 失敗
+     */
+    private static Path resolveDest(final Path src, final Path destBaseDir,
+            final Path relativePath, final TransferType transferType)
+            throws IOException {
+        if (transferType == TransferType.REPLACE) {
+            // 書き込み先は同一 = 上書き
+            // (一時ファイルと名前の変更はリンク先と同じフォルダで行う)
+            return src.toRealPath();
+        }
+        // 移動またはコピー先の出力先パスの確定
+        Path dest = destBaseDir.resolve(relativePath);
+
+        // 親フォルダがなければ作成する.
+        Path parent = dest.getParent();
+        if (!Files.isDirectory(parent)) {
+            Files.createDirectories(parent);
+        }
+        return dest;
+    }
+
+    /**
+     * 書き込みが完了した一時ファイルで出力先を置き換える.<br>
+     * 置き換えは可能であればアトミックな名前の変更で行うため、
+     * 途中で中断されても出力先は変換前か変換後のいずれかとなる.<br>
+     * バックアップは、元のファイルへのハードリンクとして作成し、
+     * 出力先が存在しない期間をなくす.
+     * (ハードリンクに対応していない場合は、元のファイルの名前を変更する.)<br>
+     *
+     * @param temp 一時ファイル
+     * @param dest 出力先
+     * @param backup バックアップを作成するか？
+     * @param sync 同期モード
+     * @param pendingDirs まとめて同期するディレクトリの格納先、BATCHの場合のみ使用
+     * @throws IOException 失敗
+     */
+    private static void install(final Path temp, final Path dest,
+            final boolean backup, final SyncMode sync,
+            final Set<Path> pendingDirs) throws IOException {
+        if (sync != SyncMode.NONE) {
+            // 名前を変更する前に、一時ファイルの内容を確定させる
+            forceFile(temp);
+        }
+        moveInto(temp, dest, backup, sync, pendingDirs);
+    }
+
+    /**
+     * ファイルの名前を変更して出力先を置き換える.<br>
+     * 内容がすでにストレージにあるファイルを、そのまま出力先とする場合に用いる.<br>
+     *
+     * @param file ファイル
+     * @param dest 出力先
+     * @param backup バックアップを作成するか？
+     * @param sync 同期モード
+     * @param pendingDirs まとめて同期するディレクトリの格納先、BATCHの場合のみ使用
+     * @throws IOException 失敗
+     */
+    private static void moveInto(final Path file, final Path dest,
+            final boolean backup, final SyncMode sync,
+            final Set<Path> pendingDirs) throws IOException {
+        if (backup) {
+            // 相手先パスが既存であり、且つ、バックアップが必要な場合は
+            // 拡張子を.bakとしたファイルとして元のファイルを残す
+            Path bakPath = backupPathOf(dest);
+            Files.deleteIfExists(bakPath);
+            try {
+                Files.createLink(bakPath, dest);
+            } catch (UnsupportedOperationException | IOException ex) {
+                log.debug("can't create link: " + bakPath, ex);
+                Files.move(dest, bakPath);
+            }
+        }
+
+        // ファイルの差し替え (強制上書き)
+        log.info("  to " + dest);
+        try {
+            Files.move(file, dest, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(file, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Path dir = dest.toAbsolutePath().getParent();
+        if (sync == SyncMode.FILE) {
+            forceDirectory(dir);
+        } else if (sync == SyncMode.BATCH) {
+            pendingDirs.add(dir);
+        }
+    }
+
+    /**
+     * ファイルの内容と属性をストレージに書き込む.
+     *
+     * @param file ファイル
+     * @throws IOException 失敗
+     */
+    private static void forceFile(final Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, WRITE)) {
+            ch.force(true);
+        }
+    }
+
+    /**
+     * ディレクトリのエントリの変更をストレージに書き込む.<br>
+     * ディレクトリを開けないプラットフォーム(Windowsなど)では何もしない.<br>
+     *
+     * @param dir ディレクトリ
+     */
+    private static void forceDirectory(final Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, READ)) {
+            ch.force(true);
+        } catch (IOException ex) {
+            log.debug("can't sync directory: " + dir, ex);
+        }
+    }
+
+    /**
+     * 指定したファイルを変換するタスクを生成して返します. (まだ実行はされていません.)<br>
+     * 並列数が2以上の場合、ファイルごとの変換をスレッドプールで並列に行う.<br>
+     * 変換に失敗したファイルがあっても残りのファイルの変換を続け、
+     * 失敗したファイルは原因とともに結果に含める.<br>
+     * 実行スレッドが割り込まれた場合は、未着手のファイルの変換を取りやめる.<br>
+     * すべての変換の終了後に、コンバータのまとめて行う同期を実行する.<br>
+     * 同じ内容のファイルの変換結果を共有する設定の場合、走査時の内容のハッシュが
+     * 同じファイルは、最初のファイルの変換後に同じスレッドで続けて変換する.<br>
+     *
+     * @param converter コンバータ
+     * @param targets 変換対象のファイルのリスト
+     * @return タスク
+     */
+    public FileConvertCallable createConvertCallable(
+            final StreamFileContentConverter converter,
+            final List<ConvertTarget> targets
+    ) {
+        Objects.requireNonNull(converter);
+        Objects.requireNonNull(targets);
+        List<ConvertTarget> items = new ArrayList<>(targets);
+        List<List<Integer>> groups = groupTargets(items, dedup);
+        return new FileConvertCallable() {
+
+            /**
+             * 通知を受けるコールバック
+             */
+            private volatile ProgressCallback progressCallback;
+
+            /**
+             * 変換完了の通知を受けるリスナー
+             */
+            private volatile Consumer<ConvertTarget> convertedListener;
+
+            /**
+             * 完了したファイル数
+             */
+            private final AtomicInteger done = new AtomicInteger();
+
+            @Override
+            public void setProgressCallback(
+                    final ProgressCallback callback
+            ) {
+                this.progressCallback = callback;
+            }
+
+            @Override
+            public ProgressCallback getProgressCallback() {
+                return progressCallback;
+            }
+
+            @Override
+            public void setConvertedListener(
+                    final Consumer<ConvertTarget> listener
+            ) {
+                this.convertedListener = listener;
+            }
+
+            /**
+             * ワーカーの実行
+             *
+             * @return 変換結果
+             * @throws Exception 何らかの失敗
+             */
+            @Override
+            public ConvertResult call() throws Exception {
+                log.info("★begin convert");
+                updateTitle("converting...");
+                updateProgress();
+
+                int threads = parallelism > 0 ? parallelism
+                        : Runtime.getRuntime().availableProcessors();
+                boolean[] converted = new boolean[items.size()];
+                Exception[] causes = new Exception[items.size()];
+                if (threads <= 1) {
+                    for (List<Integer> group : groups) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            break;
+                        }
+                        convert(group, converted, causes);
+                    }
+
+                } else {
+                    ForkJoinPool pool = new ForkJoinPool(threads);
+                    List<Future<?>> futures = new ArrayList<>(groups.size());
+                    try {
+                        for (List<Integer> group : groups) {
+                            futures.add(pool.submit(
+                                    () -> convert(group, converted, causes)));
+                        }
+                        for (Future<?> future : futures) {
+                            future.get();
+                        }
+                    } catch (InterruptedException ex) {
+                        // 中断された場合は未着手のファイルを取りやめる
+                        Thread.currentThread().interrupt();
+
+                    } catch (ExecutionException ex) {
+                        // ファイルごとの失敗は結果に含めているため、ここには来ない
+                        throw new IllegalStateException(ex.getCause());
+
+                    } finally {
+                        // 変換中のファイルは中断せずに完了を待つ
+                        futures.forEach(future -> future.cancel(false));
+                        pool.shutdown();
+                        awaitTermination(pool);
+                    }
+                }
+
+                // 変換済みのファイルは確定しているため、同期の失敗は記録のみとする
+                try {
+                    converter.flush();
+                } catch (IOException ex) {
+                    log.warn("sync failed.", ex);
+                }
+
+                List<ConvertTarget> convertedList = new ArrayList<>();
+                Map<ConvertTarget, Exception> failures = new LinkedHashMap<>();
+                for (int idx = 0; idx < items.size(); idx++) {
+                    if (converted[idx]) {
+                        convertedList.add(items.get(idx));
+                    } else if (causes[idx] != null) {
+                        failures.put(items.get(idx), causes[idx]);
+                    }
+                }
+                log.info("★end convert: converted=" + convertedList.size()
+                        + "/failures=" + failures.size());
+                return new ConvertResult(convertedList, failures);
+            }
+
+            /**
+             * 同じ内容のファイルのグループを順に変換し、結果を格納する.
+             *
+             * @param group 変換対象のインデックス(最初のファイルが先頭)
+             * @param converted 変換されたか？の格納先
+             * @param causes 失敗した原因の格納先
+             */
+            private void convert(final List<Integer> group,
+                    final boolean[] converted, final Exception[] causes) {
+                for (int idx : group) {
+                    convert(idx, converted, causes);
+                }
+            }
+
+            /**
+             * 1ファイルを変換し、結果を格納する.
+             *
+             * @param idx 変換対象のインデックス
+             * @param converted 変換されたか？の格納先
+             * @param causes 失敗した原因の格納先
+             */
+            private void convert(final int idx, final boolean[] converted,
+                    final Exception[] causes) {
+                ConvertTarget target = items.get(idx);
+                updateMessage(target.getRelativePath());
+                try {
+                    if (converter.convert(target.getRelativePath(),
+                            target.getSrcEncoding(), target.getSrcTermType(),
+                            target.getContentHash())) {
+                        converted[idx] = true;
+                        Consumer<ConvertTarget> listener = convertedListener;
+                        if (listener != null) {
+                            listener.accept(target);
+                        }
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("convert failed: " + target, ex);
+                    causes[idx] = ex;
+                }
+                done.incrementAndGet();
+                updateProgress();
+            }
+
+            private void updateProgress() {
+                ProgressCallback callback = progressCallback;
+                if (callback != null) {
+                    callback.updateProgress(done.get(), items.size());
+                }
+            }
+
+            private void updateMessage(final String message) {
+                ProgressCallback callback = progressCallback;
+                if (callback != null) {
+                    callback.updateMessage(message);
+                }
+            }
+
+            private void updateTitle(final String title) {
+                ProgressCallback callback = progressCallback;
+                if (callback != null) {
+                    callback.updateTitle(title);
+                }
+            }
+        };
+    }
+
+    /**
+     * 変換対象のファイルを、走査時の内容のハッシュと入力元の文字コード、
+     * 改行コードが同じファイルのグループにまとめる.<br>
+     * グループは最初のファイルの順に並び、グループ内は指定順となる.<br>
+     *
+     * @param items 変換対象のファイル
+     * @param dedup 同じ内容のファイルをまとめるか？
+     * @return インデックスのグループのリスト
+     */
+    private static List<List<Integer>> groupTargets(
+            final List<ConvertTarget> items, final boolean dedup) {
+        List<List<Integer>> groups = new ArrayList<>();
+        Map<String, List<Integer>> sameContents = new HashMap<>();
+        for (int idx = 0; idx < items.size(); idx++) {
+            ConvertTarget target = items.get(idx);
+            List<Integer> group = null;
+            if (dedup && target.getContentHash() != null) {
+                String key = outputKey(target.getContentHash(),
+                        target.getSrcEncoding(), target.getSrcTermType());
+                group = sameContents.get(key);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    sameContents.put(key, group);
+                    groups.add(group);
+                }
+            } else {
+                group = new ArrayList<>(1);
+                groups.add(group);
+            }
+            group.add(idx);
+        }
+        return groups;
+    }
+
+    /**
+     * スレッドプールの終了を待つ.<br>
+     * 待機中に割り込まれた場合は、割り込み状態を復元して戻る.<br>
+     *
+     * @param pool スレッドプール
+     */
+    private static void awaitTermination(final ForkJoinPool pool) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.debug("waiting for conversions...");
+            }
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 一時ファイルの作成時のパーミッションを入力元のファイルに合わせる.<br>
+     * POSIXのパーミッションに対応していないファイルシステムでは何もしない.<br>
+     *
+     * @param src 入力元ファイル
+     * @param temp 一時ファイル
+     * @throws IOException 失敗
+     */
+    private static void copyPermissions(final Path src, final Path temp)
+            throws IOException {
+        if (Files.getFileStore(temp).supportsFileAttributeView(
+                PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(temp,
+                    Files.getPosixFilePermissions(src));
+        }
+    }
 }
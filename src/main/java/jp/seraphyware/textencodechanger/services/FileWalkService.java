@@ -3,22 +3,38 @@ package jp.seraphyware.textencodechanger.services;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 /**
@@ -34,6 +50,17 @@ public class FileWalkService {
      */
     private static final Logger log = LoggerFactory.getLogger(FileWalkService.class);
 
+    /**
+     * 途中結果を通知する件数.
+     */
+    private static final int RESULT_BATCH_SIZE = 256;
+
+    /**
+     * 途中結果を通知する間隔(ミリ秒).
+     * 件数に満たなくても、この間隔を過ぎていれば通知する.
+     */
+    private static final long RESULT_BATCH_INTERVAL = 200;
+
     /**
      * テキストの文字コード変換のサービス.
      */
@@ -46,6 +73,75 @@ public class FileWalkService {
     @Autowired(required = true)
     private TextTermConvService termConvSrv;
 
+    /**
+     * 解析結果のキャッシュ.
+     */
+    @Autowired(required = true)
+    private ScanResultCache scanResultCache;
+
+    /**
+     * ファイルの読み込みサービス.
+     */
+    @Autowired(required = true)
+    private FileLoadService fileLoadSrv;
+
+    /**
+     * ファイルの解析を並列に行うスレッド数.
+     * 0以下の場合はプロセッサ数とする.
+     */
+    @Value("${textreencoder.scan.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * 文字コードと行末タイプを推定するために読み込むファイル先頭のバイト数.
+     * 0以下の場合は常にファイル全体を読み込む.
+     */
+    @Value("${textreencoder.scan.sniffSize:0}")
+    private int sniffSize;
+
+    /**
+     * 先頭部分に加えて、ファイルの途中から抜き出して照合する部分の数.
+     */
+    @Value("${textreencoder.scan.sniffSamples:0}")
+    private int sniffSamples;
+
+    /**
+     * 文字コードの推定の前に、ファイルの先頭部分からバイナリファイルを判定するか？
+     */
+    @Value("${textreencoder.scan.detectBinary:false}")
+    private boolean detectBinary;
+
+    /**
+     * 同じ内容のファイルの解析を1回にまとめるか？
+     */
+    @Value("${textreencoder.scan.dedup:false}")
+    private boolean dedup;
+
+    /**
+     * 既定で除外するファイル名とディレクトリ名のパターン(セミコロン区切り).
+     */
+    @Value("${textreencoder.scan.defaultExcludes:}")
+    private String defaultExcludes;
+
+    /**
+     * .gitignoreの規則に合致するファイルとディレクトリを除外するか？
+     */
+    @Value("${textreencoder.scan.gitignore:false}")
+    private boolean useGitIgnore;
+
+    /**
+     * 除外するファイルサイズの上限.
+     * 0以下の場合はサイズでは除外しない.
+     */
+    @Value("${textreencoder.scan.maxFileSize:0}")
+    private long maxFileSize;
+
+    /**
+     * 除外するバイナリファイルの拡張子(セミコロン区切り).
+     */
+    @Value("${textreencoder.scan.binaryExtensions:}")
+    private String binaryExtensions;
+
     /**
      * ファイルのパターンマッチ文字列から正規表現のパターンをリストとして返す.
      * ファイルのパターンは0文字以上の任意を「*」、任意の一文字を「?」として、 複数のパターンはセミコロンによって区切ります.
@@ -91,7 +187,9 @@ public class FileWalkService {
     }
 
     /**
-     * ファイル名からパターンマッチするマッチャーのファクトリ.
+     * ファイル名からパターンマッチするマッチャーのファクトリ.<br>
+     * makePatternsで作成したパターンはワイルドカードに戻して、
+     * すべてのパターンをまとめて照合するマッチャーとする.<br>
      *
      * @param patterns パターン
      * @return ファイル名のマッチングオブジェクト
@@ -99,26 +197,504 @@ public class FileWalkService {
     public FileNameMatcher createFileNameMatcher(List<Pattern> patterns) {
         Objects.requireNonNull(patterns);
 
-        return (name) -> patterns.stream().anyMatch(
-                pattern -> pattern.matcher(name.toString()).matches());
+        return new GlobFileNameMatcher(patterns);
+    }
+
+    /**
+     * ファイルの解析を並列に行うスレッド数を取得する.
+     * 0以下の場合はプロセッサ数とし、1の場合は走査と同じスレッドで逐次解析する.
+     *
+     * @return 並列数
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * ファイルの解析を並列に行うスレッド数を設定する.
+     * 0以下の場合はプロセッサ数とし、1の場合は走査と同じスレッドで逐次解析する.
+     *
+     * @param parallelism 並列数
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
     }
 
     /**
-     * ファイルツリーを走査します.
+     * 文字コードと行末タイプを推定するために読み込むファイル先頭のバイト数を取得する.
+     * 0以下の場合は常にファイル全体を読み込む.
+     *
+     * @return 先頭部分のバイト数
+     */
+    public int getSniffSize() {
+        return sniffSize;
+    }
+
+    /**
+     * 文字コードと行末タイプを推定するために読み込むファイル先頭のバイト数を設定する.
+     * 0以下の場合は常にファイル全体を読み込む.
+     *
+     * @param sniffSize 先頭部分のバイト数
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setSniffSize(final int sniffSize) {
+        this.sniffSize = sniffSize;
+    }
+
+    /**
+     * 先頭部分に加えて、ファイルの途中から抜き出して照合する部分の数を取得する.
+     *
+     * @return 抜き出す部分の数
+     */
+    public int getSniffSamples() {
+        return sniffSamples;
+    }
+
+    /**
+     * 先頭部分に加えて、ファイルの途中から抜き出して照合する部分の数を設定する.
+     * 最後の部分はファイルの末尾となる.
+     *
+     * @param sniffSamples 抜き出す部分の数
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setSniffSamples(final int sniffSamples) {
+        this.sniffSamples = sniffSamples;
+    }
+
+    /**
+     * 文字コードの推定の前に、ファイルの先頭部分からバイナリファイルを判定するか？
+     *
+     * @return 判定する場合はtrue
+     */
+    public boolean isDetectBinary() {
+        return detectBinary;
+    }
+
+    /**
+     * 文字コードの推定の前に、ファイルの先頭部分からバイナリファイルを判定するか設定する.<br>
+     * バイナリと判定したファイルは文字コードを推定せず、変換の対象としない.<br>
+     *
+     * @param detectBinary 判定する場合はtrue
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setDetectBinary(final boolean detectBinary) {
+        this.detectBinary = detectBinary;
+    }
+
+    /**
+     * 同じ内容のファイルの解析を1回にまとめるか？
+     *
+     * @return まとめる場合はtrue
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * 同じ内容のファイルの解析を1回にまとめるか設定する.<br>
+     * まとめる場合、ファイル全体を読み込んで解析するファイルは内容のハッシュを求め、
+     * 1回の走査の中で同じハッシュのファイルがあれば、その解析結果を用いる.
+     * ハッシュはファイル情報に含まれ、変換時に同じ内容のファイルの変換結果を
+     * 共有するために用いられる.<br>
+     * (先頭部分から推定するファイルは、ハッシュを求めない.)<br>
+     *
+     * @param dedup まとめる場合はtrue
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setDedup(final boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * 既定で除外するファイル名とディレクトリ名のパターンを取得する.
+     *
+     * @return セミコロン区切りのパターン
+     */
+    public String getDefaultExcludes() {
+        return defaultExcludes == null ? "" : defaultExcludes;
+    }
+
+    /**
+     * 既定で除外するファイル名とディレクトリ名のパターンを設定する.
+     *
+     * @param defaultExcludes セミコロン区切りのパターン
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setDefaultExcludes(final String defaultExcludes) {
+        this.defaultExcludes = defaultExcludes;
+    }
+
+    /**
+     * .gitignoreの規則に合致するファイルとディレクトリを除外するか？
+     *
+     * @return 除外する場合はtrue
+     */
+    public boolean isUseGitIgnore() {
+        return useGitIgnore;
+    }
+
+    /**
+     * .gitignoreの規則に合致するファイルとディレクトリを除外するか設定する.
+     *
+     * @param useGitIgnore 除外する場合はtrue
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setUseGitIgnore(final boolean useGitIgnore) {
+        this.useGitIgnore = useGitIgnore;
+    }
+
+    /**
+     * 除外するファイルサイズの上限を取得する.
+     *
+     * @return 上限のバイト数、0以下は無制限
+     */
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * 除外するファイルサイズの上限を設定する.
+     *
+     * @param maxFileSize 上限のバイト数、0以下は無制限
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setMaxFileSize(final long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * 除外するバイナリファイルの拡張子を取得する.
+     *
+     * @return セミコロン区切りの拡張子
+     */
+    public String getBinaryExtensions() {
+        return binaryExtensions == null ? "" : binaryExtensions;
+    }
+
+    /**
+     * 除外するバイナリファイルの拡張子を設定する.
+     *
+     * @param binaryExtensions セミコロン区切りの拡張子
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setBinaryExtensions(final String binaryExtensions) {
+        this.binaryExtensions = binaryExtensions;
+    }
+
+    /**
+     * 走査から除外するファイルとディレクトリの判定を作成する.<br>
+     * 指定したパターンに加えて、.gitignoreの規則、サイズの上限、
+     * バイナリファイルの拡張子の設定を用いる.<br>
+     *
+     * @param excludes 除外するファイル名とディレクトリ名のパターン
+     * @return 除外の判定
+     */
+    public ExcludeFilter createExcludeFilter(final List<Pattern> excludes) {
+        Objects.requireNonNull(excludes);
+        List<String> exts = new ArrayList<>();
+        for (String ext : getBinaryExtensions().split(";")) {
+            ext = ext.trim();
+            if (ext.startsWith("*.")) {
+                ext = ext.substring(2);
+            } else if (ext.startsWith(".")) {
+                ext = ext.substring(1);
+            }
+            if (!ext.isEmpty()) {
+                exts.add(ext);
+            }
+        }
+        return new ExcludeFilter(excludes, useGitIgnore, maxFileSize, exts);
+    }
+
+    /**
+     * 1つのファイルの文字コードと行末タイプを推定する.<br>
+     * 走査と同様に、サイズと最終更新日時が前回の解析時から変わっていなければ
+     * キャッシュされた解析結果を用いる.
+     * キャッシュの保存は呼び出し元で{@link ScanResultCache#save()}により行うこと.<br>
+     * 同じ内容のファイルの解析をまとめる設定の場合は、内容のハッシュも求める.<br>
+     *
+     * @param filePath ファイルのパス
+     * @param attrs ファイルの属性
+     * @return ファイル情報
+     * @throws IOException 読み込みに失敗
+     */
+    public FileInfo analyzeFile(final Path filePath,
+            final BasicFileAttributes attrs) throws IOException {
+        Objects.requireNonNull(filePath);
+        Objects.requireNonNull(attrs);
+        return analyze(filePath, attrs, dedup ? new HashMap<>() : null);
+    }
+
+    /**
+     * ファイルツリーを走査します.<br>
+     * 並列数が2以上の場合、ディレクトリの走査は呼び出し元スレッドで行い、
+     * 見つかったファイルの解析をワークスティーリングのスレッドプールで並列に行う.<br>
+     * 結果はパス順に並べ替えて返す.<br>
+     * サイズと最終更新日時が前回の解析時から変わっていないファイルは、
+     * 読み込まずにキャッシュされた解析結果を用いる.<br>
+     * 同じ内容のファイルの解析をまとめる場合は、走査ごとに内容のハッシュの索引を作成する.<br>
+     * リスナーを指定した場合、解析が済んだファイルを走査の途中でも
+     * 一定件数または一定時間ごとにまとめて通知する.
+     * (通知は走査を行うスレッドから、走査順に行う.)<br>
      *
      * @param srcDir 入力元フォルダ
      * @param recursive 再帰的にサブフォルダを検査するか？
      * @param fileNameMatcher ファイル名のマッチャー
+     * @param excludeFilter 除外の判定
      * @param predicate 停止条件の判定
+     * @param listener 途中結果のリスナー、不要ならnull
      * @return マッチしたファイルリスト
      */
     private List<FileInfo> walkFiles(
             final Path srcDir,
             final boolean recursive,
             final FileNameMatcher fileNameMatcher,
-            final BiPredicate<Path, BasicFileAttributes> predicate
+            final ExcludeFilter excludeFilter,
+            final BiPredicate<Path, BasicFileAttributes> predicate,
+            final Consumer<List<FileInfo>> listener
+    ) {
+        int threads = parallelism > 0 ? parallelism
+                : Runtime.getRuntime().availableProcessors();
+        ResultCollector collector = new ResultCollector(listener);
+        Map<String, FileInfo> hashIndex = dedup ? new ConcurrentHashMap<>() : null;
+        if (threads <= 1) {
+            walkFiles(srcDir, recursive, fileNameMatcher, excludeFilter, predicate,
+                    (filePath, attrs) -> collector.add(
+                            analyze(filePath, attrs, hashIndex)));
+
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                walkFilesParallel(srcDir, recursive, fileNameMatcher,
+                        excludeFilter, predicate, pool, collector, hashIndex);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        collector.flush();
+
+        List<FileInfo> files = collector.getFiles();
+        files.sort(Comparator.comparing(FileInfo::getPath));
+        scanResultCache.save();
+        return files;
+    }
+
+    /**
+     * 解析結果を集め、途中結果をまとめてリスナーに通知する.
+     */
+    private static final class ResultCollector {
+
+        /**
+         * 途中結果のリスナー、不要ならnull.
+         */
+        private final Consumer<List<FileInfo>> listener;
+
+        /**
+         * すべての解析結果.
+         */
+        private final List<FileInfo> files = new ArrayList<>();
+
+        /**
+         * 未通知の解析結果.
+         */
+        private List<FileInfo> batch = new ArrayList<>();
+
+        /**
+         * 最後に通知した時刻.
+         */
+        private long lastPublished = System.currentTimeMillis();
+
+        ResultCollector(final Consumer<List<FileInfo>> listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * 解析結果を追加する.
+         *
+         * @param fileInfo 解析結果
+         */
+        void add(final FileInfo fileInfo) {
+            files.add(fileInfo);
+            if (listener == null) {
+                return;
+            }
+            batch.add(fileInfo);
+            if (batch.size() >= RESULT_BATCH_SIZE || System.currentTimeMillis()
+                    - lastPublished >= RESULT_BATCH_INTERVAL) {
+                flush();
+            }
+        }
+
+        /**
+         * 未通知の解析結果があれば通知する.
+         */
+        void flush() {
+            if (listener != null && !batch.isEmpty()) {
+                List<FileInfo> published = batch;
+                batch = new ArrayList<>();
+                listener.accept(published);
+            }
+            lastPublished = System.currentTimeMillis();
+        }
+
+        /**
+         * すべての解析結果.
+         *
+         * @return 解析結果(走査順)
+         */
+        List<FileInfo> getFiles() {
+            return files;
+        }
+    }
+
+    /**
+     * ファイルツリーを走査し、ファイルの解析をスレッドプールで並列に行う.<br>
+     * 走査中も、先頭から完了済みの解析結果を順に回収する.<br>
+     * 解析結果の回収中も停止条件を判定し、停止する場合は未完了の解析を取り消す.<br>
+     *
+     * @param srcDir 入力元フォルダ
+     * @param recursive 再帰的にサブフォルダを検査するか？
+     * @param fileNameMatcher ファイル名のマッチャー
+     * @param excludeFilter 除外の判定
+     * @param predicate 停止条件の判定
+     * @param pool 解析用のスレッドプール
+     * @param collector 解析結果の回収先
+     * @param hashIndex 内容のハッシュごとの解析結果、まとめない場合はnull
+     */
+    private void walkFilesParallel(
+            final Path srcDir,
+            final boolean recursive,
+            final FileNameMatcher fileNameMatcher,
+            final ExcludeFilter excludeFilter,
+            final BiPredicate<Path, BasicFileAttributes> predicate,
+            final ExecutorService pool,
+            final ResultCollector collector,
+            final Map<String, FileInfo> hashIndex
+    ) {
+        Deque<PendingFile> pendings = new ArrayDeque<>();
+        try {
+            walkFiles(srcDir, recursive, fileNameMatcher, excludeFilter, predicate,
+                    (filePath, attrs) -> {
+                        pendings.add(new PendingFile(filePath, attrs,
+                                pool.submit(() -> analyze(filePath, attrs,
+                                        hashIndex))));
+                        // 完了済みの解析結果を回収する (待機はしない)
+                        try {
+                            while (!pendings.isEmpty()
+                                    && pendings.peek().future.isDone()) {
+                                collector.add(getResult(pendings.poll().future));
+                            }
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+
+            while (!pendings.isEmpty()) {
+                PendingFile pending = pendings.poll();
+                if (!predicate.test(pending.path, pending.attrs)) {
+                    break;
+                }
+                collector.add(getResult(pending.future));
+            }
+        } catch (InterruptedException ex) {
+            // 中断された場合は走査のキャンセルと同様に扱う
+            Thread.currentThread().interrupt();
+
+        } finally {
+            pendings.forEach(pending -> pending.future.cancel(true));
+        }
+    }
+
+    /**
+     * 解析中のファイル.
+     */
+    private static final class PendingFile {
+
+        /**
+         * ファイルのパス.
+         */
+        private final Path path;
+
+        /**
+         * ファイルの属性.
+         */
+        private final BasicFileAttributes attrs;
+
+        /**
+         * 解析結果.
+         */
+        private final Future<FileInfo> future;
+
+        PendingFile(final Path path, final BasicFileAttributes attrs,
+                final Future<FileInfo> future) {
+            this.path = path;
+            this.attrs = attrs;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 解析結果を取得する.<br>
+     * 解析中の例外は非チェック例外として再送出する.<br>
+     *
+     * @param future 解析結果
+     * @return ファイル情報
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    private static FileInfo getResult(final Future<FileInfo> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * マッチしたファイルを受け取るハンドラ.
+     */
+    @FunctionalInterface
+    private interface MatchedFileHandler {
+
+        /**
+         * マッチしたファイルを処理する.
+         *
+         * @param filePath ファイルのパス
+         * @param attrs ファイルの属性
+         * @throws IOException 失敗
+         */
+        void accept(Path filePath, BasicFileAttributes attrs)
+                throws IOException;
+    }
+
+    /**
+     * ファイルツリーを走査し、マッチしたファイルをハンドラに渡します.<br>
+     * 除外するディレクトリは配下を走査せず、除外するファイルは読み込まない.<br>
+     *
+     * @param srcDir 入力元フォルダ
+     * @param recursive 再帰的にサブフォルダを検査するか？
+     * @param fileNameMatcher ファイル名のマッチャー
+     * @param excludeFilter 除外の判定
+     * @param predicate 停止条件の判定
+     * @param handler マッチしたファイルのハンドラ
+     */
+    private void walkFiles(
+            final Path srcDir,
+            final boolean recursive,
+            final FileNameMatcher fileNameMatcher,
+            final ExcludeFilter excludeFilter,
+            final BiPredicate<Path, BasicFileAttributes> predicate,
+            final MatchedFileHandler handler
     ) {
-        ArrayList<FileInfo> files = new ArrayList<>();
         try {
             int limit;
             if (recursive) {
@@ -135,28 +711,9 @@ public class FileWalkService {
                 ) throws IOException {
                     Path name = filePath.getFileName();
                     if (!attrs.isDirectory()) {
-                        if (fileNameMatcher.match(name)) {
-                            // ファイルの読み取り
-                            ByteBuffer byteBuf = load(filePath);
-
-                            // 文字コードの推定
-                            EncodingType enc = encConvSrv
-                                    .presumeEncoding(byteBuf);
-
-                            // 行末タイプの推定
-                            TextTermType term = TextTermType.UNKNOWN;
-                            if (enc != null) {
-                                try {
-                                    CharBuffer charBuf = encConvSrv.readText(
-                                            byteBuf, enc);
-                                    term = termConvSrv.presumeTermType(charBuf);
-                                } catch (IOException ex) {
-                                    log.warn("can't decode text." + filePath +
-                                            "|enc=" + enc, ex);
-                                }
-                            }
-
-                            files.add(new FileInfo(filePath, enc, term));
+                        if (fileNameMatcher.match(name)
+                                && !excludeFilter.isExcluded(filePath, attrs)) {
+                            handler.accept(filePath, attrs);
                         }
                         if (!predicate.test(filePath, attrs)) {
                             return FileVisitResult.TERMINATE;
@@ -173,8 +730,22 @@ public class FileWalkService {
                     if (!predicate.test(dir, attrs)) {
                         return FileVisitResult.TERMINATE;
                     }
+                    if (!dir.equals(srcDir) && excludeFilter.isExcluded(dir, attrs)) {
+                        // 除外するディレクトリは配下を走査しない
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    excludeFilter.enterDirectory(dir);
                     return FileVisitResult.CONTINUE;
                 }
+
+                @Override
+                public FileVisitResult postVisitDirectory(
+                        final Path dir,
+                        final IOException exc
+                ) throws IOException {
+                    excludeFilter.leaveDirectory(dir);
+                    return super.postVisitDirectory(dir, exc);
+                }
             };
             
             Files.walkFileTree(
@@ -186,21 +757,204 @@ public class FileWalkService {
         catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
-        return files;
     }
 
     /**
-     * ファイルを一括して読み取りByteBufferに格納して返す.
-     * @param filePath
-     * @return バイトバッファ
-     * @throws IOException 
+     * ファイルの解析結果をキャッシュから取得し、なければ解析してキャッシュに登録する.<br>
+     * 先頭部分から推定しない設定の場合は、先頭部分から推定したキャッシュは用いない.<br>
+     * 同じ内容のファイルの解析をまとめる場合は、ハッシュのないキャッシュは用いない.<br>
+     *
+     * @param filePath ファイルのパス
+     * @param attrs ファイルの属性
+     * @param hashIndex 内容のハッシュごとの解析結果、まとめない場合はnull
+     * @return ファイル情報
+     * @throws IOException 読み込みに失敗
+     */
+    private FileInfo analyze(final Path filePath,
+            final BasicFileAttributes attrs,
+            final Map<String, FileInfo> hashIndex) throws IOException {
+        String settings = getAnalysisSettings();
+        FileInfo fileInfo = scanResultCache.get(filePath, attrs, sniffSize <= 0,
+                settings);
+        if (fileInfo != null && hashIndex != null && !fileInfo.isBinary()
+                && fileInfo.getContentHash() == null
+                && (sniffSize <= 0 || attrs.size() <= sniffSize)) {
+            fileInfo = null;
+        }
+        if (fileInfo == null) {
+            fileInfo = analyze(filePath, attrs.size(), hashIndex);
+            scanResultCache.put(fileInfo, attrs, settings);
+        } else if (log.isDebugEnabled()) {
+            log.debug("cached: " + filePath);
+        }
+        // 走査時の属性を保持し、結果の表示時にファイルを再度調べないようにする
+        return fileInfo.withAttributes(attrs);
+    }
+
+    /**
+     * 解析結果に影響する設定を表す文字列を返す.<br>
+     * 設定が異なるときのキャッシュを用いないようにするために用いる.<br>
+     *
+     * @return 解析の設定を表す文字列
+     */
+    private String getAnalysisSettings() {
+        return "detectBinary=" + detectBinary
+                + ",order=" + encConvSrv.getCheckEncodingOrder();
+    }
+
+    /**
+     * ファイルを読み込み、文字コードと行末タイプを推定する.<br>
+     * ファイルが先頭部分の読み込みサイズより大きい場合は、先頭部分から推定し、
+     * 判別できない場合に限りファイル全体を逐次読み込んで推定する.<br>
+     * バイナリを判定する場合は、ファイル全体を読み込む前に先頭部分だけで判定する.<br>
+     * ファイル全体を読み込む場合で、索引に同じ内容のファイルがあれば、その解析結果を用いる.<br>
+     *
+     * @param filePath ファイルのパス
+     * @param size ファイルサイズ
+     * @param hashIndex 内容のハッシュごとの解析結果、まとめない場合はnull
+     * @return ファイル情報
+     * @throws IOException 読み込みに失敗
      */
-    private static ByteBuffer load(Path filePath) throws IOException {
+    private FileInfo analyze(final Path filePath, final long size,
+            final Map<String, FileInfo> hashIndex) throws IOException {
+        if (sniffSize > 0 && size > sniffSize) {
+            return sniff(filePath, size);
+        }
+        if (detectBinary) {
+            // バイナリはファイル全体を読み込まずに除外する
+            ByteBuffer prefix;
+            try (FileChannel ch = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                prefix = read(ch, 0,
+                        (int) Math.min(size, BinaryDetector.PREFIX_SIZE));
+            }
+            if (BinaryDetector.isBinary(prefix)) {
+                return FileInfo.binary(filePath);
+            }
+        }
+
+        // ファイルの読み取り(大きなファイルはメモリマップされる)
+        try (FileLoadService.LoadedFile loaded = fileLoadSrv.load(filePath)) {
+            ByteBuffer byteBuf = loaded.getBuffer();
+
+            // 同じ内容のファイルの解析結果
+            String contentHash = null;
+            if (hashIndex != null) {
+                contentHash = ContentHash.of(byteBuf);
+                FileInfo same = hashIndex.get(contentHash);
+                if (same != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("same content: " + filePath + "=" + same.getPath());
+                    }
+                    return same.withPath(filePath);
+                }
+            }
+
+            // 文字コードと行末タイプの推定
+            // (文字コードを判定する走査の中で行末も数え、テキストには変換しない)
+            TextEncodeConvService.PresumeResult presumed
+                    = encConvSrv.presumeEncodingAndTermType(byteBuf);
+
+            FileInfo fileInfo = new FileInfo(filePath, presumed.getEncoding(),
+                    presumed.getTermType()).withContentHash(contentHash);
+            if (contentHash != null) {
+                hashIndex.putIfAbsent(contentHash, fileInfo);
+            }
+            return fileInfo;
+        }
+    }
+
+    /**
+     * ファイルの先頭部分(と途中から抜き出した部分)から文字コードと行末タイプを推定する.<br>
+     * 先頭部分がバイナリと判定された場合は、それ以上は読み込まない.<br>
+     * 文字コードが判別できない場合はファイル全体を逐次読み込んで推定する.<br>
+     * 先頭部分に行末がない場合は、推定した文字コードでファイル全体を逐次読み込み、
+     * 行末タイプを数える. 全体を読み込めた場合は、推定した文字コードも確定となる.<br>
+     * (先頭部分で優先順位の高い候補はすでに除外されているため.)<br>
+     *
+     * @param filePath ファイルのパス
+     * @param size ファイルサイズ
+     * @return ファイル情報
+     * @throws IOException 読み込みに失敗
+     */
+    private FileInfo sniff(final Path filePath, final long size)
+            throws IOException {
         if (log.isDebugEnabled()) {
-            log.debug("load: " + filePath);
+            log.debug("sniff: " + filePath);
+        }
+        ByteBuffer prefix;
+        List<ByteBuffer> samples = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            prefix = read(ch, 0, sniffSize);
+            if (detectBinary && BinaryDetector.isBinary(prefix)) {
+                return FileInfo.binary(filePath);
+            }
+            for (int idx = 1; idx <= sniffSamples; idx++) {
+                long pos = (size - sniffSize) * idx / sniffSamples;
+                samples.add(read(ch, pos, sniffSize));
+            }
+        }
+
+        EncodingType enc = encConvSrv.sniffEncoding(prefix, samples);
+        if (enc == null) {
+            return analyzeStreaming(filePath);
+        }
+
+        // 先頭部分は推定した文字コードで読み込めることを確認済みのため、
+        // テキストに変換せずにバイト列のまま行末を数える
+        TextTermConvService.ByteTermCounter counter
+                = termConvSrv.createTermCounter(enc);
+        counter.accept(prefix.duplicate());
+        if (counter.hasTerm()) {
+            return new FileInfo(filePath, enc, counter.getTermType(false), false);
+        }
+
+        TextTermConvService.TermCounter wholeCounter = termConvSrv.createTermCounter();
+        try (FileChannel ch = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            encConvSrv.readText(ch, enc, wholeCounter::accept);
+        } catch (CharacterCodingException ex) {
+            return analyzeStreaming(filePath);
+        }
+        return new FileInfo(filePath, enc, wholeCounter.getTermType(true));
+    }
+
+    /**
+     * ファイル全体を逐次読み込み、文字コードと行末タイプを推定する.<br>
+     * ファイル全体をメモリに読み込まないため、大きなファイルでも使用メモリは一定となる.<br>
+     * 文字コードと行末タイプは一度の読み込みで推定する.<br>
+     *
+     * @param filePath ファイルのパス
+     * @return ファイル情報
+     * @throws IOException 読み込みに失敗
+     */
+    private FileInfo analyzeStreaming(final Path filePath) throws IOException {
+        TextEncodeConvService.PresumeResult presumed;
+        try (FileChannel ch = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            presumed = encConvSrv.presumeEncodingAndTermType(ch);
         }
-        byte[] data = Files.readAllBytes(filePath);
-        return ByteBuffer.wrap(data);
+        return new FileInfo(filePath, presumed.getEncoding(),
+                presumed.getTermType());
+    }
+
+    /**
+     * ファイルの指定した位置から指定したバイト数を読み取りByteBufferに格納して返す.
+     * ファイルの終端に達した場合は、それまでに読み込んだ分だけを返す.
+     *
+     * @param ch ファイルチャネル
+     * @param pos 読み取り位置
+     * @param length 読み取るバイト数
+     * @return バイトバッファ
+     * @throws IOException 失敗
+     */
+    private static ByteBuffer read(final FileChannel ch, final long pos,
+            final int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf;
     }
 
     /**
@@ -224,20 +978,166 @@ public class FileWalkService {
         private final TextTermType termType;
 
         /**
-         * コンストラクタ.
+         * ファイル全体で確認された推定であるか？
+         */
+        private final boolean verified;
+
+        /**
+         * バイナリファイルであるか？
+         */
+        private final boolean binary;
+
+        /**
+         * ファイルサイズ、不明の場合は-1.
+         */
+        private final long size;
+
+        /**
+         * 最終更新日時、不明の場合はnull.
+         */
+        private final FileTime lastModified;
+
+        /**
+         * 内容のハッシュ、求めていない場合はnull.
+         */
+        private final String contentHash;
+
+        /**
+         * ファイル全体で確認された推定結果のコンストラクタ.
          *
          * @param path パス
          * @param encoding 文字コード
          * @param termType 行末タイプ
          */
-        @SuppressWarnings("checkstyle:hiddenfield")
         public FileInfo(final Path path, final EncodingType encoding,
                 final TextTermType termType) {
+            this(path, encoding, termType, true);
+        }
+
+        /**
+         * コンストラクタ.
+         *
+         * @param path パス
+         * @param encoding 文字コード
+         * @param termType 行末タイプ
+         * @param verified ファイル全体で確認された推定であるか？
+         */
+        public FileInfo(final Path path, final EncodingType encoding,
+                final TextTermType termType, final boolean verified) {
+            this(path, encoding, termType, verified, false, -1, null);
+        }
+
+        /**
+         * コンストラクタ.
+         *
+         * @param path パス
+         * @param encoding 文字コード
+         * @param termType 行末タイプ
+         * @param verified ファイル全体で確認された推定であるか？
+         * @param size ファイルサイズ、不明の場合は-1
+         * @param lastModified 最終更新日時、不明の場合はnull
+         */
+        public FileInfo(final Path path, final EncodingType encoding,
+                final TextTermType termType, final boolean verified,
+                final long size, final FileTime lastModified) {
+            this(path, encoding, termType, verified, false, size, lastModified);
+        }
+
+        /**
+         * コンストラクタ.
+         *
+         * @param path パス
+         * @param encoding 文字コード
+         * @param termType 行末タイプ
+         * @param verified ファイル全体で確認された推定であるか？
+         * @param binary バイナリファイルであるか？
+         * @param size ファイルサイズ、不明の場合は-1
+         * @param lastModified 最終更新日時、不明の場合はnull
+         */
+        public FileInfo(final Path path, final EncodingType encoding,
+                final TextTermType termType, final boolean verified,
+                final boolean binary, final long size,
+                final FileTime lastModified) {
+            this(path, encoding, termType, verified, binary, size,
+                    lastModified, null);
+        }
+
+        /**
+         * コンストラクタ.
+         *
+         * @param path パス
+         * @param encoding 文字コード
+         * @param termType 行末タイプ
+         * @param verified ファイル全体で確認された推定であるか？
+         * @param binary バイナリファイルであるか？
+         * @param size ファイルサイズ、不明の場合は-1
+         * @param lastModified 最終更新日時、不明の場合はnull
+         * @param contentHash 内容のハッシュ、求めていない場合はnull
+         */
+        @SuppressWarnings("checkstyle:hiddenfield")
+        private FileInfo(final Path path, final EncodingType encoding,
+                final TextTermType termType, final boolean verified,
+                final boolean binary, final long size,
+                final FileTime lastModified, final String contentHash) {
             Objects.requireNonNull(path);
 
             this.path = path;
             this.encoding = encoding;
             this.termType = termType;
+            this.verified = verified;
+            this.binary = binary;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * ファイルの属性としてサイズと最終更新日時を設定したファイル情報を返す.
+         *
+         * @param attrs ファイルの属性
+         * @return ファイル情報
+         */
+        public FileInfo withAttributes(final BasicFileAttributes attrs) {
+            Objects.requireNonNull(attrs);
+            return new FileInfo(path, encoding, termType, verified, binary,
+                    attrs.size(), attrs.lastModifiedTime(), contentHash);
+        }
+
+        /**
+         * 内容のハッシュを設定したファイル情報を返す.
+         *
+         * @param contentHash 内容のハッシュ、求めていない場合はnull
+         * @return ファイル情報
+         */
+        @SuppressWarnings("checkstyle:hiddenfield")
+        public FileInfo withContentHash(final String contentHash) {
+            return new FileInfo(path, encoding, termType, verified, binary,
+                    size, lastModified, contentHash);
+        }
+
+        /**
+         * 同じ内容の別のファイルのファイル情報を返す.<br>
+         * 解析結果と内容のハッシュを引き継ぎ、サイズと最終更新日時は不明とする.<br>
+         *
+         * @param path パス
+         * @return ファイル情報
+         */
+        @SuppressWarnings("checkstyle:hiddenfield")
+        public FileInfo withPath(final Path path) {
+            return new FileInfo(path, encoding, termType, verified, binary,
+                    -1, null, contentHash);
+        }
+
+        /**
+         * バイナリファイルのファイル情報を作成する.<br>
+         * 文字コードはnull、行末タイプはUNKNOWNとなる.<br>
+         *
+         * @param path パス
+         * @return ファイル情報
+         */
+        public static FileInfo binary(final Path path) {
+            return new FileInfo(path, null, TextTermType.UNKNOWN, true, true,
+                    -1, null);
         }
 
         /**
@@ -267,6 +1167,84 @@ public class FileWalkService {
             return termType;
         }
 
+        /**
+         * ファイル全体で確認された推定であるか？<br>
+         * falseの場合は先頭部分などからの推定であり、
+         * ファイルの後半に異なる文字コードや行末が含まれている可能性がある.<br>
+         *
+         * @return ファイル全体で確認されていればtrue
+         */
+        public boolean isVerified() {
+            return verified;
+        }
+
+        /**
+         * バイナリファイルであるか？<br>
+         * バイナリファイルは文字コードを推定しておらず、変換の対象とならない.<br>
+         *
+         * @return バイナリファイルであればtrue
+         */
+        public boolean isBinary() {
+            return binary;
+        }
+
+        /**
+         * 内容のハッシュ.<br>
+         * 同じ内容のファイルの解析をまとめる場合に、ファイル全体を読み込んで
+         * 解析したファイルに設定される.<br>
+         *
+         * @return 内容のハッシュ、求めていない場合はnull
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * ファイルサイズ.
+         *
+         * @return 走査時のファイルサイズ、不明の場合は-1
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * 最終更新日時.
+         *
+         * @return 走査時の最終更新日時、不明の場合はnull
+         */
+        public FileTime getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * 指定した文字コードと行末タイプへの変換が必要であるか？<br>
+         * 推定した文字コードが一致しなければ、あるいは、行末タイプが一致しなければ
+         * 変換が必要とする.
+         * (ただし指定もしくは推定のいずれかの行末タイプがUNKNOWNの場合は
+         * 行末タイプは不問とする.)<br>
+         * 行末タイプを指定した場合、推定がファイル全体で確認されていなければ、
+         * 推定した行末タイプによらず変換が必要とする.
+         * (先頭部分より後に異なる行末が含まれている可能性があるため.)<br>
+         * バイナリファイルは変換しない.<br>
+         *
+         * @param destEncoding 変換後の文字コード
+         * @param destTermType 変換後の行末タイプ
+         * @return 変換が必要であればtrue
+         */
+        public boolean needsConversion(final EncodingType destEncoding,
+                final TextTermType destTermType) {
+            Objects.requireNonNull(destEncoding);
+            if (binary) {
+                return false;
+            }
+            return !destEncoding.equals(encoding) ||
+                    (destTermType != TextTermType.UNKNOWN &&
+                     (!verified ||
+                      (termType != TextTermType.UNKNOWN &&
+                       destTermType != termType)));
+        }
+
         /**
          * 診断文字列を返す.
          *
@@ -274,7 +1252,7 @@ public class FileWalkService {
          */
         @Override
         public String toString() {
-            return encoding + "=" + path;
+            return (binary ? "BINARY" : String.valueOf(encoding)) + "=" + path;
         }
     }
 
@@ -290,9 +1268,29 @@ public class FileWalkService {
             final Path dir,
             final boolean recursive,
             final List<Pattern> regexps
+    ) {
+        return createCallable(dir, recursive, regexps, Collections.emptyList());
+    }
+
+    /**
+     * 指定したパスの走査を行うタスク生成して返します. (まだ実行はされていません.)<br>
+     * 除外するパターンに合致するディレクトリは配下を走査しない.<br>
+     *
+     * @param dir 対象ディレクトリ
+     * @param recursive 再帰的に検査するか？
+     * @param regexps マッチする名前のパターンリスト
+     * @param excludes 除外するファイル名とディレクトリ名のパターンリスト
+     * @return タスク
+     */
+    public final FileWalkerCallable createCallable(
+            final Path dir,
+            final boolean recursive,
+            final List<Pattern> regexps,
+            final List<Pattern> excludes
     ) {
         Objects.requireNonNull(dir);
         Objects.requireNonNull(regexps);
+        Objects.requireNonNull(excludes);
         return new FileWalkerCallable() {
 
             /**
@@ -300,6 +1298,18 @@ public class FileWalkService {
              */
             private ProgressCallback progressCallback;
 
+            /**
+             * 途中結果の通知を受けるリスナー
+             */
+            private Consumer<List<FileInfo>> resultListener;
+
+            @Override
+            public void setResultListener(
+                    final Consumer<List<FileInfo>> listener
+            ) {
+                this.resultListener = listener;
+            }
+
             /**
              * 進行状況の通知を受けるコールバックの設定.
              *
@@ -336,6 +1346,7 @@ public class FileWalkService {
                         dir,
                         recursive,
                         createFileNameMatcher(regexps),
+                        createExcludeFilter(excludes),
                         (path, attr) -> {
                             if (attr.isDirectory()) {
                                 // 走査中の相対ディレクトリの表示
@@ -344,7 +1355,8 @@ public class FileWalkService {
                             }
                             // タスクがキャンセルされていれば走査は非継続とする.
                             return !isCancelled();
-                        });
+                        },
+                        resultListener);
                 log.info("★end worker");
                 return files;
             }
@@ -2,10 +2,12 @@ package jp.seraphyware.textencodechanger.services;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
 /**
  * ファイルの走査結果を返すCallableの拡張.
- * 進行状況の通知を受けるコールバックの設定・取得メソッドを追加している.
+ * 進行状況の通知を受けるコールバックの設定・取得メソッドと、
+ * 走査の途中結果の通知を受けるリスナーの設定メソッドを追加している.
  *
  * @author seraphy
  */
@@ -26,4 +28,12 @@ public interface FileWalkerCallable
      */
     ProgressCallback getProgressCallback();
 
+    /**
+     * 走査の途中結果の通知を受けるリスナーの設定.
+     * 解析が済んだファイルを、走査の途中でもまとめて通知する.
+     * リスナーは走査を行うスレッドから呼び出される.
+     *
+     * @param listener リスナー、不要ならnull可
+     */
+    void setResultListener(Consumer<List<FileWalkService.FileInfo>> listener);
 }
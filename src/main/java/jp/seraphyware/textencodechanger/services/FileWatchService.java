@@ -0,0 +1,676 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.StreamFileContentConverter;
+import jp.seraphyware.textencodechanger.services.FileWalkService.FileInfo;
+import jp.seraphyware.textencodechanger.services.FileWalkService.FileNameMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 入力元フォルダのファイルの変更を監視するサービス.<br>
+ * WatchServiceにより入力元フォルダ(再帰的な場合はサブフォルダを含む)を監視し、
+ * 作成・変更されたファイルを走査と同じ条件で個別に解析して通知する.
+ * 削除されたファイルとフォルダも通知する.<br>
+ * 短時間に続けて届くイベントは、一定時間イベントが途切れるまで待ってからまとめて処理する.<br>
+ *
+ * @author seraphy
+ */
+@Component
+public class FileWatchService {
+
+    /**
+     * ロガー.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileWatchService.class);
+
+    /**
+     * ファイルの走査サービス.
+     */
+    @Autowired(required = true)
+    private FileWalkService fileWalkSrv;
+
+    /**
+     * 解析結果のキャッシュ.
+     */
+    @Autowired(required = true)
+    private ScanResultCache scanResultCache;
+
+    /**
+     * イベントが途切れてから処理するまでの待ち時間(ミリ秒).
+     */
+    @Value("${textreencoder.watch.settleDelay:500}")
+    private long settleDelay;
+
+    /**
+     * イベントが途切れてから処理するまでの待ち時間(ミリ秒)を取得する.
+     *
+     * @return 待ち時間
+     */
+    public long getSettleDelay() {
+        return settleDelay;
+    }
+
+    /**
+     * イベントが途切れてから処理するまでの待ち時間(ミリ秒)を設定する.
+     * 0以下の場合は待たずに処理する.
+     *
+     * @param settleDelay 待ち時間
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setSettleDelay(final long settleDelay) {
+        this.settleDelay = settleDelay;
+    }
+
+    /**
+     * 監視の結果を受け取るリスナー.<br>
+     * 監視を行うスレッドから呼び出される.<br>
+     */
+    public interface FileWatchListener {
+
+        /**
+         * ファイルが作成・変更・削除されたことを通知する.
+         *
+         * @param updated 作成・変更されたファイルの解析結果
+         * @param removed 削除されたか、監視の対象外になったパス
+         * (フォルダの場合は配下を含む)
+         */
+        void filesChanged(List<FileInfo> updated, List<Path> removed);
+
+        /**
+         * 自動変換したファイルを通知する.
+         *
+         * @param fileInfo 変換前のファイル情報
+         */
+        default void fileConverted(final FileInfo fileInfo) {
+            // 何もしない
+        }
+
+        /**
+         * イベントを取りこぼしたため、全体を走査しなおした結果を通知する.
+         *
+         * @param files 走査結果
+         */
+        default void filesRescanned(final List<FileInfo> files) {
+            // 何もしない
+        }
+    }
+
+    /**
+     * 指定したパスの監視を行うウォッチャーを作成して返します.
+     * (まだ監視は開始されていません.)
+     *
+     * @param dir 対象ディレクトリ
+     * @param recursive 再帰的に監視するか？
+     * @param regexps マッチする名前のパターンリスト
+     * @param excludes 除外するファイル名とディレクトリ名のパターンリスト
+     * @param listener リスナー
+     * @return ウォッチャー
+     */
+    public FileWatcher createWatcher(
+            final Path dir,
+            final boolean recursive,
+            final List<Pattern> regexps,
+            final List<Pattern> excludes,
+            final FileWatchListener listener
+    ) {
+        Objects.requireNonNull(dir);
+        Objects.requireNonNull(regexps);
+        Objects.requireNonNull(excludes);
+        Objects.requireNonNull(listener);
+        return new FileWatcher(dir, recursive, regexps, excludes, listener);
+    }
+
+    /**
+     * フォルダの監視.<br>
+     * 監視は専用のスレッドで行う.
+     * 閉じると、処理中のイベントの処理を終えてから監視を終了する.<br>
+     */
+    public final class FileWatcher implements Closeable {
+
+        /**
+         * 対象ディレクトリ.
+         */
+        private final Path dir;
+
+        /**
+         * 再帰的に監視するか？
+         */
+        private final boolean recursive;
+
+        /**
+         * マッチする名前のパターンリスト.
+         */
+        private final List<Pattern> regexps;
+
+        /**
+         * 除外するファイル名とディレクトリ名のパターンリスト.
+         */
+        private final List<Pattern> excludes;
+
+        /**
+         * ファイル名のマッチャー.
+         */
+        private final FileNameMatcher fileNameMatcher;
+
+        /**
+         * リスナー.
+         */
+        private final FileWatchListener listener;
+
+        /**
+         * 監視キーと、監視しているディレクトリ.
+         */
+        private final Map<WatchKey, Path> keys = new HashMap<>();
+
+        /**
+         * 監視しているディレクトリ.
+         */
+        private final Set<Path> watchedDirs = new HashSet<>();
+
+        /**
+         * 自動変換するコンバータ、自動変換しない場合はnull.
+         */
+        private StreamFileContentConverter converter;
+
+        /**
+         * 自動変換後の文字コード.
+         */
+        private EncodingType destEncoding;
+
+        /**
+         * 自動変換後の行末タイプ.
+         */
+        private TextTermType destTermType;
+
+        /**
+         * 直前の自動変換で書き込んだ出力先.<br>
+         * 書き込みによる次のイベントでは、解析結果を通知するが自動変換はしない.<br>
+         */
+        private final Set<Path> recentOutputs = new HashSet<>();
+
+        /**
+         * 自動変換が作成したバックアップと一時ファイル.<br>
+         * 作成による次のイベントでは、解析も通知もしない.<br>
+         */
+        private final Set<Path> recentWorkFiles = new HashSet<>();
+
+        /**
+         * 監視サービス、開始前はnull.
+         */
+        private WatchService watchService;
+
+        /**
+         * 閉じられたか？
+         */
+        private volatile boolean closed;
+
+        private FileWatcher(final Path dir, final boolean recursive,
+                final List<Pattern> regexps, final List<Pattern> excludes,
+                final FileWatchListener listener) {
+            this.dir = dir;
+            this.recursive = recursive;
+            this.regexps = regexps;
+            this.excludes = excludes;
+            this.fileNameMatcher = fileWalkSrv.createFileNameMatcher(regexps);
+            this.listener = listener;
+        }
+
+        /**
+         * 作成・変更されたファイルのうち、変換が必要なものを自動変換する.<br>
+         * 監視の開始前に設定すること.<br>
+         *
+         * @param converter コンバータ、自動変換しない場合はnull
+         * @param destEncoding 変換後の文字コード
+         * @param destTermType 変換後の行末タイプ
+         */
+        @SuppressWarnings("checkstyle:hiddenfield")
+        public void setAutoConverter(
+                final StreamFileContentConverter converter,
+                final EncodingType destEncoding,
+                final TextTermType destTermType
+        ) {
+            if (converter != null) {
+                Objects.requireNonNull(destEncoding);
+                Objects.requireNonNull(destTermType);
+            }
+            this.converter = converter;
+            this.destEncoding = destEncoding;
+            this.destTermType = destTermType;
+        }
+
+        /**
+         * 監視を開始する.<br>
+         * 監視するディレクトリの登録を終えてから戻る.<br>
+         *
+         * @throws IOException 登録に失敗
+         */
+        public synchronized void start() throws IOException {
+            if (watchService != null) {
+                throw new IllegalStateException("already started");
+            }
+            watchService = dir.getFileSystem().newWatchService();
+            try {
+                register(dir, fileWalkSrv.createExcludeFilter(excludes), null);
+            } catch (IOException | RuntimeException ex) {
+                watchService.close();
+                throw ex;
+            }
+            Thread thread = new Thread(this::run, "file-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * 監視を終了する.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            WatchService ws;
+            synchronized (this) {
+                ws = watchService;
+            }
+            if (ws != null) {
+                try {
+                    ws.close();
+                } catch (IOException ex) {
+                    log.warn("failed to close the watch service: " + dir, ex);
+                }
+            }
+        }
+
+        /**
+         * イベントを待ち、一定時間途切れるまで集めてから処理する.
+         */
+        private void run() {
+            log.info("★begin watch: " + dir);
+            try {
+                Set<Path> changed = new LinkedHashSet<>();
+                while (!closed) {
+                    boolean overflow = collect(watchService.take(), changed);
+                    for (;;) {
+                        WatchKey key = settleDelay > 0
+                                ? watchService.poll(settleDelay, TimeUnit.MILLISECONDS)
+                                : watchService.poll();
+                        if (key == null) {
+                            break;
+                        }
+                        overflow = collect(key, changed) || overflow;
+                    }
+                    if (overflow) {
+                        rescan();
+                    } else {
+                        update(changed);
+                    }
+                    changed.clear();
+                    if (keys.isEmpty()) {
+                        // 対象ディレクトリが削除された
+                        log.info("watched directory is gone: " + dir);
+                        break;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                // 監視の終了
+                log.debug("watch closed: " + ex);
+            } catch (RuntimeException ex) {
+                log.error("watch failed: " + dir, ex);
+            } finally {
+                close();
+                scanResultCache.save();
+                log.info("★end watch: " + dir);
+            }
+        }
+
+        /**
+         * 監視キーのイベントから、変更されたパスを集める.<br>
+         * 監視しているディレクトリが削除された場合は、そのディレクトリを変更されたパスとする.<br>
+         *
+         * @param key 監視キー
+         * @param changed 変更されたパスの集合
+         * @return イベントを取りこぼしていればtrue
+         */
+        private boolean collect(final WatchKey key, final Set<Path> changed) {
+            Path watched = keys.get(key);
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                } else if (watched != null) {
+                    changed.add(watched.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+                if (watched != null) {
+                    watchedDirs.remove(watched);
+                    changed.add(watched);
+                }
+            }
+            return overflow;
+        }
+
+        /**
+         * 変更されたパスを個別に解析し、リスナーに通知してから自動変換する.<br>
+         * 作成されたディレクトリは監視に加え、配下のファイルも解析する.<br>
+         *
+         * @param changed 変更されたパス
+         */
+        private void update(final Set<Path> changed) {
+            List<FileInfo> updated = new ArrayList<>();
+            List<Path> removed = new ArrayList<>();
+            ExcludeFilter filter = fileWalkSrv.createExcludeFilter(excludes);
+            for (Path path : changed) {
+                if (isRecentWorkFile(path)) {
+                    // 自動変換によるバックアップと一時ファイル
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException ex) {
+                    removed.add(path);
+                    continue;
+                } catch (IOException ex) {
+                    log.warn("failed to read attributes: " + path, ex);
+                    continue;
+                }
+                Deque<Path> entered = new ArrayDeque<>();
+                try {
+                    enterParents(path, filter, entered);
+                    if (!attrs.isDirectory()) {
+                        FileInfo fileInfo = analyze(path, attrs, filter);
+                        if (fileInfo != null) {
+                            updated.add(fileInfo);
+                        } else {
+                            removed.add(path);
+                        }
+                    } else if (recursive && !watchedDirs.contains(path)
+                            && !filter.isExcluded(path, attrs)) {
+                        register(path, filter, updated);
+                    }
+                } catch (NoSuchFileException ex) {
+                    removed.add(path);
+                } catch (IOException ex) {
+                    log.warn("failed to analyze: " + path, ex);
+                } finally {
+                    while (!entered.isEmpty()) {
+                        filter.leaveDirectory(entered.pop());
+                    }
+                }
+            }
+            if (updated.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("watch: updated=" + updated + ", removed=" + removed);
+            }
+            notifyListener(() -> listener.filesChanged(updated, removed));
+            autoConvert(updated);
+        }
+
+        /**
+         * イベントを取りこぼしたため、監視するディレクトリを登録しなおし、全体を走査しなおす.<br>
+         * 変更されていないファイルは、キャッシュされた解析結果を用いる.<br>
+         *
+         * @throws InterruptedException 割り込まれた
+         */
+        private void rescan() throws InterruptedException {
+            log.warn("watch events overflowed, rescan: " + dir);
+            try {
+                register(dir, fileWalkSrv.createExcludeFilter(excludes), null);
+            } catch (IOException ex) {
+                log.warn("failed to register: " + dir, ex);
+            }
+            List<FileInfo> files = new ArrayList<>();
+            try {
+                for (FileInfo fileInfo : fileWalkSrv.createCallable(
+                        dir, recursive, regexps, excludes).call()) {
+                    if (!isRecentWorkFile(fileInfo.getPath())) {
+                        files.add(fileInfo);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                log.warn("failed to rescan: " + dir, ex);
+                return;
+            }
+            notifyListener(() -> listener.filesRescanned(files));
+            autoConvert(files);
+        }
+
+        /**
+         * ディレクトリを監視に登録する.<br>
+         * 再帰的に監視する場合は、除外するディレクトリを除いて配下のディレクトリも登録する.<br>
+         *
+         * @param start 登録するディレクトリ
+         * @param filter 除外の判定(登録するディレクトリの親までを走査中であること)
+         * @param found 配下のファイルの解析結果を受け取るリスト、解析しない場合はnull
+         * @throws IOException 失敗
+         */
+        private void register(final Path start, final ExcludeFilter filter,
+                final List<FileInfo> found) throws IOException {
+            SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        final Path path,
+                        final BasicFileAttributes attrs
+                ) throws IOException {
+                    if (closed) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (!path.equals(start) && filter.isExcluded(path, attrs)) {
+                        // 除外するディレクトリは監視しない
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    filter.enterDirectory(path);
+                    WatchKey key = path.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    keys.put(key, path);
+                    watchedDirs.add(path);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(
+                        final Path path,
+                        final BasicFileAttributes attrs
+                ) throws IOException {
+                    if (found != null && !attrs.isDirectory()) {
+                        FileInfo fileInfo = analyze(path, attrs, filter);
+                        if (fileInfo != null) {
+                            found.add(fileInfo);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(
+                        final Path path,
+                        final IOException exc
+                ) {
+                    // 登録中に削除されたものは、削除のイベントで通知される
+                    log.debug("skip: " + path + ": " + exc);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(
+                        final Path path,
+                        final IOException exc
+                ) {
+                    filter.leaveDirectory(path);
+                    return FileVisitResult.CONTINUE;
+                }
+            };
+            Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class),
+                    recursive ? Integer.MAX_VALUE : 1, visitor);
+        }
+
+        /**
+         * 対象ディレクトリからパスの親ディレクトリまでを、除外の判定で走査中とする.<br>
+         * (親ディレクトリまでの.gitignoreの規則を用いるため.)<br>
+         *
+         * @param path パス
+         * @param filter 除外の判定
+         * @param entered 走査中としたディレクトリ(内側が先頭)
+         * @throws IOException .gitignoreの読み込みに失敗
+         */
+        private void enterParents(final Path path, final ExcludeFilter filter,
+                final Deque<Path> entered) throws IOException {
+            Path parent = path.getParent();
+            if (parent == null || !parent.startsWith(dir)) {
+                return;
+            }
+            Path current = dir;
+            filter.enterDirectory(current);
+            entered.push(current);
+            for (Path name : dir.relativize(parent)) {
+                if (name.toString().isEmpty()) {
+                    continue;
+                }
+                current = current.resolve(name);
+                filter.enterDirectory(current);
+                entered.push(current);
+            }
+        }
+
+        /**
+         * 対象のファイルであれば解析する.
+         *
+         * @param path ファイルのパス
+         * @param attrs ファイルの属性
+         * @param filter 除外の判定
+         * @return ファイル情報、対象外のファイルであればnull
+         * @throws IOException 読み込みに失敗
+         */
+        private FileInfo analyze(final Path path, final BasicFileAttributes attrs,
+                final ExcludeFilter filter) throws IOException {
+            if (!fileNameMatcher.match(path.getFileName())
+                    || filter.isExcluded(path, attrs)) {
+                return null;
+            }
+            return fileWalkSrv.analyzeFile(path, attrs);
+        }
+
+        /**
+         * 直前の自動変換が作成したバックアップ、または一時ファイルであるか？<br>
+         * 該当した場合は記録から除くため、その後の変更は通常のファイルとして扱う.<br>
+         *
+         * @param path パス
+         * @return 自動変換が作成したファイルであればtrue
+         */
+        private boolean isRecentWorkFile(final Path path) {
+            return recentWorkFiles.remove(path.toAbsolutePath().normalize());
+        }
+
+        /**
+         * 変換が必要なファイルを自動変換し、変換したファイルをリスナーに通知する.<br>
+         * 上書きする場合、変換後のファイルは変更のイベントにより解析しなおされる.
+         * 直前に書き込んだ出力先は、変換が必要と判定されても変換しなおさない.<br>
+         *
+         * @param files ファイル情報
+         */
+        private void autoConvert(final List<FileInfo> files) {
+            if (converter == null) {
+                return;
+            }
+            boolean converted = false;
+            for (FileInfo fileInfo : files) {
+                if (closed) {
+                    break;
+                }
+                if (recentOutputs.remove(fileInfo.getPath().toAbsolutePath().normalize())) {
+                    continue;
+                }
+                EncodingType srcEncoding = fileInfo.getEncoding();
+                if (srcEncoding == null
+                        || !fileInfo.needsConversion(destEncoding, destTermType)) {
+                    continue;
+                }
+                String relativePath = dir.relativize(fileInfo.getPath()).toString();
+
+                // 行末タイプが確認済みであれば、同じ行末タイプへの変換を省略できる
+                TextTermType srcTermType = fileInfo.getTermType();
+                if (srcTermType == null || !fileInfo.isVerified()) {
+                    srcTermType = TextTermType.UNKNOWN;
+                }
+                try {
+                    if (converter.convert(relativePath, srcEncoding, srcTermType,
+                            fileInfo.getContentHash())) {
+                        converted = true;
+                        Path dest = converter.getDestination(relativePath);
+                        if (dest != null) {
+                            dest = dest.toAbsolutePath().normalize();
+                            if (dest.startsWith(dir.toAbsolutePath().normalize())) {
+                                // 監視しているフォルダへの出力
+                                recentOutputs.add(dest);
+                            }
+                        }
+                        notifyListener(() -> listener.fileConverted(fileInfo));
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("failed to convert: " + relativePath, ex);
+                } finally {
+                    for (Path workFile : converter.takeWorkFiles()) {
+                        recentWorkFiles.add(workFile.toAbsolutePath().normalize());
+                    }
+                }
+            }
+            if (converted) {
+                try {
+                    converter.flush();
+                } catch (IOException ex) {
+                    log.warn("failed to flush: " + dir, ex);
+                }
+            }
+        }
+
+        /**
+         * リスナーを呼び出す.<br>
+         * リスナーの失敗は監視を止めない.<br>
+         *
+         * @param call 呼び出し
+         */
+        private void notifyListener(final Runnable call) {
+            try {
+                call.run();
+            } catch (RuntimeException ex) {
+                log.warn("listener failed: " + ex, ex);
+            }
+        }
+    }
+}
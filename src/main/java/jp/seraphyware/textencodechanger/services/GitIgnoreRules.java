@@ -0,0 +1,244 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * .gitignoreの除外規則.<br>
+ * 以下の書式に対応する.<br>
+ * <ul>
+ * <li>空行と「#」で始まる行は無視する. 「\#」「\!」は文字として扱う.</li>
+ * <li>「!」で始まる規則は、それまでに除外された名前を対象に戻す.</li>
+ * <li>「/」で終わる規則はディレクトリのみに合致する.</li>
+ * <li>途中または先頭に「/」を含む規則は、.gitignoreのあるディレクトリからの相対パスと照合し、
+ * 含まない規則は任意の階層の名前と照合する.</li>
+ * <li>「*」「?」「[...]」と、「**」による任意の階層に対応する.</li>
+ * </ul>
+ * 末尾の空白の「\」によるエスケープなどには対応しない.<br>
+ *
+ * @author seraphy
+ */
+final class GitIgnoreRules {
+
+    /**
+     * .gitignoreのファイル名.
+     */
+    static final String FILE_NAME = ".gitignore";
+
+    /**
+     * 規則のリスト(記述順).
+     */
+    private final List<Rule> rules;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param rules 規則のリスト
+     */
+    private GitIgnoreRules(final List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * ディレクトリにある.gitignoreを読み込む.
+     *
+     * @param dir ディレクトリ
+     * @return 規則、.gitignoreがないか規則がない場合はnull
+     * @throws IOException 読み込みに失敗
+     */
+    static GitIgnoreRules load(final Path dir) throws IOException {
+        Path file = dir.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        GitIgnoreRules rules = parse(text.split("\r?\n|\r"));
+        return rules.rules.isEmpty() ? null : rules;
+    }
+
+    /**
+     * 規則の各行を解析する.
+     *
+     * @param lines 行
+     * @return 規則
+     */
+    static GitIgnoreRules parse(final String... lines) {
+        List<Rule> rules = new ArrayList<>();
+        for (String line : lines) {
+            Rule rule = Rule.parse(line);
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+        return new GitIgnoreRules(rules);
+    }
+
+    /**
+     * 相対パスに合致する最後の規則を判定する.
+     *
+     * @param relativePath .gitignoreのあるディレクトリからの相対パス(「/」区切り)
+     * @param directory ディレクトリであるか？
+     * @return 除外する場合はTRUE、除外しない場合はFALSE、合致する規則がなければnull
+     */
+    Boolean match(final String relativePath, final boolean directory) {
+        for (int idx = rules.size() - 1; idx >= 0; idx--) {
+            Rule rule = rules.get(idx);
+            if (rule.matches(relativePath, directory)) {
+                return !rule.negate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 1行分の規則.
+     */
+    private static final class Rule {
+
+        /**
+         * 除外を取り消す規則であるか？
+         */
+        private final boolean negate;
+
+        /**
+         * ディレクトリのみに合致するか？
+         */
+        private final boolean directoryOnly;
+
+        /**
+         * 相対パスと照合する正規表現.
+         */
+        private final Pattern pattern;
+
+        private Rule(final boolean negate, final boolean directoryOnly,
+                final Pattern pattern) {
+            this.negate = negate;
+            this.directoryOnly = directoryOnly;
+            this.pattern = pattern;
+        }
+
+        /**
+         * 1行を解析する.
+         *
+         * @param line 行
+         * @return 規則、空行やコメントの場合はnull
+         */
+        static Rule parse(final String line) {
+            String text = line;
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) == ' ') {
+                end--;
+            }
+            text = text.substring(0, end);
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+            boolean negate = false;
+            if (text.startsWith("!")) {
+                negate = true;
+                text = text.substring(1);
+            } else if (text.startsWith("\\#") || text.startsWith("\\!")) {
+                text = text.substring(1);
+            }
+            boolean directoryOnly = false;
+            if (text.endsWith("/")) {
+                directoryOnly = true;
+                text = text.substring(0, text.length() - 1);
+            }
+            boolean anchored = text.indexOf('/') >= 0;
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            if (text.isEmpty()) {
+                return null;
+            }
+            String regexp = toRegexp(text);
+            if (!anchored) {
+                // 任意の階層の名前と照合する
+                regexp = "(?:.*/)?" + regexp;
+            }
+            return new Rule(negate, directoryOnly, Pattern.compile(regexp));
+        }
+
+        /**
+         * 相対パスと照合する.
+         *
+         * @param relativePath 相対パス
+         * @param directory ディレクトリであるか？
+         * @return 合致すればtrue
+         */
+        boolean matches(final String relativePath, final boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            return pattern.matcher(relativePath).matches();
+        }
+
+        /**
+         * ワイルドカードを正規表現に変換する.
+         *
+         * @param glob ワイルドカード
+         * @return 正規表現
+         */
+        private static String toRegexp(final String glob) {
+            StringBuilder buf = new StringBuilder();
+            int len = glob.length();
+            int pos = 0;
+            while (pos < len) {
+                char ch = glob.charAt(pos);
+                if (ch == '*') {
+                    boolean segmentStart = pos == 0 || glob.charAt(pos - 1) == '/';
+                    if (pos + 1 < len && glob.charAt(pos + 1) == '*' && segmentStart) {
+                        if (pos + 2 == len) {
+                            // 末尾の「**」は配下のすべて
+                            buf.append(".*");
+                            pos += 2;
+                            continue;
+                        }
+                        if (glob.charAt(pos + 2) == '/') {
+                            // 「**/」は0個以上のディレクトリ
+                            buf.append("(?:.*/)?");
+                            pos += 3;
+                            continue;
+                        }
+                    }
+                    buf.append("[^/]*");
+                    pos++;
+
+                } else if (ch == '?') {
+                    buf.append("[^/]");
+                    pos++;
+
+                } else if (ch == '[') {
+                    int close = glob.indexOf(']', pos + 2);
+                    if (close < 0) {
+                        buf.append("\\[");
+                        pos++;
+                        continue;
+                    }
+                    String body = glob.substring(pos + 1, close);
+                    if (body.startsWith("!")) {
+                        body = "^" + body.substring(1);
+                    }
+                    buf.append('[').append(body.replace("\\", "\\\\")
+                            .replace("[", "\\[")).append(']');
+                    pos = close + 1;
+
+                } else if (ch == '\\' && pos + 1 < len) {
+                    buf.append(Pattern.quote(String.valueOf(glob.charAt(pos + 1))));
+                    pos += 2;
+
+                } else {
+                    buf.append(Pattern.quote(String.valueOf(ch)));
+                    pos++;
+                }
+            }
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 複数のファイル名パターンをまとめて判定するマッチャー.<br>
+ * {@link FileWalkService#makePatterns(String)}で作成した正規表現を
+ * ワイルドカードのパターンに戻し、以下のように分類して判定する.<br>
+ * <ul>
+ * <li>すべてに合致するパターン(「*」)</li>
+ * <li>ワイルドカードを含まない名前(ハッシュによる照合)</li>
+ * <li>拡張子のみのパターン(「*.txt」など、ハッシュによる照合)</li>
+ * <li>その他のワイルドカードを含むパターン(文字単位の照合)</li>
+ * </ul>
+ * それ以外の正規表現は、そのまま正規表現で判定する.<br>
+ * 大文字小文字の区別は、正規表現のCASE_INSENSITIVEと同じくASCIIの範囲のみ無視する.<br>
+ *
+ * @author seraphy
+ */
+final class GlobFileNameMatcher implements FileWalkService.FileNameMatcher {
+
+    /**
+     * パターンの任意の文字列.
+     */
+    private static final char ANY_STRING = '*';
+
+    /**
+     * パターンの任意の一文字.
+     */
+    private static final char ANY_CHAR = '?';
+
+    /**
+     * すべての名前に合致するか？
+     */
+    private boolean matchAll;
+
+    /**
+     * ワイルドカードを含まない名前(小文字).
+     */
+    private final Set<String> names = new HashSet<>();
+
+    /**
+     * 拡張子のみのパターンの拡張子(小文字、ドットを含まない).
+     */
+    private final Set<String> extensions = new HashSet<>();
+
+    /**
+     * その他のワイルドカードを含むパターン(小文字).
+     */
+    private final List<char[]> globs = new ArrayList<>();
+
+    /**
+     * ワイルドカードに戻せない正規表現.
+     */
+    private final List<Pattern> regexps = new ArrayList<>();
+
+    /**
+     * すべての正規表現.
+     * (行末文字やサロゲートペアを含む名前は、正規表現の「.」との違いを避けるため
+     * 正規表現で判定する.)
+     */
+    private final List<Pattern> patterns;
+
+    /**
+     * パターンのリストからマッチャーを作成する.
+     *
+     * @param patterns 正規表現のパターンリスト
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    GlobFileNameMatcher(final List<Pattern> patterns) {
+        this.patterns = new ArrayList<>(patterns);
+        for (Pattern pattern : this.patterns) {
+            String glob = toGlob(pattern);
+            if (glob == null) {
+                regexps.add(pattern);
+            } else {
+                add(toLowerAscii(glob));
+            }
+        }
+    }
+
+    /**
+     * ワイルドカードのパターンを分類して登録する.
+     *
+     * @param glob 小文字にしたパターン
+     */
+    private void add(final String glob) {
+        int wildcard = indexOfWildcard(glob, 0);
+        if (wildcard < 0) {
+            names.add(glob);
+            return;
+        }
+        int pos = 0;
+        while (pos < glob.length() && glob.charAt(pos) == ANY_STRING) {
+            pos++;
+        }
+        if (pos == glob.length()) {
+            matchAll = true;
+            return;
+        }
+        if (pos > 0 && glob.charAt(pos) == '.' && indexOfWildcard(glob, pos) < 0
+                && glob.indexOf('.', pos + 1) < 0) {
+            // 「*.拡張子」の形式
+            extensions.add(glob.substring(pos + 1));
+            return;
+        }
+        globs.add(glob.toCharArray());
+    }
+
+    @Override
+    public boolean match(final Path name) {
+        String str = name.toString();
+        if (requiresRegexp(str)) {
+            return matchRegexps(patterns, str);
+        }
+        if (matchAll) {
+            return true;
+        }
+        if (!extensions.isEmpty()) {
+            int dot = str.lastIndexOf('.');
+            if (dot >= 0 && extensions.contains(toLowerAscii(str.substring(dot + 1)))) {
+                return true;
+            }
+        }
+        if (!names.isEmpty() && names.contains(toLowerAscii(str))) {
+            return true;
+        }
+        for (char[] glob : globs) {
+            if (matchGlob(glob, str)) {
+                return true;
+            }
+        }
+        return matchRegexps(regexps, str);
+    }
+
+    /**
+     * 正規表現のいずれかに合致するか判定する.
+     *
+     * @param list 正規表現のリスト
+     * @param str 名前
+     * @return 合致すればtrue
+     */
+    private static boolean matchRegexps(final List<Pattern> list, final String str) {
+        for (Pattern regexp : list) {
+            if (regexp.matcher(str).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ワイルドカードのパターンと名前を照合する.<br>
+     * 最後に現れた「*」の位置から再試行するため、バックトラックは線形に抑えられる.<br>
+     *
+     * @param glob 小文字にしたパターン
+     * @param str 名前
+     * @return 合致すればtrue
+     */
+    private static boolean matchGlob(final char[] glob, final String str) {
+        int gpos = 0;
+        int spos = 0;
+        int starGpos = -1;
+        int starSpos = 0;
+        int len = str.length();
+        while (spos < len) {
+            if (gpos < glob.length) {
+                char g = glob[gpos];
+                if (g == ANY_STRING) {
+                    starGpos = gpos++;
+                    starSpos = spos;
+                    continue;
+                }
+                if (g == ANY_CHAR || g == toLowerAscii(str.charAt(spos))) {
+                    gpos++;
+                    spos++;
+                    continue;
+                }
+            }
+            if (starGpos < 0) {
+                return false;
+            }
+            // 直前の「*」に一文字多く割り当てて再試行する
+            gpos = starGpos + 1;
+            spos = ++starSpos;
+        }
+        while (gpos < glob.length && glob[gpos] == ANY_STRING) {
+            gpos++;
+        }
+        return gpos == glob.length;
+    }
+
+    /**
+     * makePatternsで作成した正規表現をワイルドカードのパターンに戻す.<br>
+     * 「\.」「.*」「.」以外の正規表現の記号を含む場合や、
+     * 大文字小文字を無視する指定以外のフラグがある場合は戻せない.<br>
+     *
+     * @param pattern 正規表現
+     * @return ワイルドカードのパターン、戻せない場合はnull
+     */
+    static String toGlob(final Pattern pattern) {
+        if (pattern.flags() != Pattern.CASE_INSENSITIVE) {
+            return null;
+        }
+        String regexp = pattern.pattern();
+        if (regexp.length() < 2 || regexp.charAt(0) != '^'
+                || regexp.charAt(regexp.length() - 1) != '$') {
+            return null;
+        }
+        StringBuilder glob = new StringBuilder();
+        int end = regexp.length() - 1;
+        int pos = 1;
+        while (pos < end) {
+            char ch = regexp.charAt(pos);
+            if (ch == '\\') {
+                if (pos + 1 < end && regexp.charAt(pos + 1) == '.') {
+                    glob.append('.');
+                    pos += 2;
+                    continue;
+                }
+                return null;
+            }
+            if (ch == '.') {
+                if (pos + 1 < end && regexp.charAt(pos + 1) == '*') {
+                    glob.append(ANY_STRING);
+                    pos += 2;
+                } else {
+                    glob.append(ANY_CHAR);
+                    pos++;
+                }
+                continue;
+            }
+            if ("[](){}*+?|^$".indexOf(ch) >= 0 || isLineTerminator(ch)) {
+                // 正規表現の記号、もしくは「.」が合致しない文字
+                return null;
+            }
+            glob.append(ch);
+            pos++;
+        }
+        return glob.toString();
+    }
+
+    /**
+     * 最初のワイルドカードの位置を返す.
+     *
+     * @param glob パターン
+     * @param from 検索開始位置
+     * @return 位置、なければ-1
+     */
+    private static int indexOfWildcard(final String glob, final int from) {
+        for (int idx = from; idx < glob.length(); idx++) {
+            char ch = glob.charAt(idx);
+            if (ch == ANY_STRING || ch == ANY_CHAR) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 正規表現の「.」が合致しない行末文字、もしくは「.」が2文字分に合致する
+     * サロゲートペアを含むか？
+     *
+     * @param str 文字列
+     * @return 含めばtrue
+     */
+    private static boolean requiresRegexp(final String str) {
+        for (int idx = 0; idx < str.length(); idx++) {
+            char ch = str.charAt(idx);
+            if (isLineTerminator(ch) || Character.isSurrogate(ch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 正規表現の「.」が合致しない行末文字であるか？
+     *
+     * @param ch 文字
+     * @return 行末文字であればtrue
+     */
+    private static boolean isLineTerminator(final char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u0085'
+                || ch == '\u2028' || ch == '\u2029';
+    }
+
+    /**
+     * ASCIIの大文字のみを小文字にする.
+     *
+     * @param ch 文字
+     * @return 小文字
+     */
+    private static char toLowerAscii(final char ch) {
+        if (ch >= 'A' && ch <= 'Z') {
+            return (char) (ch + ('a' - 'A'));
+        }
+        return ch;
+    }
+
+    /**
+     * ASCIIの大文字のみを小文字にする.<br>
+     * 大文字を含まない場合は、同じ文字列を返す.<br>
+     *
+     * @param str 文字列
+     * @return 小文字にした文字列
+     */
+    private static String toLowerAscii(final String str) {
+        int len = str.length();
+        int idx = 0;
+        while (idx < len) {
+            char ch = str.charAt(idx);
+            if (ch >= 'A' && ch <= 'Z') {
+                break;
+            }
+            idx++;
+        }
+        if (idx == len) {
+            return str;
+        }
+        char[] buf = str.toCharArray();
+        for (; idx < len; idx++) {
+            buf[idx] = toLowerAscii(buf[idx]);
+        }
+        return new String(buf);
+    }
+}
@@ -0,0 +1,384 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PostConstruct;
+import jp.seraphyware.textencodechanger.services.FileWalkService.FileInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * ファイルの解析結果のキャッシュ.<br>
+ * ファイルの絶対パスごとに、サイズと最終更新日時、解析の設定が一致する場合に限り
+ * 前回の解析結果を返す.<br>
+ * キャッシュはタブ区切りのテキストファイルとして保存され、次回の起動時に読み込まれる.<br>
+ *
+ * @author seraphy
+ */
+@Component
+public class ScanResultCache {
+
+    /**
+     * ロガー.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ScanResultCache.class);
+
+    /**
+     * キャッシュファイルの先頭行(形式が変わった場合は読み込まない).
+     */
+    private static final String HEADER = "#TextReEncoder scan cache 4";
+
+    /**
+     * キャッシュを使用するか？
+     */
+    @Value("${textreencoder.scan.cache.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * キャッシュファイルのパス.
+     */
+    @Value("${textreencoder.scan.cache.file:${user.home}/.textreencoder/scan-cache.tsv}")
+    private String cacheFile;
+
+    /**
+     * 保存するエントリの上限.
+     * 超過した場合は、今回の起動中に参照されなかったエントリを破棄する.
+     */
+    @Value("${textreencoder.scan.cache.maxEntries:200000}")
+    private int maxEntries;
+
+    /**
+     * 絶対パスごとのエントリ.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 保存されていない変更があるか？
+     */
+    private volatile boolean modified;
+
+    /**
+     * キャッシュのエントリ.
+     */
+    private static final class Entry {
+
+        /**
+         * ファイルサイズ.
+         */
+        final long size;
+
+        /**
+         * 最終更新日時(エポックミリ秒).
+         */
+        final long lastModified;
+
+        /**
+         * 文字コード、不明ならnull.
+         */
+        final EncodingType encoding;
+
+        /**
+         * 行末タイプ.
+         */
+        final TextTermType termType;
+
+        /**
+         * ファイル全体で確認された推定であるか？
+         */
+        final boolean verified;
+
+        /**
+         * バイナリファイルであるか？
+         */
+        final boolean binary;
+
+        /**
+         * 内容のハッシュ、求めていない場合はnull.
+         */
+        final String contentHash;
+
+        /**
+         * 解析したときの設定.
+         */
+        final String settings;
+
+        /**
+         * 今回の起動中に参照または登録されたか？
+         */
+        volatile boolean used;
+
+        Entry(long size, long lastModified, EncodingType encoding,
+                TextTermType termType, boolean verified, boolean binary,
+                String contentHash, String settings) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.encoding = encoding;
+            this.termType = termType;
+            this.verified = verified;
+            this.binary = binary;
+            this.contentHash = contentHash;
+            this.settings = settings;
+        }
+    }
+
+    /**
+     * 初期化.
+     */
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            load();
+        }
+    }
+
+    /**
+     * キャッシュを使用するか？
+     *
+     * @return 使用する場合はtrue
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * キャッシュを使用するか設定する.
+     *
+     * @param enabled 使用する場合はtrue
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * キャッシュファイルのパスを取得する.
+     *
+     * @return キャッシュファイルのパス
+     */
+    public String getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * キャッシュファイルのパスを設定する.
+     * 設定後に{@link #load()}で読み込みなおすこと.
+     *
+     * @param cacheFile キャッシュファイルのパス
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public void setCacheFile(final String cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * ファイルのサイズと最終更新日時が前回の解析時と一致すれば、その解析結果を返す.<br>
+     * 解析の設定が異なるエントリは、破棄してnullを返す.<br>
+     *
+     * @param filePath ファイルのパス
+     * @param attrs ファイルの属性
+     * @param requireVerified ファイル全体で確認された推定結果に限るか？
+     * @param settings 解析の設定(解析結果に影響する設定を表す文字列)
+     * @return 解析結果、キャッシュにない場合はnull
+     */
+    public FileInfo get(final Path filePath, final BasicFileAttributes attrs,
+            final boolean requireVerified, final String settings) {
+        Objects.requireNonNull(filePath);
+        Objects.requireNonNull(attrs);
+        Objects.requireNonNull(settings);
+        if (!enabled) {
+            return null;
+        }
+        String key = toKey(filePath);
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.settings.equals(settings)) {
+            // 設定が変わった後の解析結果とはみなさない
+            entries.remove(key, entry);
+            modified = true;
+            return null;
+        }
+        if (entry == null || entry.size != attrs.size()
+                || entry.lastModified != attrs.lastModifiedTime().toMillis()
+                || (requireVerified && !entry.verified)) {
+            return null;
+        }
+        entry.used = true;
+        return new FileInfo(filePath, entry.encoding, entry.termType,
+                entry.verified, entry.binary, -1, null)
+                .withContentHash(entry.contentHash);
+    }
+
+    /**
+     * 解析結果を登録する.
+     *
+     * @param fileInfo 解析結果
+     * @param attrs 解析時のファイルの属性
+     * @param settings 解析の設定(解析結果に影響する設定を表す文字列)
+     */
+    public void put(final FileInfo fileInfo, final BasicFileAttributes attrs,
+            final String settings) {
+        Objects.requireNonNull(fileInfo);
+        Objects.requireNonNull(attrs);
+        Objects.requireNonNull(settings);
+        if (!enabled) {
+            return;
+        }
+        String key = toKey(fileInfo.getPath());
+        if (!isStorable(key) || !isStorable(settings)) {
+            // 保存形式で表現できないパスや設定はキャッシュしない
+            return;
+        }
+        Entry entry = new Entry(attrs.size(),
+                attrs.lastModifiedTime().toMillis(), fileInfo.getEncoding(),
+                fileInfo.getTermType(), fileInfo.isVerified(),
+                fileInfo.isBinary(), fileInfo.getContentHash(), settings);
+        entry.used = true;
+        entries.put(key, entry);
+        modified = true;
+    }
+
+    /**
+     * キャッシュファイルを読み込む.<br>
+     * 読み込めない場合は空のキャッシュとする.<br>
+     */
+    public void load() {
+        entries.clear();
+        modified = false;
+        Path path = Paths.get(cacheFile);
+        try (BufferedReader rd = Files.newBufferedReader(path,
+                StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(rd.readLine())) {
+                log.info("ignore scan cache: " + path);
+                return;
+            }
+            String line;
+            while ((line = rd.readLine()) != null) {
+                String[] cols = line.split("\t", -1);
+                if (cols.length != 9) {
+                    continue;
+                }
+                try {
+                    EncodingType encoding = cols[3].isEmpty() ? null
+                            : EncodingType.valueOf(cols[3]);
+                    entries.put(cols[0], new Entry(
+                            Long.parseLong(cols[1]),
+                            Long.parseLong(cols[2]),
+                            encoding,
+                            TextTermType.valueOf(cols[4]),
+                            Boolean.parseBoolean(cols[5]),
+                            Boolean.parseBoolean(cols[6]),
+                            cols[7].isEmpty() ? null : cols[7],
+                            cols[8]));
+                } catch (IllegalArgumentException ex) {
+                    // 不正な行は無視する
+                    log.debug("invalid scan cache entry: " + line);
+                }
+            }
+            log.info("load scan cache: " + path + " (" + entries.size() + ")");
+
+        } catch (NoSuchFileException ex) {
+            // 初回
+            log.debug("no scan cache: " + path);
+
+        } catch (IOException ex) {
+            log.warn("can't load scan cache: " + path, ex);
+            entries.clear();
+        }
+    }
+
+    /**
+     * 変更があればキャッシュファイルに保存する.<br>
+     * 一時ファイルに書き込んでから置き換えるため、
+     * 保存に失敗しても既存のキャッシュファイルは壊れない.<br>
+     * 保存に失敗した場合はログに記録して無視する.<br>
+     */
+    public void save() {
+        if (!enabled || !modified) {
+            return;
+        }
+        modified = false;
+        if (entries.size() > maxEntries) {
+            entries.values().removeIf(entry -> !entry.used);
+        }
+
+        Path path = Paths.get(cacheFile).toAbsolutePath();
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(),
+                    path.getFileName().toString() + ".", ".tmp");
+            try {
+                try (BufferedWriter wr = Files.newBufferedWriter(temp,
+                        StandardCharsets.UTF_8)) {
+                    wr.write(HEADER);
+                    wr.write('\n');
+                    for (Map.Entry<String, Entry> kv : entries.entrySet()) {
+                        Entry entry = kv.getValue();
+                        wr.write(kv.getKey());
+                        wr.write('\t');
+                        wr.write(Long.toString(entry.size));
+                        wr.write('\t');
+                        wr.write(Long.toString(entry.lastModified));
+                        wr.write('\t');
+                        if (entry.encoding != null) {
+                            wr.write(entry.encoding.name());
+                        }
+                        wr.write('\t');
+                        wr.write(entry.termType.name());
+                        wr.write('\t');
+                        wr.write(Boolean.toString(entry.verified));
+                        wr.write('\t');
+                        wr.write(Boolean.toString(entry.binary));
+                        wr.write('\t');
+                        if (entry.contentHash != null) {
+                            wr.write(entry.contentHash);
+                        }
+                        wr.write('\t');
+                        wr.write(entry.settings);
+                        wr.write('\n');
+                    }
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            log.info("save scan cache: " + path + " (" + entries.size() + ")");
+
+        } catch (IOException ex) {
+            modified = true;
+            log.warn("can't save scan cache: " + path, ex);
+        }
+    }
+
+    /**
+     * 保存形式で表現できる文字列であるか？
+     *
+     * @param value 文字列
+     * @return タブと改行を含まなければtrue
+     */
+    private static boolean isStorable(final String value) {
+        return value.indexOf('\t') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0;
+    }
+
+    /**
+     * キャッシュのキーとなる絶対パスを返す.
+     *
+     * @param filePath ファイルのパス
+     * @return キー
+     */
+    private static String toKey(final Path filePath) {
+        return filePath.toAbsolutePath().normalize().toString();
+    }
+}
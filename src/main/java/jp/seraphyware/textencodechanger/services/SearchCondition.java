@@ -25,6 +25,10 @@ public class SearchCondition {
      * ファイル名パターン.
      */
     private final SimpleStringProperty patternProperty = new SimpleStringProperty(this, "pattern");
+    /**
+     * 除外するファイル名とディレクトリ名のパターン.
+     */
+    private final SimpleStringProperty excludeProperty = new SimpleStringProperty(this, "exclude");
 
     /**
      * 指定したインスタンスに内容をコピーする
@@ -35,6 +39,7 @@ public class SearchCondition {
         output.inputProerty().set(inputProerty.get());
         output.recursiveProperty().set(recursiveProperty.get());
         output.patternProperty().set(patternProperty.get());
+        output.excludeProperty().set(excludeProperty.get());
     }
 
     /**
@@ -60,5 +65,13 @@ public class SearchCondition {
     public StringProperty patternProperty() {
         return patternProperty;
     }
+
+    /**
+     * 除外するファイル名とディレクトリ名のパターン.
+     * @return 除外するパターン
+     */
+    public StringProperty excludeProperty() {
+        return excludeProperty;
+    }
     
 }
@@ -0,0 +1,25 @@
+package jp.seraphyware.textencodechanger.services;
+
+/**
+ * 変換したファイルをストレージに同期するモード
+ * 
+ * @author seraphy
+ */
+public enum SyncMode {
+
+    /**
+     * 同期しない(OSに任せる)
+     */
+    NONE,
+
+    /**
+     * ファイルごとに、置き換える前に内容を同期し、置き換えた後にディレクトリを同期する
+     */
+    FILE,
+
+    /**
+     * ファイルごとに、置き換える前に内容を同期し、
+     * ディレクトリの同期は一連の変換の終了時にまとめて行う
+     */
+    BATCH
+}
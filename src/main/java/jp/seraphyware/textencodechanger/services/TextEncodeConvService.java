@@ -3,10 +3,12 @@ package jp.seraphyware.textencodechanger.services;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -29,6 +31,16 @@ public class TextEncodeConvService {
      */
     private static final Logger log = LoggerFactory.getLogger(TextEncodeConvService.class);
 
+    /**
+     * チャネルから逐次読み込む場合のバッファサイズ.
+     */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 逐次変換の出力に用いる文字バッファの最小サイズ.
+     */
+    private static final int MIN_CHAR_BUFFER_SIZE = 16;
+
     /**
      * 文字コード一覧
      */
@@ -52,6 +64,22 @@ public class TextEncodeConvService {
                 return ret;
             }).collect(Collectors.toList());
 
+    /**
+     * 逐次読み込んだテキストを受け取る.
+     */
+    @FunctionalInterface
+    public interface TextReceiver {
+
+        /**
+         * 読み込んだテキストを受け取る.<br>
+         * バッファの残りすべてを処理すること.<br>
+         *
+         * @param text テキスト
+         * @throws IOException 失敗
+         */
+        void accept(CharBuffer text) throws IOException;
+    }
+
     /**
      * 文字コード一覧を返す.
      *
@@ -82,29 +110,222 @@ public class TextEncodeConvService {
     ) throws IOException {
         Objects.requireNonNull(byteBuf);
 
-        EncodingType encodingOk = null;
-        for (EncodingType enc : getCheckEncodingOrder()) {
-            Charset cs = enc.getCharset();
-            CharsetDecoder dec = cs.newDecoder();
-            dec.onUnmappableCharacter(CodingErrorAction.REPORT);
-            dec.onMalformedInput(CodingErrorAction.REPORT);
-
-            // 再読み込みのために位置を巻き戻す
-            byteBuf.rewind();
-            
-            // エンコード可能か検証する
-            if (enc.checkEncodable(byteBuf)) {
-                encodingOk = enc;
-                break;
-
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("coding error: " + enc);
+        // 全候補を一度の走査で判定する
+        EncodingType encodingOk = EncodingDetector.detect(
+                byteBuf, getCheckEncodingOrder());
+        if (log.isDebugEnabled()) {
+            log.debug("-" + encodingOk);
+        }
+        return encodingOk;
+    }
+
+    /**
+     * チャネルから終端まで逐次読み込み、文字コードを推定する.<br>
+     * ファイル全体をメモリに読み込まずに、一括して推定した場合と同じ結果を返す.<br>
+     * 不明な場合はnullを返す.<br>
+     *
+     * @param ch 読み込むチャネル
+     * @return 文字コード
+     * @throws IOException 失敗
+     */
+    public EncodingType presumeEncoding(
+            final ReadableByteChannel ch
+    ) throws IOException {
+        Objects.requireNonNull(ch);
+
+        EncodingDetector detector = new EncodingDetector();
+        ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        while (detector.isAnyAlive() && ch.read(buf) >= 0) {
+            buf.flip();
+            detector.feed(buf);
+            buf.clear();
+        }
+        EncodingType encodingOk = detector.select(getCheckEncodingOrder(), true);
+        if (log.isDebugEnabled()) {
+            log.debug("-" + encodingOk);
+        }
+        return encodingOk;
+    }
+
+    /**
+     * 文字コードと行末タイプの推定結果.
+     */
+    public static final class PresumeResult {
+
+        /**
+         * 文字コード、不明な場合はnull.
+         */
+        private final EncodingType encoding;
+
+        /**
+         * 行末タイプ.
+         */
+        private final TextTermType termType;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param encoding 文字コード、不明な場合はnull
+         * @param termType 行末タイプ
+         */
+        @SuppressWarnings("checkstyle:hiddenfield")
+        PresumeResult(final EncodingType encoding, final TextTermType termType) {
+            this.encoding = encoding;
+            this.termType = Objects.requireNonNull(termType);
+        }
+
+        /**
+         * 文字コードを取得する.
+         *
+         * @return 文字コード、不明な場合はnull
+         */
+        public EncodingType getEncoding() {
+            return encoding;
+        }
+
+        /**
+         * 行末タイプを取得する.<br>
+         * 文字コードが不明な場合はUNKNOWNとなる.<br>
+         *
+         * @return 行末タイプ
+         */
+        public TextTermType getTermType() {
+            return termType;
+        }
+
+        @Override
+        public String toString() {
+            return encoding + "/" + termType;
+        }
+    }
+
+    /**
+     * 指定したバイトバッファ内の文字コードと行末タイプを推定する.<br>
+     * 文字コードを判定する一度の走査の中で行末も数えるため、
+     * 推定した文字コードでテキストを読み込みなおさずに行末タイプが得られる.
+     * (推定した文字コードで読み込んだテキストの行末を数えた場合と同じ結果となる.)<br>
+     *
+     * @param byteBuf バイトバッファ(位置は変更されない)
+     * @return 推定結果
+     */
+    public PresumeResult presumeEncodingAndTermType(final ByteBuffer byteBuf) {
+        Objects.requireNonNull(byteBuf);
+
+        ByteBuffer src = byteBuf.duplicate();
+        src.rewind();
+        EncodingDetector detector = new EncodingDetector(true);
+        detector.feed(src);
+        EncodingType encodingOk = detector.select(getCheckEncodingOrder(), true);
+        PresumeResult result = new PresumeResult(encodingOk,
+                detector.getTermType(encodingOk, true));
+        if (log.isDebugEnabled()) {
+            log.debug("-" + result);
+        }
+        return result;
+    }
+
+    /**
+     * チャネルから終端まで逐次読み込み、文字コードと行末タイプを推定する.<br>
+     * ファイル全体をメモリに読み込まずに、一度の走査で推定する.<br>
+     *
+     * @param ch 読み込むチャネル
+     * @return 推定結果
+     * @throws IOException 失敗
+     */
+    public PresumeResult presumeEncodingAndTermType(
+            final ReadableByteChannel ch
+    ) throws IOException {
+        Objects.requireNonNull(ch);
+
+        EncodingDetector detector = new EncodingDetector(true);
+        ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        while (detector.isAnyAlive() && ch.read(buf) >= 0) {
+            buf.flip();
+            detector.feed(buf);
+            buf.clear();
+        }
+        EncodingType encodingOk = detector.select(getCheckEncodingOrder(), true);
+        PresumeResult result = new PresumeResult(encodingOk,
+                detector.getTermType(encodingOk, true));
+        if (log.isDebugEnabled()) {
+            log.debug("-" + result);
+        }
+        return result;
+    }
+
+    /**
+     * ファイルの先頭部分と、途中から抜き出した部分から文字コードを推定する.<br>
+     * 先頭部分の末尾で文字が途切れていても不適合とはしない.<br>
+     * 以下の場合は判別できないものとしてnullを返すので、
+     * ファイル全体で推定しなおすこと.<br>
+     * <ul>
+     * <li>先頭部分に適合する文字コードがない</li>
+     * <li>BOMのないUTF-16LE/BEしか適合しない</li>
+     * <li>先頭部分がASCIIだけで、抜き出した部分に0x80以上のバイトがある</li>
+     * <li>抜き出した部分が、先頭部分で推定した文字コードに適合しない</li>
+     * </ul>
+     * 抜き出した部分は途中の文字から始まりうるため、最初の改行の次から評価する.<br>
+     * (ASCII互換の文字コードでは改行が複数バイト文字の一部になることはない.)<br>
+     *
+     * @param prefix ファイルの先頭部分
+     * @param samples ファイルの途中から抜き出した部分のリスト
+     * @return 文字コード、判別できない場合はnull
+     */
+    public EncodingType sniffEncoding(
+            final ByteBuffer prefix,
+            final List<ByteBuffer> samples
+    ) {
+        Objects.requireNonNull(prefix);
+        Objects.requireNonNull(samples);
+
+        ByteBuffer src = prefix.duplicate();
+        src.rewind();
+        EncodingDetector detector = new EncodingDetector();
+        detector.feed(src);
+        EncodingType encodingOk = detector.select(getCheckEncodingOrder(), false);
+        if (encodingOk == null || encodingOk == EncodingType.UTF16_LE
+                || encodingOk == EncodingType.UTF16_BE) {
+            return null;
+        }
+        if (encodingOk == EncodingType.UTF16_BOM_LE
+                || encodingOk == EncodingType.UTF16_BOM_BE) {
+            // BOMによって確定している
+            return encodingOk;
+        }
+
+        // BOMの有無は先頭で判定済みなので、本体の文字コードで照合する
+        EncodingType base = (encodingOk == EncodingType.UTF8_BOM)
+                ? EncodingType.UTF8 : encodingOk;
+        for (ByteBuffer sample : samples) {
+            ByteBuffer body = sample.duplicate();
+            body.rewind();
+            int start = -1;
+            for (int idx = 0; idx < body.limit(); idx++) {
+                if (body.get(idx) == '\n') {
+                    start = idx + 1;
+                    break;
+                }
+            }
+            EncodingDetector sampleDetector = new EncodingDetector();
+            if (start < 0) {
+                // 改行がなく同期できない場合は、ASCIIだけなら評価を省略する
+                sampleDetector.feed(body);
+                if (sampleDetector.hasNonAscii()) {
+                    return null;
                 }
+                continue;
+            }
+            body.position(start);
+            sampleDetector.feed(body);
+            if (!detector.hasNonAscii() && sampleDetector.hasNonAscii()) {
+                return null;
+            }
+            if (!sampleDetector.getCandidates(false)[base.ordinal()]) {
+                return null;
             }
         }
         if (log.isDebugEnabled()) {
-            log.debug("-" + encodingOk);
+            log.debug("-" + encodingOk + " (sniffed)");
         }
         return encodingOk;
     }
@@ -127,6 +348,177 @@ public class TextEncodeConvService {
         return srcEncoding.decode(byteBuf);
     }
     
+    /**
+     * ファイルの先頭部分のテキストを読み込む.<br>
+     * 末尾で途切れている文字は読み込まずに無視する.<br>
+     *
+     * @param byteBuf バイトデータ(リワインドされる)
+     * @param srcEncoding 文字コード
+     * @return 変換されたテキスト
+     * @throws CharacterCodingException 読み込みに失敗
+     */
+    public CharBuffer readPartialText(
+            final ByteBuffer byteBuf,
+            final EncodingType srcEncoding
+    ) throws CharacterCodingException {
+        Objects.requireNonNull(byteBuf);
+        Objects.requireNonNull(srcEncoding);
+
+        byteBuf.rewind();
+        if (!srcEncoding.checkBOM(byteBuf)) {
+            // BOMの不一致
+            throw new CharacterCodingException();
+        }
+        CharsetDecoder dec = srcEncoding.acquireDecoder();
+        try {
+            CharBuffer charBuf = CharBuffer.allocate(byteBuf.remaining());
+            CoderResult cr = dec.decode(byteBuf, charBuf, false);
+            if (cr.isError()) {
+                cr.throwException();
+            }
+            charBuf.flip();
+            return charBuf;
+        } finally {
+            srcEncoding.releaseDecoder(dec);
+        }
+    }
+
+    /**
+     * チャネルから終端まで逐次テキストを読み込み、読み込んだ順にreceiverに通知する.<br>
+     * 通知される文字バッファは再利用されるため、受け取り側で保持してはならない.<br>
+     *
+     * @param ch 読み込むチャネル
+     * @param srcEncoding 文字コード
+     * @param receiver 読み込んだテキストの受け取り
+     * @throws CharacterCodingException 読み込みに失敗
+     * @throws IOException 失敗
+     */
+    public void readText(
+            final ReadableByteChannel ch,
+            final EncodingType srcEncoding,
+            final TextReceiver receiver
+    ) throws IOException {
+        Objects.requireNonNull(ch);
+        Objects.requireNonNull(srcEncoding);
+        Objects.requireNonNull(receiver);
+
+        ByteBuffer in = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        CharBuffer out = CharBuffer.allocate(STREAM_BUFFER_SIZE);
+        CharsetDecoder dec = srcEncoding.acquireDecoder();
+        try {
+            boolean first = true;
+            boolean eof = false;
+            while (!eof) {
+                eof = ch.read(in) < 0;
+                in.flip();
+                if (first) {
+                    if (!eof && in.remaining() < srcEncoding.getBOMLength()) {
+                        // BOMの判定に足りるまで読み込む
+                        in.compact();
+                        continue;
+                    }
+                    first = false;
+                    if (!srcEncoding.checkBOM(in)) {
+                        // BOMの不一致
+                        throw new CharacterCodingException();
+                    }
+                }
+                decode(dec, in, out, eof, receiver);
+                in.compact();
+            }
+            flush(dec, out, receiver);
+        } finally {
+            srcEncoding.releaseDecoder(dec);
+        }
+    }
+
+    /**
+     * バイトデータ全体を逐次テキストに変換し、変換した順にreceiverに通知する.<br>
+     * 全体の文字バッファを作らないため、メモリマップしたファイルのような大きなデータでも
+     * 使用メモリは一定となる.<br>
+     * 通知される文字バッファは再利用されるため、受け取り側で保持してはならない.<br>
+     *
+     * @param byteBuf バイトデータ(リワインドされる)
+     * @param srcEncoding 文字コード
+     * @param receiver 変換したテキストの受け取り
+     * @throws CharacterCodingException 読み込みに失敗
+     * @throws IOException 失敗
+     */
+    public void readText(
+            final ByteBuffer byteBuf,
+            final EncodingType srcEncoding,
+            final TextReceiver receiver
+    ) throws IOException {
+        Objects.requireNonNull(byteBuf);
+        Objects.requireNonNull(srcEncoding);
+        Objects.requireNonNull(receiver);
+
+        byteBuf.rewind();
+        if (!srcEncoding.checkBOM(byteBuf)) {
+            // BOMの不一致
+            throw new CharacterCodingException();
+        }
+        CharsetDecoder dec = srcEncoding.acquireDecoder();
+        try {
+            // 小さなデータでは変換後の最大の長さまでに抑える
+            // (サロゲートペアを出力できるよう最小限の長さは確保する)
+            int capacity = (int) Math.min(STREAM_BUFFER_SIZE,
+                    (long) Math.ceil(byteBuf.remaining() * (double) dec.maxCharsPerByte()));
+            CharBuffer out = CharBuffer.allocate(Math.max(MIN_CHAR_BUFFER_SIZE, capacity));
+            decode(dec, byteBuf, out, true, receiver);
+            flush(dec, out, receiver);
+        } finally {
+            srcEncoding.releaseDecoder(dec);
+        }
+    }
+
+    /**
+     * 入力を可能な限り変換し、出力バッファが満杯になるごとにreceiverに通知する.
+     *
+     * @param dec デコーダ
+     * @param in 入力
+     * @param out 出力バッファ(空であること)
+     * @param endOfInput 入力の終わりであるか？
+     * @param receiver 変換したテキストの受け取り
+     * @throws IOException 失敗
+     */
+    private static void decode(final CharsetDecoder dec, final ByteBuffer in,
+            final CharBuffer out, final boolean endOfInput,
+            final TextReceiver receiver) throws IOException {
+        CoderResult cr;
+        do {
+            cr = dec.decode(in, out, endOfInput);
+            if (cr.isError()) {
+                cr.throwException();
+            }
+            out.flip();
+            if (out.hasRemaining()) {
+                receiver.accept(out);
+            }
+            out.clear();
+        } while (cr.isOverflow());
+    }
+
+    /**
+     * デコーダに残っている出力をreceiverに通知する.
+     *
+     * @param dec デコーダ
+     * @param out 出力バッファ(空であること)
+     * @param receiver 変換したテキストの受け取り
+     * @throws IOException 失敗
+     */
+    private static void flush(final CharsetDecoder dec, final CharBuffer out,
+            final TextReceiver receiver) throws IOException {
+        CoderResult cr = dec.flush(out);
+        if (cr.isError()) {
+            cr.throwException();
+        }
+        out.flip();
+        if (out.hasRemaining()) {
+            receiver.accept(out);
+        }
+    }
+
     /**
      * テキストの書き込み
      * @param charBuf 書き込むテキスト
@@ -144,6 +536,161 @@ public class TextEncodeConvService {
         return destEncoding.encode(charBuf);
     }
 
+    /**
+     * チャネルに指定した文字コードでテキストを逐次書き込むライターを作成する.<br>
+     * 必要であれば、最初の書き込みの前にBOMが書き込まれる.<br>
+     *
+     * @param ch 書き込み先のチャネル
+     * @param destEncoding 文字コード
+     * @return ライター
+     */
+    public TextWriter createTextWriter(
+            final WritableByteChannel ch,
+            final EncodingType destEncoding
+    ) {
+        Objects.requireNonNull(ch);
+        Objects.requireNonNull(destEncoding);
+        return new TextWriter(ch, destEncoding);
+    }
+
+    /**
+     * チャネルに指定した文字コードでテキストを逐次書き込むライター.<br>
+     * 書き込むテキストの区切りでサロゲートペアが分かれていても正しく変換する.<br>
+     * 最後に{@link #finish()}を呼び出すこと. (チャネルは閉じない.)<br>
+     */
+    public static final class TextWriter {
+
+        /**
+         * 書き込み先のチャネル.
+         */
+        private final WritableByteChannel ch;
+
+        /**
+         * 文字コード.
+         */
+        private final EncodingType destEncoding;
+
+        /**
+         * エンコーダ.
+         */
+        private final CharsetEncoder enc;
+
+        /**
+         * 変換待ちのテキスト.
+         */
+        private final CharBuffer in = CharBuffer.allocate(STREAM_BUFFER_SIZE);
+
+        /**
+         * 書き込み待ちのバイト列.
+         */
+        private final ByteBuffer out = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+
+        /**
+         * BOMを書き込み済みであるか？
+         */
+        private boolean started;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param ch 書き込み先のチャネル
+         * @param destEncoding 文字コード
+         */
+        private TextWriter(final WritableByteChannel ch,
+                final EncodingType destEncoding) {
+            this.ch = ch;
+            this.destEncoding = destEncoding;
+            this.enc = destEncoding.acquireEncoder();
+        }
+
+        /**
+         * テキストの続きを書き込む.<br>
+         * バッファの残りすべてを読み取り、位置はリミットまで進む.<br>
+         *
+         * @param text テキスト
+         * @throws CharacterCodingException 変換に失敗
+         * @throws IOException 書き込みに失敗
+         */
+        public void write(final CharBuffer text) throws IOException {
+            Objects.requireNonNull(text);
+            start();
+            while (text.hasRemaining()) {
+                int len = Math.min(in.remaining(), text.remaining());
+                CharBuffer part = text.duplicate();
+                part.limit(part.position() + len);
+                in.put(part);
+                text.position(text.position() + len);
+                in.flip();
+                encode(false);
+                // サロゲートペアの片割れは次の書き込みまで残す
+                in.compact();
+            }
+        }
+
+        /**
+         * 残りのテキストを変換して書き込み、書き込みを完了する.
+         *
+         * @throws CharacterCodingException 変換に失敗
+         * @throws IOException 書き込みに失敗
+         */
+        public void finish() throws IOException {
+            start();
+            in.flip();
+            encode(true);
+            CoderResult cr = enc.flush(out);
+            if (cr.isError()) {
+                cr.throwException();
+            }
+            drain();
+            // 完了した場合のみ再利用に戻す
+            destEncoding.releaseEncoder(enc);
+        }
+
+        /**
+         * 最初の書き込みであれば、必要に応じてBOMを書き込む.
+         */
+        private void start() {
+            if (!started) {
+                started = true;
+                if (destEncoding.getBOMLength() > 0) {
+                    out.put(destEncoding.getBOM());
+                }
+            }
+        }
+
+        /**
+         * 変換待ちのテキストを変換して書き込む.
+         *
+         * @param endOfInput 入力の終端であるか？
+         * @throws IOException 失敗
+         */
+        private void encode(final boolean endOfInput) throws IOException {
+            CoderResult cr;
+            do {
+                cr = enc.encode(in, out, endOfInput);
+                if (cr.isError()) {
+                    cr.throwException();
+                }
+                if (cr.isOverflow()) {
+                    drain();
+                }
+            } while (cr.isOverflow());
+        }
+
+        /**
+         * 書き込み待ちのバイト列をチャネルに書き込む.
+         *
+         * @throws IOException 失敗
+         */
+        private void drain() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                ch.write(out);
+            }
+            out.clear();
+        }
+    }
+
     /**
      * 指定した文字コードでテキストファイルを読み込み、 指定した文字コードのバイト列に変換して返す.
      *
@@ -1,5 +1,6 @@
 package jp.seraphyware.textencodechanger.services;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.Objects;
 import java.util.function.IntConsumer;
@@ -20,6 +21,11 @@ public class TextTermConvService {
      */
     private static final Logger log = LoggerFactory.getLogger(TextEncodeConvService.class);
 
+    /**
+     * 配列を持たないバッファを走査する場合の作業用の配列のサイズ.
+     */
+    private static final int WORK_BUFFER_SIZE = 8 * 1024;
+
     /**
      * (内部状態用.)
      */
@@ -36,7 +42,35 @@ public class TextTermConvService {
      * @return 終端タイプ
      */
     public TextTermType presumeTermType(CharBuffer buf) {
-        return presumeTermType(buf, i ->  {});
+        Objects.requireNonNull(buf);
+
+        // 再読み込みのために位置を巻き戻す
+        buf.rewind();
+
+        TermCounter counter = new TermCounter();
+        counter.accept(buf);
+        return counter.getTermType(true);
+    }
+
+    /**
+     * テキストに変換する前のバイト列から改行コードを推定する.<br>
+     * 指定した文字コードで読み込めるバイト列であれば、読み込んだテキストで
+     * 推定した場合と同じ結果となる.<br>
+     *
+     * @param buf バイトバッファ(先頭から判定し、位置は変更されない)
+     * @param encoding 文字コード
+     * @return 終端タイプ
+     */
+    public TextTermType presumeTermType(ByteBuffer buf, EncodingType encoding) {
+        Objects.requireNonNull(buf);
+        Objects.requireNonNull(encoding);
+
+        ByteBuffer src = buf.duplicate();
+        src.rewind();
+
+        ByteTermCounter counter = new ByteTermCounter(encoding);
+        counter.accept(src);
+        return counter.getTermType(true);
     }
 
     /**
@@ -81,13 +115,19 @@ public class TextTermConvService {
                 if (ch == '\n') {
                     countOfCrLf++;
                     receiver.accept(-1);
+                    mode = ScanState.NORMAL;
+
+                } else if (ch == '\r') {
+                    // CRが連続する場合は、次のCRの判定を続ける
+                    countOfCr++;
+                    receiver.accept(-1);
 
                 } else {
                     countOfCr++;
                     receiver.accept(-1);
                     receiver.accept(ch);
+                    mode = ScanState.NORMAL;
                 }
-                mode = ScanState.NORMAL;
             }
         }
         if (mode == ScanState.CR) {
@@ -95,6 +135,20 @@ public class TextTermConvService {
             receiver.accept(-1);
         }
 
+        return judgeTermType(countOfCr, countOfCrLf, countOfLf);
+    }
+
+    /**
+     * 行末ごとの出現数から改行コードを判定する.<br>
+     * 単一の改行コードだけが出現していない場合はUNKNOWNとなる.<br>
+     *
+     * @param countOfCr CRの数
+     * @param countOfCrLf CRLFの数
+     * @param countOfLf LFの数
+     * @return 終端タイプ
+     */
+    static TextTermType judgeTermType(int countOfCr, int countOfCrLf,
+            int countOfLf) {
         if (countOfCr > 0 && countOfCrLf == 0 && countOfLf == 0) {
             return TextTermType.CR;
         }
@@ -110,31 +164,875 @@ public class TextTermConvService {
         
         return TextTermType.UNKNOWN;
     }
+
+    /**
+     * 分割して与えられるテキストの改行コードを数えるカウンタを作成する.
+     *
+     * @return カウンタ
+     */
+    public TermCounter createTermCounter() {
+        return new TermCounter();
+    }
+
+    /**
+     * 分割して与えられるテキストの改行コードを数えるカウンタ.<br>
+     * 区切りをまたぐCRLFも1つの行末として数える.<br>
+     */
+    public static final class TermCounter {
+
+        private int countOfCr;
+
+        private int countOfLf;
+
+        private int countOfCrLf;
+
+        /**
+         * 直前の文字がCRであったか？
+         */
+        private boolean pendingCr;
+
+        private TermCounter() {
+            super();
+        }
+
+        /**
+         * テキストの続きを与える.<br>
+         * バッファの残りすべてを読み取り、位置はリミットまで進む.<br>
+         *
+         * @param buf テキスト
+         */
+        public void accept(CharBuffer buf) {
+            Objects.requireNonNull(buf);
+            if (buf.hasArray()) {
+                int offset = buf.arrayOffset();
+                count(buf.array(), offset + buf.position(),
+                        offset + buf.limit());
+                buf.position(buf.limit());
+                return;
+            }
+            char[] work = new char[Math.min(buf.remaining(), WORK_BUFFER_SIZE)];
+            while (buf.hasRemaining()) {
+                int len = Math.min(buf.remaining(), work.length);
+                buf.get(work, 0, len);
+                count(work, 0, len);
+            }
+        }
+
+        /**
+         * 配列の範囲の行末を数える.<br>
+         * 範囲の末尾のCRは、続く文字が決まるまで保留する.<br>
+         *
+         * @param src 文字配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない)
+         */
+        private void count(char[] src, int from, int to) {
+            int idx = from;
+            if (pendingCr && idx < to) {
+                // 前回の末尾のCRの判定
+                pendingCr = false;
+                if (src[idx] == '\n') {
+                    countOfCrLf++;
+                    idx++;
+                } else {
+                    countOfCr++;
+                }
+            }
+            int last = to;
+            if (idx < to && src[to - 1] == '\r') {
+                pendingCr = true;
+                last = to - 1;
+            }
+            for (; idx < last; idx++) {
+                char ch = src[idx];
+                if (ch == '\n') {
+                    countOfLf++;
+                } else if (ch == '\r') {
+                    if (idx + 1 < last && src[idx + 1] == '\n') {
+                        countOfCrLf++;
+                        idx++;
+                    } else {
+                        countOfCr++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * これまでに見つかった行末の数.
+         *
+         * @param endOfInput テキストの終端であるか？
+         * @return 行末の数
+         */
+        private int getCountOfTerms(boolean endOfInput) {
+            int cnt = countOfCr + countOfLf + countOfCrLf;
+            if (endOfInput && pendingCr) {
+                cnt++;
+            }
+            return cnt;
+        }
+
+        /**
+         * これまでに行末が見つかっているか？<br>
+         * 末尾のCRは、続く文字が決まるまで行末とはみなさない.<br>
+         *
+         * @return 行末があればtrue
+         */
+        public boolean hasTerm() {
+            return countOfCr > 0 || countOfLf > 0 || countOfCrLf > 0;
+        }
+
+        /**
+         * これまでに与えたテキストの改行コードを判定する.<br>
+         * 終端でない場合、末尾のCRは数えない.<br>
+         *
+         * @param endOfInput テキストの終端であるか？
+         * @return 終端タイプ
+         */
+        public TextTermType getTermType(boolean endOfInput) {
+            int cr = countOfCr;
+            if (endOfInput && pendingCr) {
+                cr++;
+            }
+            return judgeTermType(cr, countOfCrLf, countOfLf);
+        }
+    }
     
     /**
-     * テキストの改行コードを変更する.
+     * テキストに変換する前のバイト列の改行コードを数えるカウンタを作成する.
+     *
+     * @param encoding バイト列の文字コード
+     * @return カウンタ
+     */
+    public ByteTermCounter createTermCounter(EncodingType encoding) {
+        Objects.requireNonNull(encoding);
+        return new ByteTermCounter(encoding);
+    }
+
+    /**
+     * 分割して与えられるバイト列の改行コードを、テキストに変換せずに数えるカウンタ.<br>
+     * UTF-8, Windows-31J, EUC-JPではCR, LFのバイトが複数バイト文字の一部になることはないため
+     * バイト単位で数え、UTF-16LE/BEでは2バイト単位で数える.
+     * BOMはCR, LFを含まず、UTF-16の2バイト単位の区切りも変えないため、BOMの有無は問わない.<br>
+     * 区切りをまたぐCRLFも1つの行末として数える.<br>
+     */
+    public static final class ByteTermCounter {
+
+        private int countOfCr;
+
+        private int countOfLf;
+
+        private int countOfCrLf;
+
+        /**
+         * 直前の文字がCRであったか？
+         */
+        private boolean pendingCr;
+
+        /**
+         * UTF-16であるか？
+         */
+        private final boolean utf16;
+
+        /**
+         * UTF-16のビッグエンディアンであるか？
+         */
+        private final boolean bigEndian;
+
+        /**
+         * UTF-16の2バイト単位の組になっていない直前のバイト、なければ-1.
+         */
+        private int carry = -1;
+
+        /**
+         * コンストラクタ.
+         *
+         * @param encoding バイト列の文字コード
+         */
+        ByteTermCounter(EncodingType encoding) {
+            utf16 = isUtf16(encoding);
+            bigEndian = isBigEndian(encoding);
+        }
+
+        /**
+         * バイト列の続きを与える.<br>
+         * バッファの残りすべてを読み取り、位置はリミットまで進む.<br>
+         *
+         * @param buf バイト列
+         */
+        public void accept(ByteBuffer buf) {
+            Objects.requireNonNull(buf);
+            if (buf.hasArray()) {
+                int offset = buf.arrayOffset();
+                count(buf.array(), offset + buf.position(),
+                        offset + buf.limit());
+                buf.position(buf.limit());
+                return;
+            }
+            byte[] work = new byte[Math.min(buf.remaining(), WORK_BUFFER_SIZE)];
+            while (buf.hasRemaining()) {
+                int len = Math.min(buf.remaining(), work.length);
+                buf.get(work, 0, len);
+                count(work, 0, len);
+            }
+        }
+
+        /**
+         * 配列の範囲の行末を数える.
+         *
+         * @param src バイト配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない)
+         */
+        void count(byte[] src, int from, int to) {
+            if (utf16) {
+                countUnits(src, from, to);
+            } else {
+                countBytes(src, from, to);
+            }
+        }
+
+        /**
+         * ASCII互換の文字コードの行末をバイト単位で数える.<br>
+         * CR, LF以外のバイトは1回の比較で読み飛ばす.<br>
+         *
+         * @param src バイト配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない)
+         */
+        private void countBytes(byte[] src, int from, int to) {
+            int idx = from;
+            if (pendingCr && idx < to) {
+                // 前回の末尾のCRの判定
+                pendingCr = false;
+                if (src[idx] == '\n') {
+                    countOfCrLf++;
+                    idx++;
+                } else {
+                    countOfCr++;
+                }
+            }
+            for (; idx < to; idx++) {
+                int b = src[idx] & 0xff;
+                if (b > '\r') {
+                    continue;
+                }
+                if (b == '\n') {
+                    countOfLf++;
+                } else if (b == '\r') {
+                    if (idx + 1 == to) {
+                        // 続くバイトが決まるまで保留する
+                        pendingCr = true;
+                    } else if (src[idx + 1] == '\n') {
+                        countOfCrLf++;
+                        idx++;
+                    } else {
+                        countOfCr++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * UTF-16の行末を2バイト単位で数える.<br>
+         * 前回の呼び出しで組にならなかったバイトがあれば、先頭のバイトと組にする.<br>
+         *
+         * @param src バイト配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない)
+         */
+        private void countUnits(byte[] src, int from, int to) {
+            int idx = from;
+            if (carry >= 0 && idx < to) {
+                countUnit(carry, src[idx] & 0xff);
+                carry = -1;
+                idx++;
+            }
+            int end = idx + ((to - idx) & ~1);
+            for (; idx < end; idx += 2) {
+                countUnit(src[idx] & 0xff, src[idx + 1] & 0xff);
+            }
+            if (end < to) {
+                carry = src[end] & 0xff;
+            }
+        }
+
+        /**
+         * UTF-16の1単位を数える.
+         *
+         * @param first 1バイト目
+         * @param second 2バイト目
+         */
+        private void countUnit(int first, int second) {
+            int ch = bigEndian ? (first << 8) | second : (second << 8) | first;
+            if (pendingCr) {
+                pendingCr = false;
+                if (ch == '\n') {
+                    countOfCrLf++;
+                    return;
+                }
+                countOfCr++;
+            }
+            if (ch == '\r') {
+                pendingCr = true;
+            } else if (ch == '\n') {
+                countOfLf++;
+            }
+        }
+
+        /**
+         * これまでに行末が見つかっているか？<br>
+         * 末尾のCRは、続く文字が決まるまで行末とはみなさない.<br>
+         *
+         * @return 行末があればtrue
+         */
+        public boolean hasTerm() {
+            return countOfCr > 0 || countOfLf > 0 || countOfCrLf > 0;
+        }
+
+        /**
+         * これまでに与えたバイト列の改行コードを判定する.<br>
+         * 終端でない場合、末尾のCRは数えない.<br>
+         *
+         * @param endOfInput バイト列の終端であるか？
+         * @return 終端タイプ
+         */
+        public TextTermType getTermType(boolean endOfInput) {
+            int cr = countOfCr;
+            if (endOfInput && pendingCr) {
+                cr++;
+            }
+            return judgeTermType(cr, countOfCrLf, countOfLf);
+        }
+    }
+
+    /**
+     * 分割して与えられるテキストの改行コードを変更するリライタを作成する.
+     *
+     * @param termType 改行コード、UNKNOWNの場合は変更しない
+     * @return リライタ
+     */
+    public TermRewriter createTermRewriter(TextTermType termType) {
+        Objects.requireNonNull(termType);
+        return new TermRewriter(termType);
+    }
+
+    /**
+     * 分割して与えられるテキストの改行コードを変更するリライタ.<br>
+     * 区切りをまたぐCRLFも1つの行末として変換する.<br>
+     * 最後に{@link #finish()}を呼び出すこと.<br>
+     */
+    public static final class TermRewriter {
+
+        /**
+         * 変換後の改行文字、変更しない場合はnull.
+         */
+        private final char[] term;
+
+        /**
+         * 直前の文字がCRであったか？
+         */
+        private boolean pendingCr;
+
+        /**
+         * 変換結果のバッファ(再利用する).
+         */
+        private CharBuffer out = CharBuffer.allocate(0);
+
+        private TermRewriter(TextTermType termType) {
+            String chars = termType.getChars();
+            this.term = chars == null ? null : chars.toCharArray();
+        }
+
+        /**
+         * テキストの続きを変換する.<br>
+         * バッファの残りすべてを読み取り、位置はリミットまで進む.<br>
+         * 返されるバッファは次の呼び出しで再利用される.<br>
+         *
+         * @param buf テキスト
+         * @return 変換されたテキスト
+         */
+        public CharBuffer rewrite(CharBuffer buf) {
+            Objects.requireNonNull(buf);
+            if (term == null) {
+                // 何もしない.
+                CharBuffer result = buf.slice();
+                buf.position(buf.limit());
+                return result;
+            }
+
+            int capacity = buf.remaining() * term.length + term.length;
+            if (out.capacity() < capacity) {
+                out = CharBuffer.allocate(capacity);
+            }
+            int len = rewrite(buf, out.array(), 0);
+            out.clear();
+            out.limit(len);
+            return out;
+        }
+
+        /**
+         * テキストの続きを変換して配列に書き込む.<br>
+         * バッファの残りすべてを読み取り、位置はリミットまで進む.<br>
+         *
+         * @param buf テキスト
+         * @param dst 書き込み先、十分な大きさがあること
+         * @param pos 書き込み開始位置
+         * @return 書き込み後の位置
+         */
+        private int rewrite(CharBuffer buf, char[] dst, int pos) {
+            if (buf.hasArray()) {
+                int offset = buf.arrayOffset();
+                int end = rewrite(buf.array(), offset + buf.position(),
+                        offset + buf.limit(), dst, pos);
+                buf.position(buf.limit());
+                return end;
+            }
+            char[] work = new char[Math.min(buf.remaining(), WORK_BUFFER_SIZE)];
+            int end = pos;
+            while (buf.hasRemaining()) {
+                int len = Math.min(buf.remaining(), work.length);
+                buf.get(work, 0, len);
+                end = rewrite(work, 0, len, dst, end);
+            }
+            return end;
+        }
+
+        /**
+         * 配列の範囲の行末を変換して書き込む.<br>
+         * 行末以外の連続する文字はまとめて複写する.<br>
+         * 範囲の末尾のCRは、続く文字が決まるまで保留する.<br>
+         *
+         * @param src 文字配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない)
+         * @param dst 書き込み先
+         * @param pos 書き込み開始位置
+         * @return 書き込み後の位置
+         */
+        private int rewrite(char[] src, int from, int to, char[] dst, int pos) {
+            int idx = from;
+            int end = pos;
+            if (pendingCr && idx < to) {
+                // 前回の末尾のCRの変換
+                pendingCr = false;
+                end = putTerm(dst, end);
+                if (src[idx] == '\n') {
+                    idx++;
+                }
+            }
+            int last = to;
+            if (idx < to && src[to - 1] == '\r') {
+                pendingCr = true;
+                last = to - 1;
+            }
+            int start = idx;
+            while (idx < last) {
+                char ch = src[idx];
+                if (ch != '\r' && ch != '\n') {
+                    idx++;
+                    continue;
+                }
+                int len = idx - start;
+                System.arraycopy(src, start, dst, end, len);
+                end = putTerm(dst, end + len);
+                idx++;
+                if (ch == '\r' && idx < last && src[idx] == '\n') {
+                    idx++;
+                }
+                start = idx;
+            }
+            int len = last - start;
+            System.arraycopy(src, start, dst, end, len);
+            return end + len;
+        }
+
+        /**
+         * 変換後の改行文字を書き込む.
+         *
+         * @param dst 書き込み先
+         * @param pos 書き込み位置
+         * @return 書き込み後の位置
+         */
+        private int putTerm(char[] dst, int pos) {
+            int end = pos;
+            for (char ch : term) {
+                dst[end++] = ch;
+            }
+            return end;
+        }
+
+        /**
+         * テキストの終端で、保留している行末があれば変換して返す.
+         *
+         * @return 変換されたテキスト
+         */
+        public CharBuffer finish() {
+            if (pendingCr && term != null) {
+                pendingCr = false;
+                return CharBuffer.wrap(term);
+            }
+            return CharBuffer.allocate(0);
+        }
+    }
+
+    /**
+     * UTF-16LE/BEであるか？
+     *
+     * @param encoding 文字コード
+     * @return UTF-16であればtrue
+     */
+    private static boolean isUtf16(EncodingType encoding) {
+        return isBigEndian(encoding) || encoding == EncodingType.UTF16_BOM_LE
+                || encoding == EncodingType.UTF16_LE;
+    }
+
+    /**
+     * UTF-16のビッグエンディアンであるか？
+     *
+     * @param encoding 文字コード
+     * @return UTF-16BEであればtrue
+     */
+    private static boolean isBigEndian(EncodingType encoding) {
+        return encoding == EncodingType.UTF16_BOM_BE
+                || encoding == EncodingType.UTF16_BE;
+    }
+
+    /**
+     * 分割して与えられるバイト列の改行コードを、テキストに変換せずに変更するリライタを作成する.
+     *
+     * @param encoding バイト列の文字コード
+     * @param termType 改行コード、UNKNOWNの場合は変更しない
+     * @return リライタ
+     */
+    public ByteTermRewriter createTermRewriter(EncodingType encoding,
+            TextTermType termType) {
+        Objects.requireNonNull(encoding);
+        Objects.requireNonNull(termType);
+        return new ByteTermRewriter(encoding, termType);
+    }
+
+    /**
+     * 分割して与えられるバイト列の改行コードを、テキストに変換せずに変更するリライタ.<br>
+     * 文字コードを変更せずに改行コードだけを変更する場合に用いる.
+     * 行末以外のバイト列はそのまま複写するため、BOMも維持される.<br>
+     * UTF-8, Windows-31J, EUC-JPではバイト単位で、UTF-16LE/BEでは2バイト単位で変換する.<br>
+     * 区切りをまたぐCRLFも1つの行末として変換する.<br>
+     * 最後に{@link #finish()}を呼び出すこと.<br>
+     */
+    public static final class ByteTermRewriter {
+
+        /**
+         * 変換後の改行のバイト列、変更しない場合はnull.
+         */
+        private final byte[] term;
+
+        /**
+         * UTF-16であるか？
+         */
+        private final boolean utf16;
+
+        /**
+         * UTF-16のビッグエンディアンであるか？
+         */
+        private final boolean bigEndian;
+
+        /**
+         * 直前の文字がCRであったか？<br>
+         * CRは改行として書き込み済みで、続くLFは読み飛ばす.<br>
+         */
+        private boolean afterCr;
+
+        /**
+         * UTF-16の2バイト単位の組になっていない直前のバイト、なければ-1.
+         */
+        private int carry = -1;
+
+        /**
+         * 変換結果のバッファ(再利用する).
+         */
+        private ByteBuffer out = ByteBuffer.allocate(0);
+
+        private ByteTermRewriter(EncodingType encoding, TextTermType termType) {
+            utf16 = isUtf16(encoding);
+            bigEndian = isBigEndian(encoding);
+            String chars = termType.getChars();
+            if (chars == null) {
+                term = null;
+            } else if (utf16) {
+                term = new byte[chars.length() * 2];
+                for (int idx = 0; idx < chars.length(); idx++) {
+                    char ch = chars.charAt(idx);
+                    term[idx * 2] = (byte) (bigEndian ? ch >> 8 : ch);
+                    term[idx * 2 + 1] = (byte) (bigEndian ? ch : ch >> 8);
+                }
+            } else {
+                term = new byte[chars.length()];
+                for (int idx = 0; idx < chars.length(); idx++) {
+                    term[idx] = (byte) chars.charAt(idx);
+                }
+            }
+        }
+
+        /**
+         * バイト列の続きを変換する.<br>
+         * バッファの残りすべてを読み取り、位置はリミットまで進む.<br>
+         * 返されるバッファは次の呼び出しで再利用される.<br>
+         *
+         * @param buf バイト列
+         * @return 変換されたバイト列
+         */
+        public ByteBuffer rewrite(ByteBuffer buf) {
+            Objects.requireNonNull(buf);
+            if (term == null) {
+                // 何もしない.
+                ByteBuffer result = buf.slice();
+                buf.position(buf.limit());
+                return result;
+            }
+
+            // 1単位が改行に置き換わっても2倍を超えない(UTF-16の持ち越し分を含む)
+            int capacity = (buf.remaining() + 1) * 2;
+            if (out.capacity() < capacity) {
+                out = ByteBuffer.allocate(capacity);
+            }
+            int len;
+            if (buf.hasArray()) {
+                int offset = buf.arrayOffset();
+                len = rewrite(buf.array(), offset + buf.position(),
+                        offset + buf.limit(), out.array(), 0);
+                buf.position(buf.limit());
+            } else {
+                byte[] work = new byte[Math.min(buf.remaining(), WORK_BUFFER_SIZE)];
+                len = 0;
+                while (buf.hasRemaining()) {
+                    int size = Math.min(buf.remaining(), work.length);
+                    buf.get(work, 0, size);
+                    len = rewrite(work, 0, size, out.array(), len);
+                }
+            }
+            out.clear();
+            out.limit(len);
+            return out;
+        }
+
+        /**
+         * 配列の範囲の行末を変換して書き込む.
+         *
+         * @param src バイト配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない)
+         * @param dst 書き込み先
+         * @param pos 書き込み開始位置
+         * @return 書き込み後の位置
+         */
+        private int rewrite(byte[] src, int from, int to, byte[] dst, int pos) {
+            if (!utf16) {
+                return rewriteBytes(src, from, to, dst, pos);
+            }
+            int idx = from;
+            int end = pos;
+            if (carry >= 0 && idx < to) {
+                end = rewriteUnits(new byte[]{(byte) carry, src[idx]}, 0, 2,
+                        dst, end);
+                carry = -1;
+                idx++;
+            }
+            int last = idx + ((to - idx) & ~1);
+            end = rewriteUnits(src, idx, last, dst, end);
+            if (last < to) {
+                carry = src[last] & 0xff;
+            }
+            return end;
+        }
+
+        /**
+         * ASCII互換の文字コードの行末をバイト単位で変換する.<br>
+         * 行末以外の連続するバイトはまとめて複写する.<br>
+         *
+         * @param src バイト配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない)
+         * @param dst 書き込み先
+         * @param pos 書き込み開始位置
+         * @return 書き込み後の位置
+         */
+        private int rewriteBytes(byte[] src, int from, int to, byte[] dst,
+                int pos) {
+            int idx = from;
+            int end = pos;
+            if (afterCr && idx < to) {
+                afterCr = false;
+                if (src[idx] == '\n') {
+                    idx++;
+                }
+            }
+            int start = idx;
+            while (idx < to) {
+                int b = src[idx] & 0xff;
+                if (b > '\r' || (b != '\r' && b != '\n')) {
+                    idx++;
+                    continue;
+                }
+                int len = idx - start;
+                System.arraycopy(src, start, dst, end, len);
+                end = putTerm(dst, end + len);
+                idx++;
+                if (b == '\r') {
+                    if (idx == to) {
+                        afterCr = true;
+                    } else if (src[idx] == '\n') {
+                        idx++;
+                    }
+                }
+                start = idx;
+            }
+            int len = to - start;
+            System.arraycopy(src, start, dst, end, len);
+            return end + len;
+        }
+
+        /**
+         * UTF-16の行末を2バイト単位で変換する.<br>
+         * 行末以外の連続する単位はまとめて複写する.<br>
+         *
+         * @param src バイト配列
+         * @param from 開始位置
+         * @param to 終了位置(この位置を含まない、開始位置からの長さは偶数)
+         * @param dst 書き込み先
+         * @param pos 書き込み開始位置
+         * @return 書き込み後の位置
+         */
+        private int rewriteUnits(byte[] src, int from, int to, byte[] dst,
+                int pos) {
+            int idx = from;
+            int end = pos;
+            if (afterCr && idx < to) {
+                afterCr = false;
+                if (unitAt(src, idx) == '\n') {
+                    idx += 2;
+                }
+            }
+            int start = idx;
+            while (idx < to) {
+                int ch = unitAt(src, idx);
+                if (ch != '\r' && ch != '\n') {
+                    idx += 2;
+                    continue;
+                }
+                int len = idx - start;
+                System.arraycopy(src, start, dst, end, len);
+                end = putTerm(dst, end + len);
+                idx += 2;
+                if (ch == '\r') {
+                    if (idx == to) {
+                        afterCr = true;
+                    } else if (unitAt(src, idx) == '\n') {
+                        idx += 2;
+                    }
+                }
+                start = idx;
+            }
+            int len = to - start;
+            System.arraycopy(src, start, dst, end, len);
+            return end + len;
+        }
+
+        /**
+         * UTF-16の1単位を返す.
+         *
+         * @param src バイト配列
+         * @param idx 単位の開始位置
+         * @return 文字
+         */
+        private int unitAt(byte[] src, int idx) {
+            int first = src[idx] & 0xff;
+            int second = src[idx + 1] & 0xff;
+            return bigEndian ? (first << 8) | second : (second << 8) | first;
+        }
+
+        /**
+         * 変換後の改行のバイト列を書き込む.
+         *
+         * @param dst 書き込み先
+         * @param pos 書き込み位置
+         * @return 書き込み後の位置
+         */
+        private int putTerm(byte[] dst, int pos) {
+            System.arraycopy(term, 0, dst, pos, term.length);
+            return pos + term.length;
+        }
+
+        /**
+         * バイト列の終端で、UTF-16の組にならなかったバイトがあればそのまま返す.
+         *
+         * @return 残りのバイト列
+         */
+        public ByteBuffer finish() {
+            if (carry >= 0) {
+                ByteBuffer rest = ByteBuffer.wrap(new byte[]{(byte) carry});
+                carry = -1;
+                return rest;
+            }
+            return ByteBuffer.allocate(0);
+        }
+    }
+
+    /**
+     * テキストの改行コードを変更する.<br>
+     * すでに指定した改行コードのみである場合、または改行を含まない場合は、
+     * 引数のバッファをそのまま返す.<br>
      * @param charBuf 対象となるテキスト
      * @param termType 改行コード
-     * @return 
+     * @return 変換されたテキスト
      */
     public CharBuffer changeTermType(CharBuffer charBuf,
             TextTermType termType) {
+        return changeTermType(charBuf, TextTermType.UNKNOWN, termType);
+    }
+
+    /**
+     * 改行コードが判明しているテキストの改行コードを変更する.<br>
+     * 元の改行コードと変換後の改行コードが同じであれば、
+     * テキストを走査せずに引数のバッファをそのまま返す.<br>
+     * @param charBuf 対象となるテキスト
+     * @param srcTermType 元の改行コード、不明であればUNKNOWN
+     * @param termType 改行コード
+     * @return 変換されたテキスト
+     */
+    public CharBuffer changeTermType(CharBuffer charBuf,
+            TextTermType srcTermType, TextTermType termType) {
         Objects.requireNonNull(charBuf);
+        Objects.requireNonNull(srcTermType);
         Objects.requireNonNull(termType);
-        
-        if (termType == TextTermType.UNKNOWN) {
+
+        charBuf.rewind();
+        if (termType == TextTermType.UNKNOWN || termType == srcTermType) {
             // 何もしない.
             return charBuf;
         }
 
-        StringBuilder buf = new StringBuilder();
-        presumeTermType(charBuf, ch -> {
-            if (ch == -1) {
-                buf.append(termType.getChars());
-            } else {
-                buf.append((char) ch);
-            }
-        });
-        return CharBuffer.wrap(buf);
+        TermCounter counter = new TermCounter();
+        counter.accept(charBuf.duplicate());
+        int terms = counter.getCountOfTerms(true);
+        if (terms == 0 || counter.getTermType(true) == termType) {
+            // すでに変換後の改行コードである.
+            return charBuf;
+        }
+
+        // 変換後の長さを求めて一度で確保する
+        int termChars = counter.countOfCr + counter.countOfCrLf * 2
+                + counter.countOfLf + (counter.pendingCr ? 1 : 0);
+        int len = charBuf.remaining() - termChars
+                + terms * termType.getChars().length();
+        char[] dst = new char[len];
+
+        TermRewriter rewriter = new TermRewriter(termType);
+        int end = rewriter.rewrite(charBuf.duplicate(), dst, 0);
+        if (rewriter.pendingCr) {
+            end = rewriter.putTerm(dst, end);
+        }
+        assert end == len;
+        return CharBuffer.wrap(dst);
     }
 }
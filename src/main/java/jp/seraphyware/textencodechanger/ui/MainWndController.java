@@ -8,23 +8,20 @@ import jp.seraphyware.textencodechanger.services.BackgroundTaskService;
 import jp.seraphyware.textencodechanger.services.FileWalkService;
 import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.URL;
-import java.nio.CharBuffer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributeView;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
-import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -71,12 +68,14 @@ import javafx.util.converter.FormatStringConverter;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.FileConvertCallable;
 import jp.seraphyware.textencodechanger.services.FileReplaceService;
-import jp.seraphyware.textencodechanger.services.FileReplaceService.ContentConverter;
-import jp.seraphyware.textencodechanger.services.FileReplaceService.ContentReader;
-import jp.seraphyware.textencodechanger.services.FileReplaceService.FileContentConverter;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.StreamFileContentConverter;
 import jp.seraphyware.textencodechanger.services.FileWalkService.FileInfo;
 import jp.seraphyware.textencodechanger.services.FileWalkerCallable;
+import jp.seraphyware.textencodechanger.services.FileWatchService;
+import jp.seraphyware.textencodechanger.services.FileWatchService.FileWatchListener;
+import jp.seraphyware.textencodechanger.services.FileWatchService.FileWatcher;
 import jp.seraphyware.textencodechanger.services.OverwriteMode;
 import jp.seraphyware.textencodechanger.services.SearchCondition;
 import jp.seraphyware.textencodechanger.services.TextTermConvService;
@@ -146,6 +145,12 @@ public class MainWndController extends SimpleWindowController implements Initial
     @Autowired
     private BackgroundTaskService bgTaskSerive;
 
+    /**
+     * 入力元フォルダのファイルの変更を監視するサービス.
+     */
+    @Autowired
+    private FileWatchService fileWatchService;
+
     /**
      * モデル.
      */
@@ -161,6 +166,23 @@ public class MainWndController extends SimpleWindowController implements Initial
      */
     private final SearchCondition lastUseSearchCondition = new SearchCondition();
 
+    /**
+     * 走査の世代.
+     * (走査の途中結果が、現在の走査のものであるか判定するため、走査ごとに増やす.)
+     */
+    private long scanGeneration;
+
+    /**
+     * 監視中のウォッチャー、監視していなければnull.
+     */
+    private FileWatcher fileWatcher;
+
+    /**
+     * 監視の世代.
+     * (監視の通知が、現在のウォッチャーのものであるか判定するため、監視の開始ごとに増やす.)
+     */
+    private long watchGeneration;
+
     /**
      * ルート
      */
@@ -191,6 +213,12 @@ public class MainWndController extends SimpleWindowController implements Initial
     @FXML
     private TextField txtPattern;
 
+    /**
+     * 除外するパターンのテキストボックス.
+     */
+    @FXML
+    private TextField txtExclude;
+
     /**
      * 転送モードの選択ドロップダウン.
      */
@@ -281,6 +309,18 @@ public class MainWndController extends SimpleWindowController implements Initial
     @FXML
     private Button btnConvert;
 
+    /**
+     * 監視モードのチェックボックス.
+     */
+    @FXML
+    private CheckBox chkWatch;
+
+    /**
+     * 監視中の自動変換のチェックボックス.
+     */
+    @FXML
+    private CheckBox chkAutoConvert;
+
     /**
      * 入力元用ディレクトリ選択ダイアログ.
      */
@@ -309,6 +349,7 @@ public class MainWndController extends SimpleWindowController implements Initial
 
     @Override
     public void onCloseRequest(WindowEvent event) {
+        stopWatch();
         closeWindow();
     }
     
@@ -330,6 +371,8 @@ public class MainWndController extends SimpleWindowController implements Initial
                 model.outputProperty());
         txtPattern.textProperty().bindBidirectional(
                 searchCondition.patternProperty());
+        txtExclude.textProperty().bindBidirectional(
+                searchCondition.excludeProperty());
 
         txtOutput.disableProperty().bind(
                 model.transferTypeProperty().isEqualTo(TransferType.REPLACE));
@@ -521,6 +564,7 @@ public class MainWndController extends SimpleWindowController implements Initial
         
         // デフォルトパターンを設定する.
         txtPattern.textProperty().set(rb.getString("defaultPattern"));
+        txtExclude.textProperty().set(fileWalkService.getDefaultExcludes());
 
         // フォルダ選択ダイアログのタイトルをリソースより取得する.
         dcInput.setTitle(rb.getString("chooseDir.input.caption"));
@@ -530,6 +574,23 @@ public class MainWndController extends SimpleWindowController implements Initial
         searchCondition.inputProerty().addListener(e -> clearFiles());
         searchCondition.recursiveProperty().addListener(e -> clearFiles());
 
+        // 監視モードの切り替え
+        // (自動変換の設定が変更された場合は、新しい設定で監視しなおす)
+        chkAutoConvert.disableProperty().bind(chkWatch.selectedProperty().not());
+        chkWatch.selectedProperty().addListener((obs, oldValue, newValue) -> {
+            if (newValue) {
+                startWatch();
+            } else {
+                stopWatch();
+            }
+        });
+        chkAutoConvert.selectedProperty().addListener(e -> restartWatch());
+        comboEncoding.valueProperty().addListener(e -> restartWatch());
+        comboTermType.valueProperty().addListener(e -> restartWatch());
+        model.transferTypeProperty().addListener(e -> restartWatch());
+        model.overwriteModeProperty().addListener(e -> restartWatch());
+        model.outputProperty().addListener(e -> restartWatch());
+
         // 結果アイテム数
         IntegerBinding sizeBinding = new IntegerBinding() {
             {
@@ -628,6 +689,7 @@ public class MainWndController extends SimpleWindowController implements Initial
      * ソースファイル一覧の対象が変更されえる画面上の変更があった場合、 検出済みのファイル一覧をクリアする.
      */
     private void clearFiles() {
+        chkWatch.setSelected(false);
         model.getFileItems().clear();
         txtSearch.clear();
     }
@@ -683,22 +745,46 @@ public class MainWndController extends SimpleWindowController implements Initial
      */
     @FXML
     public final void handleCheckAction(final ActionEvent event) {
+        // 走査の間は監視を止め、走査の完了後に新しい条件で監視しなおす
+        stopWatch();
         model.getFileItems().clear();
 
         String srcDirStr = searchCondition.inputProerty().get();
         boolean recursive = searchCondition.recursiveProperty().get();
         String patterns = searchCondition.patternProperty().get();
+        String excludes = searchCondition.excludeProperty().get();
         searchCondition.copyTo(lastUseSearchCondition);
 
         EncodingType selEncoding = comboEncoding.getValue();
         TextTermType selTermType = comboTermType.getValue();
 
         List<Pattern> regexps = fileWalkService.makePatterns(patterns);
+        List<Pattern> excludeRegexps = fileWalkService.makePatterns(
+                excludes == null ? "" : excludes);
         Path srcDir = Paths.get(srcDirStr);
 
         // ワーカーの作成
-        FileWalkerCallable fileWalker =
-                fileWalkService.createCallable(srcDir, recursive, regexps);
+        FileWalkerCallable fileWalker = fileWalkService.createCallable(
+                srcDir, recursive, regexps, excludeRegexps);
+
+        // 走査の途中結果を逐次テーブルに追加する.
+        // (追加済みの行は、走査の完了後も選択状態を含めてそのまま使う)
+        long generation = ++scanGeneration;
+        Map<Path, MainWndModel.FileItem> shownItems = new HashMap<>();
+        fileWalker.setResultListener(batch -> Platform.runLater(() -> {
+            if (generation != scanGeneration) {
+                // 完了済み、または別の走査の途中結果なので無視する
+                return;
+            }
+            List<MainWndModel.FileItem> items = new ArrayList<>(batch.size());
+            for (FileInfo fileInfo : batch) {
+                MainWndModel.FileItem item = createFileItem(
+                        srcDir, fileInfo, selEncoding, selTermType);
+                shownItems.put(fileInfo.getPath(), item);
+                items.add(item);
+            }
+            model.getFileItems().addAll(items);
+        }));
 
         // ワーカーを、JavaFX UIスレッドとの連携用タスクと接続する.
         Task<List<FileInfo>> bgTask = new TaskBridge<>((progressCallback) -> {
@@ -721,61 +807,27 @@ public class MainWndController extends SimpleWindowController implements Initial
             progStg.close();
         }
 
+        // 以降に届く途中結果は無視する
+        scanGeneration++;
+
         // 走査結果をテーブルデータに変換して表示する.
         try {
             if (!bgTask.isCancelled()) {
                 // 走査結果の取得
+                // (途中結果として表示済みの行はそのまま使い、未表示の行だけを作成する)
                 List<FileInfo> files = bgTask.get();
                 List<MainWndModel.FileItem> items = files.stream()
-                        .map((fileInfo) -> {
-                    MainWndModel.FileItem item = new MainWndModel.FileItem();
-
-                    // 走査結果のファイルのパスを入力ディレクトリからの相対パスにする
-                    Path filePath = fileInfo.getPath();
-                    Path relativePath = srcDir.relativize(filePath);
-
-                    // パスの表示は相対パスとする.
-                    item.fileProperty().set(relativePath.toString());
-
-                    // ファイルの属性を取得する
-                    BasicFileAttributeView attrView =
-                            Files.getFileAttributeView(filePath,
-                                    BasicFileAttributeView.class);
-                    if (attrView != null) {
-                        try {
-                            BasicFileAttributes attr = attrView.readAttributes();
-                            
-                            item.sizeProperty().set(attr.size());
-                            item.lastModifiedProperty().set(
-                                    attr.lastModifiedTime());
-                        }
-                        catch (IOException ex) {
-                            throw new UncheckedIOException(ex);
-                        }
-                    }
-                    
-                    // 推定文字コード
-                    item.encodingProperty().set(fileInfo.getEncoding());
-                    
-                    // 推定行末コード
-                    item.termTypeProperty().set(fileInfo.getTermType());
-
-                    // ファイルの推定文字コードとターゲットの文字コードが
-                    // 一致しなければ、あるいは、改行コードが一致しなければ
-                    // 自動的に選択状態とする.
-                    // (ただし指定もしくは実ファイルのいずれかの改行コードが
-                    // Unknownの場合は改行コードは不問とする.)
-                    item.selectProperty().set(
-                            !selEncoding.equals(fileInfo.getEncoding()) ||
-                            (selTermType != TextTermType.UNKNOWN &&
-                             fileInfo.getTermType() != TextTermType.UNKNOWN &&
-                             !selTermType.equals(fileInfo.getTermType()))
-                    );
-
-                    return item;
-                }).collect(Collectors.toList());
-
-                model.getFileItems().addAll(items);
+                        .map(fileInfo -> shownItems.computeIfAbsent(
+                                fileInfo.getPath(),
+                                path -> createFileItem(srcDir, fileInfo,
+                                        selEncoding, selTermType)))
+                        .collect(Collectors.toList());
+
+                model.getFileItems().setAll(items);
+
+                if (chkWatch.isSelected()) {
+                    startWatch();
+                }
 
             } else {
                 // キャンセルされていた場合
@@ -791,6 +843,236 @@ public class MainWndController extends SimpleWindowController implements Initial
        }
     }
 
+    /**
+     * 最後に走査した条件で、入力元フォルダのファイルの変更の監視を開始する.<br>
+     * 作成・変更されたファイルは個別に解析してテーブルに反映し、
+     * 削除されたファイルはテーブルから取り除く.<br>
+     * 自動変換する場合は、現在の変換の設定で、変換が必要なファイルを変換する.<br>
+     */
+    private void startWatch() {
+        stopWatch();
+
+        String srcDirStr = lastUseSearchCondition.inputProerty().get();
+        String patterns = lastUseSearchCondition.patternProperty().get();
+        if (srcDirStr == null || srcDirStr.isEmpty()
+                || patterns == null || patterns.isEmpty()) {
+            // まだ走査していない
+            chkWatch.setSelected(false);
+            return;
+        }
+        boolean recursive = lastUseSearchCondition.recursiveProperty().get();
+        String excludes = lastUseSearchCondition.excludeProperty().get();
+        Path srcDir = Paths.get(srcDirStr);
+
+        EncodingType selEncoding = comboEncoding.getValue();
+        TextTermType selTermType = comboTermType.getValue();
+
+        List<Pattern> regexps = fileWalkService.makePatterns(patterns);
+        List<Pattern> excludeRegexps = fileWalkService.makePatterns(
+                excludes == null ? "" : excludes);
+
+        // 監視の通知をJavaFXのスレッドでテーブルに反映する.
+        // (停止したウォッチャーから遅れて届く通知は無視する)
+        long generation = ++watchGeneration;
+        FileWatcher watcher = fileWatchService.createWatcher(
+                srcDir, recursive, regexps, excludeRegexps,
+                new FileWatchListener() {
+                    @Override
+                    public void filesChanged(final List<FileInfo> updated,
+                            final List<Path> removed) {
+                        Platform.runLater(() -> {
+                            if (generation == watchGeneration) {
+                                applyWatchChanges(srcDir, updated, removed,
+                                        selEncoding, selTermType);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void fileConverted(final FileInfo fileInfo) {
+                        Platform.runLater(() -> {
+                            if (generation == watchGeneration) {
+                                markConverted(srcDir, fileInfo);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void filesRescanned(final List<FileInfo> files) {
+                        Platform.runLater(() -> {
+                            if (generation == watchGeneration) {
+                                model.getFileItems().setAll(files.stream()
+                                        .map(fileInfo -> createFileItem(srcDir,
+                                                fileInfo, selEncoding, selTermType))
+                                        .collect(Collectors.toList()));
+                            }
+                        });
+                    }
+                });
+
+        if (chkAutoConvert.isSelected()) {
+            String destDir = model.outputProperty().get();
+            TransferType transferType = model.transferTypeProperty().get();
+            if (transferType == TransferType.REPLACE
+                    || (destDir != null && !destDir.isEmpty())) {
+                StreamFileContentConverter converter
+                        = fileReplaceService.createStreamFileContentConverter(
+                                srcDirStr,
+                                destDir,
+                                transferType,
+                                model.overwriteModeProperty().get(),
+                                selEncoding,
+                                selTermType);
+                watcher.setAutoConverter(converter, selEncoding, selTermType);
+            } else {
+                log.warn("出力先がないため自動変換しない");
+            }
+        }
+
+        try {
+            watcher.start();
+            fileWatcher = watcher;
+
+        } catch (IOException | RuntimeException ex) {
+            log.error("監視の開始に失敗: " + ex, ex);
+            chkWatch.setSelected(false);
+
+            // エラーダイアログの表示
+            ErrorDialogUtils.showException(getStage(), ex);
+        }
+    }
+
+    /**
+     * 監視を停止する.<br>
+     * 監視していなければ何もしない.<br>
+     */
+    private void stopWatch() {
+        watchGeneration++;
+        if (fileWatcher != null) {
+            fileWatcher.close();
+            fileWatcher = null;
+        }
+    }
+
+    /**
+     * 監視中であれば、現在の設定で監視しなおす.
+     */
+    private void restartWatch() {
+        if (fileWatcher != null) {
+            startWatch();
+        }
+    }
+
+    /**
+     * 監視により通知された変更をテーブルに反映する.<br>
+     * 作成・変更されたファイルは行を作り直し、削除されたファイルとフォルダ配下のファイルの行は取り除く.<br>
+     *
+     * @param srcDir 入力元ディレクトリ
+     * @param updated 作成・変更されたファイル
+     * @param removed 削除されたパス
+     * @param selEncoding 変換後の文字コード
+     * @param selTermType 変換後の行末コード
+     */
+    private void applyWatchChanges(final Path srcDir,
+            final List<FileInfo> updated, final List<Path> removed,
+            final EncodingType selEncoding, final TextTermType selTermType) {
+        List<MainWndModel.FileItem> fileItems = model.getFileItems();
+        for (Path path : removed) {
+            String relativePath = srcDir.relativize(path).toString();
+            String prefix = relativePath + File.separator;
+            fileItems.removeIf(item -> {
+                String file = item.fileProperty().get();
+                return file.equals(relativePath) || file.startsWith(prefix);
+            });
+        }
+
+        Map<String, Integer> index = new HashMap<>();
+        for (int idx = 0; idx < fileItems.size(); idx++) {
+            index.put(fileItems.get(idx).fileProperty().get(), idx);
+        }
+        List<MainWndModel.FileItem> added = new ArrayList<>();
+        for (FileInfo fileInfo : updated) {
+            MainWndModel.FileItem item = createFileItem(
+                    srcDir, fileInfo, selEncoding, selTermType);
+            Integer idx = index.get(item.fileProperty().get());
+            if (idx != null) {
+                fileItems.set(idx, item);
+            } else {
+                added.add(item);
+            }
+        }
+        fileItems.addAll(added);
+    }
+
+    /**
+     * 監視中に自動変換したファイルの行を変換済みとする.<br>
+     * 上書きした場合は、続けて届く変更の通知で行が作り直される.<br>
+     *
+     * @param srcDir 入力元ディレクトリ
+     * @param fileInfo 変換前のファイル情報
+     */
+    private void markConverted(final Path srcDir, final FileInfo fileInfo) {
+        String relativePath = srcDir.relativize(fileInfo.getPath()).toString();
+        for (MainWndModel.FileItem fileItem : model.getFileItems()) {
+            if (relativePath.equals(fileItem.fileProperty().get())) {
+                fileItem.selectProperty().set(false);
+                fileItem.convertedProperty().set(true);
+                fileItem.contentHashProperty().set(null);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 走査結果のファイル情報からテーブルの行を作成する.<br>
+     * サイズと最終更新日時は走査時に取得したものを用いる.<br>
+     *
+     * @param srcDir 入力元ディレクトリ
+     * @param fileInfo ファイル情報
+     * @param selEncoding 変換後の文字コード
+     * @param selTermType 変換後の行末コード
+     * @return テーブルの行
+     */
+    private MainWndModel.FileItem createFileItem(final Path srcDir,
+            final FileInfo fileInfo, final EncodingType selEncoding,
+            final TextTermType selTermType) {
+        MainWndModel.FileItem item = new MainWndModel.FileItem();
+
+        // 走査結果のファイルのパスを入力ディレクトリからの相対パスにする
+        Path filePath = fileInfo.getPath();
+        Path relativePath = srcDir.relativize(filePath);
+
+        // パスの表示は相対パスとする.
+        item.fileProperty().set(relativePath.toString());
+
+        // ファイルの属性 (走査時に取得済み)
+        if (fileInfo.getSize() >= 0) {
+            item.sizeProperty().set(fileInfo.getSize());
+        }
+        item.lastModifiedProperty().set(fileInfo.getLastModified());
+
+        // 推定文字コード
+        item.encodingProperty().set(fileInfo.getEncoding());
+
+        // 推定行末コード
+        item.termTypeProperty().set(fileInfo.getTermType());
+        item.termTypeVerifiedProperty().set(fileInfo.isVerified());
+
+        // 内容のハッシュ (同じ内容のファイルの変換結果の共有に用いる)
+        item.contentHashProperty().set(fileInfo.getContentHash());
+
+        // ファイルの推定文字コードとターゲットの文字コードが
+        // 一致しなければ、あるいは、改行コードが一致しなければ
+        // 自動的に選択状態とする.
+        // (ただし指定もしくは実ファイルのいずれかの改行コードが
+        // Unknownの場合は改行コードは不問とする.)
+        // バイナリファイルは選択しない.
+        item.selectProperty().set(
+                fileInfo.needsConversion(selEncoding, selTermType));
+
+        return item;
+    }
+
     /**
      * ソースファイルリストで選択されているファイルについて文字コードを変換する.
      *
@@ -812,69 +1094,79 @@ public class MainWndController extends SimpleWindowController implements Initial
         EncodingType destEncoding = comboEncoding.getValue();
         TextTermType termType = comboTermType.getValue();
 
-        Task<Integer> bgTask = new Task<Integer>() {
-            @Override
-            protected Integer call() throws Exception {
-                updateTitle("converting...");
+        // 変換対象のファイル(JavaFXのスレッドで確定する)
+        List<FileReplaceService.ConvertTarget> targets = new ArrayList<>();
+        Map<String, MainWndModel.FileItem> itemMap = new HashMap<>();
+        for (MainWndModel.FileItem fileItem : model.getFileItems()) {
+            if (!fileItem.selectProperty().get()) {
+                continue;
+            }
 
-                Function<CharBuffer, CharBuffer> termConv = (charBuf) ->
-                        termConvSrv.changeTermType(charBuf, termType);
+            String relativePath = fileItem.fileProperty().get();
+            EncodingType srcEncoding = fileItem.encodingProperty().get();
 
-                ContentConverter encConv = (chars) -> encodeConvService.
-                        writeBytes(termConv.apply(chars), destEncoding);
-                FileContentConverter converter
-                        = fileReplaceService.createFileContentConverter(
-                                srcDir,
-                                destDir,
-                                transferType,
-                                overwriteMode,
-                                encConv);
+            if (srcEncoding == null) {
+                log.warn("エンコードが不明のため対象外: " + fileItem);
+                continue;
+            }
 
-                int count = 0;
+            // 行末タイプが確認済みであれば、同じ行末タイプへの変換を省略できる
+            TextTermType srcTermType = fileItem.termTypeProperty().get();
+            if (srcTermType == null || !fileItem.termTypeVerifiedProperty().get()) {
+                srcTermType = TextTermType.UNKNOWN;
+            }
 
-                for (MainWndModel.FileItem fileItem : model.getFileItems()) {
-                    if (!fileItem.selectProperty().get()) {
-                        continue;
-                    }
+            targets.add(new FileReplaceService.ConvertTarget(
+                    relativePath, srcEncoding, srcTermType,
+                    fileItem.contentHashProperty().get()));
+            itemMap.put(relativePath, fileItem);
+        }
 
-                    String relativePath = fileItem.fileProperty().get();
-                    EncodingType srcEncoding = fileItem.encodingProperty().get();
+        // 一定サイズずつ逐次変換する
+        StreamFileContentConverter converter
+                = fileReplaceService.createStreamFileContentConverter(
+                        srcDir,
+                        destDir,
+                        transferType,
+                        overwriteMode,
+                        destEncoding,
+                        termType);
+
+        // ファイルの変換を並列に行うワーカーの作成
+        FileConvertCallable fileConverter
+                = fileReplaceService.createConvertCallable(converter, targets);
+        fileConverter.setConvertedListener(target -> {
+            MainWndModel.FileItem fileItem = itemMap.get(target.getRelativePath());
+            // 変換完了を示す
+            Platform.runLater(() -> {
+                // bindingでチェックボックスを変更すると、テーブルカラムも変更されるため
+                // JavaFxのスレッドでの操作とする.
+                fileItem.selectProperty().set(false);
+
+                // 変更した文字コードに表示を切り替える
+                fileItem.encodingProperty().set(destEncoding);
+
+                // 変更した改行コードに表示を切り替える.
+                if (termType != TextTermType.UNKNOWN) {
+                    fileItem.termTypeProperty().set(termType);
+                    fileItem.termTypeVerifiedProperty().set(true);
+                }
 
-                    if (srcEncoding == null) {
-                        log.warn("エンコードが不明のため対象外: " + fileItem);
-                        continue;
-                    }
+                // 文字コードが変更されているので元ファイルは開かないように
+                // ディセーブルにする.
+                fileItem.convertedProperty().set(true);
 
-                    updateMessage(relativePath);
-                    
-                    ContentReader decConv = (byteBuf) ->
-                            encodeConvService.readText(byteBuf, srcEncoding);
-                    boolean success = converter.convert(relativePath, decConv);
-                    if (success) {
-                        // 変換完了を示す
-                        Platform.runLater(() -> {
-                            // bindingでチェックボックスを変更すると、テーブルカラムも変更されるため
-                            // JavaFxのスレッドでの操作とする.
-                            fileItem.selectProperty().set(false);
-                            
-                            // 変更した文字コードに表示を切り替える
-                            fileItem.encodingProperty().set(destEncoding);
-
-                            // 変更した改行コードに表示を切り替える.
-                            if (termType != TextTermType.UNKNOWN) {
-                                fileItem.termTypeProperty().set(termType);
-                            }
-                            
-                            // 文字コードが変更されているので元ファイルは開かないように
-                            // ディセーブルにする.
-                            fileItem.convertedProperty().set(true);
-                        });
-                        count++;
-                    }
-                }
-                return count;
-            }
-        };
+                // 内容が変わったため、走査時のハッシュは用いない
+                fileItem.contentHashProperty().set(null);
+            });
+        });
+
+        // ワーカーを、JavaFX UIスレッドとの連携用タスクと接続する.
+        Task<FileReplaceService.ConvertResult> bgTask = new TaskBridge<>(
+                (progressCallback) -> {
+                    fileConverter.setProgressCallback(progressCallback);
+                    return fileConverter.call();
+                });
 
         bgTaskSerive.execute(bgTask);
 
@@ -889,16 +1181,43 @@ public class MainWndController extends SimpleWindowController implements Initial
         }
 
         try {
-            int count = bgTask.get();
+            FileReplaceService.ConvertResult result = bgTask.get();
+            int count = result.getConverted().size();
             if (count > 0) {
                 // 完了通知
                 Alert alert = createConvertCompleteDialog.apply(count);
                 alert.showAndWait();
             }
+            if (!result.getFailures().isEmpty()) {
+                // 失敗したファイルの通知
+                showConvertFailures(result.getFailures());
+            }
 
         } catch (RuntimeException | InterruptedException | ExecutionException ex) {
             ErrorDialogUtils.showException(getStage(), ex);
         }
     }
+
+    /**
+     * 変換に失敗したファイルの一覧を表示する.
+     *
+     * @param failures 失敗したファイルと、その原因
+     */
+    protected void showConvertFailures(
+            Map<FileReplaceService.ConvertTarget, Exception> failures) {
+        Alert alert = new Alert(AlertType.WARNING);
+        alert.initOwner(getStage());
+        alert.setTitle(res.getString("convert.failed.title"));
+        alert.setHeaderText(res.getString("convert.failed.header"));
+        alert.setContentText(String.format(res.getString(
+                "convert.failed.contentsFmt"), failures.size()));
+        TextArea textArea = new TextArea();
+        textArea.setEditable(false);
+        failures.forEach((target, ex) -> textArea.appendText(
+                target.getRelativePath() + ": " + ex + System.lineSeparator()));
+        alert.getDialogPane().setExpandableContent(textArea);
+        alert.getDialogPane().setExpanded(true);
+        alert.showAndWait();
+    }
 }
 
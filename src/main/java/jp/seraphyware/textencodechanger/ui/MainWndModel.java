@@ -64,6 +64,12 @@ public final class MainWndModel {
          */
         private final SimpleObjectProperty<TextTermType> termTypeProperty =
                 new SimpleObjectProperty<>();
+
+        /**
+         * 行末タイプがファイル全体で確認済みであるか？
+         */
+        private final SimpleBooleanProperty termTypeVerifiedProperty =
+                new SimpleBooleanProperty();
         
         /**
          * 変換済みフラグ.
@@ -71,6 +77,12 @@ public final class MainWndModel {
         private final SimpleBooleanProperty convertedProperty =
                 new SimpleBooleanProperty();
 
+        /**
+         * 走査時の内容のハッシュ.
+         */
+        private final SimpleStringProperty contentHashProperty =
+                new SimpleStringProperty();
+
         /**
          * 文字コード.
          * @return 文字コード
@@ -87,6 +99,15 @@ public final class MainWndModel {
             return termTypeProperty;
         }
 
+        /**
+         * 行末タイプがファイル全体で確認済みであるか？
+         * (先頭部分だけで推定した場合はfalse)
+         * @return 確認済みであればtrue
+         */
+        public BooleanProperty termTypeVerifiedProperty() {
+            return termTypeVerifiedProperty;
+        }
+
         /**
          * ファイル.
          * @return ファイル.
@@ -126,6 +147,15 @@ public final class MainWndModel {
         public BooleanProperty convertedProperty() {
             return convertedProperty;
         }
+
+        /**
+         * 走査時の内容のハッシュ.
+         * (同じ内容のファイルの解析をまとめない場合はnull)
+         * @return 内容のハッシュ
+         */
+        public StringProperty contentHashProperty() {
+            return contentHashProperty;
+        }
     }
     
     /**
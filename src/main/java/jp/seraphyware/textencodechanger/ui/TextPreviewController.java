@@ -2,7 +2,6 @@ package jp.seraphyware.textencodechanger.ui;
 
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -24,6 +23,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.FileLoadService;
 import jp.seraphyware.textencodechanger.services.TextEncodeConvService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
@@ -45,6 +45,12 @@ public class TextPreviewController extends SimpleWindowController
     @Autowired
     protected TextEncodeConvService encodeConvService;
 
+    /**
+     * ファイルの読み込みサービス.
+     */
+    @Autowired
+    protected FileLoadService fileLoadService;
+
     /**
      * ファイル名
      */
@@ -237,26 +243,35 @@ public class TextPreviewController extends SimpleWindowController
      */
     public void showTextFile() {
         boolean success = false;
+        int errorOffset = -1;
         try {
             Path textFilePath = pathProperty.get();
-            byte[] data;
+            StringBuilder buf = new StringBuilder();
             if (textFilePath != null && Files.isRegularFile(textFilePath)) {
-                data = Files.readAllBytes(textFilePath);
-            } else {
-                data = new byte[0];
+                // 大きなファイルはメモリマップし、逐次変換して追記する
+                EncodingType encoding = getEncodingType();
+                try (FileLoadService.LoadedFile loaded
+                        = fileLoadService.load(textFilePath)) {
+                    ByteBuffer bytes = loaded.getBuffer();
+                    try {
+                        encodeConvService.readText(
+                                bytes.duplicate(), encoding, buf::append);
+                    } catch (CharacterCodingException ex) {
+                        // 読み込めない最初のバイトの位置を表示する
+                        ByteBuffer check = bytes.duplicate();
+                        check.rewind();
+                        errorOffset = encoding.validate(check);
+                        throw ex;
+                    }
+                }
             }
-            ByteBuffer byteBuf = ByteBuffer.wrap(data);
-            
-            EncodingType encoding = getEncodingType();
-            CharBuffer textBuf = encodeConvService.readText(byteBuf, encoding);
-            StringBuilder buf = new StringBuilder();
-            buf.append(textBuf);
             
             textArea.setText(buf.toString());
             success = true;
 
         } catch (CharacterCodingException ex) {
-            textArea.setText("ERROR: " + ex);
+            textArea.setText("ERROR: " + ex
+                    + (errorOffset >= 0 ? " (offset: " + errorOffset + ")" : ""));
             
         } catch (Exception ex) {
             ErrorDialogUtils.showException(getStage(), ex);
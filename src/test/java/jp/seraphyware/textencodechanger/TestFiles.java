@@ -0,0 +1,47 @@
+package jp.seraphyware.textencodechanger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+
+/**
+ * テストで用いるファイルを作成するユーティリティ
+ * @author seraphy
+ */
+public final class TestFiles {
+
+    private TestFiles() {
+        super();
+    }
+
+    /**
+     * 指定した文字コードでテキストをバイト列にする
+     * @param enc 文字コード
+     * @param text テキスト
+     * @return バイト列
+     * @throws IOException 失敗
+     */
+    public static byte[] encode(EncodingType enc, CharSequence text)
+            throws IOException {
+        ByteBuffer data = enc.encode(CharBuffer.wrap(text));
+        return Arrays.copyOf(data.array(), data.limit());
+    }
+
+    /**
+     * 指定した文字コードでテキストファイルを作成する.
+     * 親ディレクトリがなければ作成する.
+     * @param path パス
+     * @param enc 文字コード
+     * @param text テキスト
+     * @throws IOException 失敗
+     */
+    public static void write(Path path, EncodingType enc, CharSequence text)
+            throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, encode(enc, text));
+    }
+}
@@ -0,0 +1,153 @@
+package jp.seraphyware.textencodechanger.batch;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import static jp.seraphyware.textencodechanger.TestFiles.encode;
+import static jp.seraphyware.textencodechanger.TestFiles.write;
+import jp.seraphyware.textencodechanger.UnitTestConfiguration;
+import jp.seraphyware.textencodechanger.services.EncodingType;
+import jp.seraphyware.textencodechanger.services.FileWalkService;
+import jp.seraphyware.textencodechanger.services.TransferType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * BatchRunnerのテスト
+ *
+ * @author seraphy
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = {UnitTestConfiguration.class})
+public class BatchRunnerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Autowired
+    private BatchRunner runner;
+
+    @Autowired
+    private FileWalkService fileWalkService;
+
+    /**
+     * 引数の解析のテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testParseOptions() throws Exception {
+        BatchOptions options = BatchOptions.parse(Arrays.asList(
+                "-i", "src", "-e", "utf8_bom", "-t", "lf", "-o", "dest"));
+        Assert.assertEquals(EncodingType.UTF8_BOM, options.getEncoding());
+        Assert.assertEquals(TransferType.COPY, options.getTransferType());
+        Assert.assertTrue(options.isRecursive());
+
+        options = BatchOptions.parse(Arrays.asList("--input", "src"));
+        Assert.assertNull(options.getEncoding());
+        Assert.assertNull(options.getExcludes());
+
+        options = BatchOptions.parse(Arrays.asList("-i", "src", "-x", ".git;out"));
+        Assert.assertEquals(".git;out", options.getExcludes());
+        Assert.assertEquals(TransferType.REPLACE, options.getTransferType());
+
+        String[][] invalids = {
+            {},
+            {"-i"},
+            {"-i", "src", "-e", "SJIS"},
+            {"-i", "src", "--transfer", "MOVE"},
+            {"-i", "src", "--unknown"},
+        };
+        for (String[] args : invalids) {
+            try {
+                BatchOptions.parse(Arrays.asList(args));
+                Assert.fail(Arrays.toString(args));
+            } catch (IllegalArgumentException ex) {
+                // OK
+            }
+        }
+    }
+
+    /**
+     * 走査、変換、レポートのテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testRun() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        int sniffSize = fileWalkService.getSniffSize();
+        try {
+            Path srcDir = dir.resolve("src");
+            write(srcDir.resolve("a.txt"), EncodingType.Windows31J, "日本語\r\n");
+            write(srcDir.resolve("b.txt"), EncodingType.UTF8, "abc\n");
+            write(srcDir.resolve("sub/c.txt"), EncodingType.EUC_JP, "漢字\n");
+            write(srcDir.resolve("d.bin"), EncodingType.Windows31J, "skip");
+
+            // 変換せずに報告のみ
+            StringWriter report = new StringWriter();
+            Assert.assertEquals(BatchRunner.EXIT_OK, runner.run(BatchOptions.parse(
+                    Arrays.asList("-i", srcDir.toString(), "-p", "*.txt",
+                            "-e", "UTF8", "-t", "LF", "--dry-run")), report));
+            String[] lines = report.toString().split("\n");
+            Assert.assertEquals(BatchRunner.REPORT_HEADER, lines[0]);
+            Assert.assertEquals(4, lines.length);
+            Assert.assertTrue(lines[1], lines[1].startsWith("PENDING\ta.txt\tWindows31J\tCRLF\t"));
+            Assert.assertTrue(lines[2], lines[2].startsWith("UNCHANGED\tb.txt\tUTF8\tLF\t"));
+            Assert.assertTrue(lines[3], lines[3].startsWith("PENDING\t"));
+            Assert.assertArrayEquals(encode(EncodingType.Windows31J, "日本語\r\n"),
+                    Files.readAllBytes(srcDir.resolve("a.txt")));
+
+            // 出力先への変換
+            Path destDir = dir.resolve("dest");
+            report = new StringWriter();
+            Assert.assertEquals(BatchRunner.EXIT_OK, runner.run(BatchOptions.parse(
+                    Arrays.asList("-i", srcDir.toString(), "-p", "*.txt",
+                            "-e", "UTF8", "-t", "LF", "-o", destDir.toString())),
+                    report));
+            lines = report.toString().split("\n");
+            Assert.assertTrue(lines[1], lines[1].startsWith("CONVERTED\ta.txt\t"));
+            Assert.assertTrue(lines[3], lines[3].startsWith("CONVERTED\t"));
+            Assert.assertArrayEquals(encode(EncodingType.UTF8, "日本語\n"),
+                    Files.readAllBytes(destDir.resolve("a.txt")));
+            Assert.assertArrayEquals(encode(EncodingType.UTF8, "漢字\n"),
+                    Files.readAllBytes(destDir.resolve("sub/c.txt")));
+            Assert.assertFalse(Files.exists(destDir.resolve("b.txt")));
+
+            // 既存の出力先をスキップ
+            report = new StringWriter();
+            Assert.assertEquals(BatchRunner.EXIT_OK, runner.run(BatchOptions.parse(
+                    Arrays.asList("-i", srcDir.toString(), "-p", "a.txt",
+                            "-e", "UTF8", "-o", destDir.toString(),
+                            "--overwrite", "SKIP")), report));
+            lines = report.toString().split("\n");
+            Assert.assertTrue(lines[1], lines[1].startsWith("SKIPPED\ta.txt\t"));
+
+            // 先頭部分から推定した行末タイプが一致しても、確認されていなければ変換する
+            Path sniffDir = dir.resolve("sniff");
+            StringBuilder text = new StringBuilder();
+            for (int idx = 0; idx < 100; idx++) {
+                text.append("abc\n");
+            }
+            write(sniffDir.resolve("e.txt"), EncodingType.UTF8, text + "def\r\n");
+            fileWalkService.setSniffSize(64);
+            report = new StringWriter();
+            Assert.assertEquals(BatchRunner.EXIT_OK, runner.run(BatchOptions.parse(
+                    Arrays.asList("-i", sniffDir.toString(), "-p", "*.txt",
+                            "-e", "UTF8", "-t", "LF",
+                            "-o", dir.resolve("sniffed").toString())), report));
+            lines = report.toString().split("\n");
+            Assert.assertTrue(lines[1], lines[1].startsWith("CONVERTED\te.txt\tUTF8\tLF\t"));
+            Assert.assertArrayEquals(encode(EncodingType.UTF8, text + "def\n"),
+                    Files.readAllBytes(dir.resolve("sniffed/e.txt")));
+
+        } finally {
+            fileWalkService.setSniffSize(sniffSize);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * BackgroundTaskServiceのテスト
+ *
+ * @author seraphy
+ */
+public class BackgroundTaskServiceTest {
+
+    /**
+     * スレッドの種類ごとに、タスクが並行して実行されること、
+     * Futureの取り消しで実行中のタスクに割り込めることのテスト.
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testExecutorTypes() throws Exception {
+        for (ExecutorType executorType : ExecutorType.values()) {
+            BackgroundTaskService service = new BackgroundTaskService();
+            service.setExecutorType(executorType);
+            service.setThreads(2);
+            service.setShutdownTimeout(5);
+            service.init();
+            try {
+                // 2つのタスクが同時に実行される
+                CountDownLatch started = new CountDownLatch(2);
+                Future<Boolean> first = service.execute(() -> {
+                    started.countDown();
+                    return started.await(5, TimeUnit.SECONDS);
+                });
+                Future<Boolean> second = service.execute(() -> {
+                    started.countDown();
+                    return started.await(5, TimeUnit.SECONDS);
+                });
+                Assert.assertTrue(executorType.name(), first.get());
+                Assert.assertTrue(executorType.name(), second.get());
+
+                // 取り消すと実行中のタスクに割り込む
+                CountDownLatch running = new CountDownLatch(1);
+                CountDownLatch interrupted = new CountDownLatch(1);
+                Future<Void> task = service.execute(() -> {
+                    running.countDown();
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException ex) {
+                        interrupted.countDown();
+                    }
+                    return null;
+                });
+                Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+                Assert.assertTrue(task.cancel(true));
+                Assert.assertTrue(executorType.name(),
+                        interrupted.await(5, TimeUnit.SECONDS));
+
+            } finally {
+                service.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import static jp.seraphyware.textencodechanger.TestFiles.write;
+import jp.seraphyware.textencodechanger.UnitTestConfiguration;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.ConvertResult;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.ConvertTarget;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.StreamFileContentConverter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * FileReplaceServiceのテスト
+ *
+ * @author seraphy
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = {UnitTestConfiguration.class})
+public class FileReplaceServiceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Autowired
+    private FileReplaceService service;
+
+    @Autowired
+    private TextEncodeConvService encConvSrv;
+
+    @Autowired
+    private TextTermConvService termConvSrv;
+
+    /**
+     * 逐次変換の結果が、一括して変換した場合と一致することのテスト.<br>
+     * バッファの区切りで複数バイト文字やCRLFが分かれるように、
+     * バッファより大きいファイルを変換する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testStreamConvert() throws Exception {
+        Random rnd = new Random(0);
+        String[] words = {"abc", "日本語", "\r\n", "\n", "\r", "ｱｲｳ", "𠮷"};
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200000) {
+            text.append(words[rnd.nextInt(words.length)]);
+        }
+
+        Path dir = tempFolder.getRoot().toPath();
+        EncodingType[][] cases = {
+            {EncodingType.UTF8_BOM, EncodingType.UTF16_BOM_LE},
+            {EncodingType.UTF16_BE, EncodingType.UTF8},
+            {EncodingType.UTF8, EncodingType.UTF16_BOM_BE},
+            // 文字コードが同じであれば、バイト列のまま改行コードを変換する
+            {EncodingType.UTF8, EncodingType.UTF8},
+            {EncodingType.UTF8_BOM, EncodingType.UTF8_BOM},
+            {EncodingType.UTF16_BE, EncodingType.UTF16_BE},
+        };
+        for (EncodingType[] encs : cases) {
+            for (TextTermType termType : TextTermType.values()) {
+                write(dir.resolve("src.txt"), encs[0], text);
+
+                StreamFileContentConverter converter
+                        = service.createStreamFileContentConverter(
+                                dir.toString(), null,
+                                TransferType.REPLACE,
+                                OverwriteMode.OVERWRITE,
+                                encs[1], termType);
+                // 文字コードも改行コードも変更しない上書きは何もしない
+                boolean noChange = encs[0] == encs[1]
+                        && termType == TextTermType.UNKNOWN;
+                Assert.assertEquals(!noChange,
+                        converter.convert("src.txt", encs[0]));
+
+                ByteBuffer expected = encConvSrv.writeBytes(
+                        termConvSrv.changeTermType(
+                                CharBuffer.wrap(text), termType),
+                        encs[1]);
+                byte[] actual = Files.readAllBytes(dir.resolve("src.txt"));
+                Assert.assertArrayEquals(encs[0] + "->" + encs[1] + "/" + termType,
+                        Arrays.copyOf(expected.array(), expected.limit()),
+                        actual);
+            }
+        }
+        try (Stream<Path> paths = Files.list(dir)) {
+            Assert.assertEquals(1, paths.count());
+        }
+    }
+
+    /**
+     * 移動とバックアップ、変換失敗時のテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testStreamConvertMove() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        Path srcDir = dir.resolve("src");
+        Path destDir = dir.resolve("dest");
+        write(srcDir.resolve("sub/a.txt"), EncodingType.Windows31J, "日本語\n");
+        write(destDir.resolve("sub/a.txt"), EncodingType.UTF8, "old");
+
+        StreamFileContentConverter converter
+                = service.createStreamFileContentConverter(
+                        srcDir.toString(), destDir.toString(),
+                        TransferType.MOVE,
+                        OverwriteMode.CREATE_BACKUP,
+                        EncodingType.UTF8, TextTermType.CRLF);
+
+        // 変換できない場合は、入力元も出力先も変更されない
+        try {
+            converter.convert("sub/a.txt", EncodingType.UTF8);
+            Assert.fail();
+        } catch (IOException ex) {
+            // 想定どおり
+        }
+        Assert.assertTrue(Files.exists(srcDir.resolve("sub/a.txt")));
+        Assert.assertFalse(Files.exists(destDir.resolve("sub/a.txt.bak")));
+        try (Stream<Path> paths = Files.list(destDir.resolve("sub"))) {
+            Assert.assertEquals(1, paths.count());
+        }
+
+        Assert.assertTrue(converter.convert("sub/a.txt", EncodingType.Windows31J));
+        Assert.assertFalse(Files.exists(srcDir.resolve("sub/a.txt")));
+        Assert.assertEquals("日本語\r\n", new String(
+                Files.readAllBytes(destDir.resolve("sub/a.txt")), "UTF-8"));
+        Assert.assertEquals("old", new String(
+                Files.readAllBytes(destDir.resolve("sub/a.txt.bak")), "UTF-8"));
+    }
+
+    /**
+     * 非同期の読み書きによる逐次変換のテスト.<br>
+     * 書き込み中のバイト数の上限を小さくして書き込みの完了を待たせても、
+     * 同期の読み書きと同じ結果となることを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testStreamConvertAsync() throws Exception {
+        Random rnd = new Random(0);
+        String[] words = {"abc", "日本語", "\r\n", "\n", "ｱｲｳ"};
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 300000) {
+            text.append(words[rnd.nextInt(words.length)]);
+        }
+
+        Path dir = tempFolder.getRoot().toPath();
+        int parallelism = service.getParallelism();
+        boolean asyncIo = service.isAsyncIo();
+        int maxInFlightBytes = service.getMaxInFlightBytes();
+        try {
+            Path srcDir = dir.resolve("src");
+            List<ConvertTarget> targets = new ArrayList<>();
+            for (int idx = 0; idx < 8; idx++) {
+                String name = "file" + idx + ".txt";
+                write(srcDir.resolve(name), EncodingType.EUC_JP,
+                        text.substring(idx * 1000));
+                targets.add(new ConvertTarget(name, EncodingType.EUC_JP));
+            }
+            service.setParallelism(4);
+
+            List<byte[]> expected = new ArrayList<>();
+            for (boolean async : new boolean[]{false, true}) {
+                service.setAsyncIo(async);
+                service.setMaxInFlightBytes(1000);
+                Path destDir = dir.resolve(async ? "async" : "sync");
+                StreamFileContentConverter converter
+                        = service.createStreamFileContentConverter(
+                                srcDir.toString(), destDir.toString(),
+                                TransferType.COPY,
+                                OverwriteMode.OVERWRITE,
+                                EncodingType.UTF16_BOM_LE, TextTermType.CRLF);
+                ConvertResult result = service.createConvertCallable(
+                        converter, targets).call();
+                Assert.assertEquals(targets.size(), result.getConverted().size());
+                for (int idx = 0; idx < targets.size(); idx++) {
+                    byte[] actual = Files.readAllBytes(destDir.resolve(
+                            targets.get(idx).getRelativePath()));
+                    if (async) {
+                        Assert.assertArrayEquals(expected.get(idx), actual);
+                    } else {
+                        expected.add(actual);
+                    }
+                }
+            }
+
+            // 非同期でも、変換できない場合は出力先を作成しない
+            StreamFileContentConverter converter
+                    = service.createStreamFileContentConverter(
+                            srcDir.toString(), dir.resolve("fail").toString(),
+                            TransferType.COPY,
+                            OverwriteMode.OVERWRITE,
+                            EncodingType.UTF8, TextTermType.LF);
+            try {
+                converter.convert("file0.txt", EncodingType.UTF8);
+                Assert.fail();
+            } catch (IOException ex) {
+                // 想定どおり
+            }
+            try (Stream<Path> paths = Files.list(dir.resolve("fail"))) {
+                Assert.assertEquals(0, paths.count());
+            }
+
+        } finally {
+            service.setParallelism(parallelism);
+            service.setAsyncIo(asyncIo);
+            service.setMaxInFlightBytes(maxInFlightBytes);
+        }
+    }
+
+    /**
+     * 同期モードとバックアップのテスト.<br>
+     * 上書きの場合も元のファイルがバックアップとして残り、
+     * 一時ファイルが残らないことを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testSyncModes() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        SyncMode syncMode = service.getSyncMode();
+        try {
+            for (SyncMode mode : SyncMode.values()) {
+                Path sub = dir.resolve(mode.name());
+                List<ConvertTarget> targets = new ArrayList<>();
+                for (int idx = 0; idx < 3; idx++) {
+                    String name = "file" + idx + ".txt";
+                    write(sub.resolve(name), EncodingType.Windows31J, "日本語\n" + idx);
+                    write(sub.resolve(name + ".bak"), EncodingType.UTF8, "old");
+                    targets.add(new ConvertTarget(name, EncodingType.Windows31J));
+                }
+
+                service.setSyncMode(mode);
+                StreamFileContentConverter converter
+                        = service.createStreamFileContentConverter(
+                                sub.toString(), null,
+                                TransferType.REPLACE,
+                                OverwriteMode.CREATE_BACKUP,
+                                EncodingType.UTF8, TextTermType.CRLF);
+                ConvertResult result = service.createConvertCallable(
+                        converter, targets).call();
+                Assert.assertEquals(3, result.getConverted().size());
+
+                for (int idx = 0; idx < 3; idx++) {
+                    String name = "file" + idx + ".txt";
+                    Assert.assertEquals("日本語\r\n" + idx, new String(
+                            Files.readAllBytes(sub.resolve(name)), "UTF-8"));
+                    Assert.assertEquals("日本語\n" + idx, new String(
+                            Files.readAllBytes(sub.resolve(name + ".bak")),
+                            "Windows-31J"));
+                }
+                try (Stream<Path> paths = Files.list(sub)) {
+                    Assert.assertEquals(6, paths.count());
+                }
+            }
+
+        } finally {
+            service.setSyncMode(syncMode);
+        }
+    }
+
+    /**
+     * 文字コードも改行コードも変更しない場合に、内容をそのまま転送するテスト.<br>
+     * コピーはテキストとして読み込まずに複製し、同じファイルストアへの移動は
+     * 名前の変更で行うことを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testPassThrough() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        Path srcDir = dir.resolve("src");
+        write(srcDir.resolve("a.txt"), EncodingType.UTF8, "日本語\r\n");
+        // UTF-8として読み込めないバイトを含む(読み込まずに複製されること)
+        byte[] data = {'a', (byte) 0xff, '\r', '\n'};
+        Files.write(srcDir.resolve("b.txt"), data);
+        byte[] expected = Files.readAllBytes(srcDir.resolve("a.txt"));
+
+        StreamFileContentConverter converter
+                = service.createStreamFileContentConverter(
+                        srcDir.toString(), dir.resolve("copy").toString(),
+                        TransferType.COPY,
+                        OverwriteMode.OVERWRITE,
+                        EncodingType.UTF8, TextTermType.CRLF);
+        Assert.assertTrue(converter.convert("a.txt", EncodingType.UTF8,
+                TextTermType.CRLF));
+        Assert.assertTrue(converter.convert("b.txt", EncodingType.UTF8,
+                TextTermType.CRLF));
+        Assert.assertArrayEquals(expected,
+                Files.readAllBytes(dir.resolve("copy/a.txt")));
+        Assert.assertArrayEquals(data,
+                Files.readAllBytes(dir.resolve("copy/b.txt")));
+        Assert.assertTrue(Files.exists(srcDir.resolve("a.txt")));
+
+        // 改行コードを変更しない指定でも同じ
+        converter = service.createStreamFileContentConverter(
+                srcDir.toString(), dir.resolve("keep").toString(),
+                TransferType.COPY,
+                OverwriteMode.OVERWRITE,
+                EncodingType.UTF8, TextTermType.UNKNOWN);
+        Assert.assertTrue(converter.convert("b.txt", EncodingType.UTF8));
+        Assert.assertArrayEquals(data,
+                Files.readAllBytes(dir.resolve("keep/b.txt")));
+
+        // 上書きの場合は何もしない(バックアップも作成しない)
+        BasicFileAttributes before = Files.readAttributes(
+                srcDir.resolve("a.txt"), BasicFileAttributes.class);
+        converter = service.createStreamFileContentConverter(
+                srcDir.toString(), null,
+                TransferType.REPLACE,
+                OverwriteMode.CREATE_BACKUP,
+                EncodingType.UTF8, TextTermType.CRLF);
+        Assert.assertFalse(converter.convert("a.txt", EncodingType.UTF8,
+                TextTermType.CRLF));
+        BasicFileAttributes after = Files.readAttributes(
+                srcDir.resolve("a.txt"), BasicFileAttributes.class);
+        Assert.assertEquals(before.lastModifiedTime(), after.lastModifiedTime());
+        Assert.assertEquals(before.fileKey(), after.fileKey());
+        Assert.assertFalse(Files.exists(srcDir.resolve("a.txt.bak")));
+        try (Stream<Path> paths = Files.list(srcDir)) {
+            Assert.assertEquals(2, paths.count());
+        }
+
+        Object fileKey = before.fileKey();
+        write(dir.resolve("move/a.txt"), EncodingType.UTF8, "old");
+        converter = service.createStreamFileContentConverter(
+                srcDir.toString(), dir.resolve("move").toString(),
+                TransferType.MOVE,
+                OverwriteMode.CREATE_BACKUP,
+                EncodingType.UTF8, TextTermType.CRLF);
+        Assert.assertTrue(converter.convert("a.txt", EncodingType.UTF8,
+                TextTermType.CRLF));
+        Assert.assertFalse(Files.exists(srcDir.resolve("a.txt")));
+        Assert.assertArrayEquals(expected,
+                Files.readAllBytes(dir.resolve("move/a.txt")));
+        Assert.assertEquals("old", new String(
+                Files.readAllBytes(dir.resolve("move/a.txt.bak")), "UTF-8"));
+        if (fileKey != null) {
+            // 名前の変更であれば、ファイルそのものは同じ
+            Assert.assertEquals(fileKey, Files.readAttributes(
+                    dir.resolve("move/a.txt"),
+                    BasicFileAttributes.class).fileKey());
+        }
+        try (Stream<Path> paths = Files.list(dir.resolve("move"))) {
+            Assert.assertEquals(2, paths.count());
+        }
+    }
+
+    /**
+     * シンボリックリンクを上書きで変換するテスト.<br>
+     * リンクは通常のファイルに置き換えられず、リンク先のファイルが変換されることを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testReplaceSymbolicLink() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        Path real = dir.resolve("real/a.txt");
+        write(real, EncodingType.EUC_JP, "日本語\n");
+        Path link = dir.resolve("src/a.txt");
+        Files.createDirectories(link.getParent());
+        try {
+            Files.createSymbolicLink(link, real);
+        } catch (UnsupportedOperationException | IOException ex) {
+            // シンボリックリンクを作成できない環境では確認しない
+            return;
+        }
+
+        StreamFileContentConverter converter
+                = service.createStreamFileContentConverter(
+                        dir.resolve("src").toString(), null,
+                        TransferType.REPLACE,
+                        OverwriteMode.CREATE_BACKUP,
+                        EncodingType.UTF8, TextTermType.CRLF);
+        Assert.assertTrue(converter.convert("a.txt", EncodingType.EUC_JP,
+                TextTermType.LF));
+
+        Assert.assertTrue(Files.isSymbolicLink(link));
+        Assert.assertEquals("日本語\r\n",
+                new String(Files.readAllBytes(real), "UTF-8"));
+        Assert.assertTrue(Files.exists(dir.resolve("real/a.txt.bak")));
+        try (Stream<Path> paths = Files.list(dir.resolve("src"))) {
+            Assert.assertEquals(1, paths.count());
+        }
+    }
+
+    /**
+     * 同じ内容のファイルの変換結果を共有するテスト.<br>
+     * 走査時のハッシュが同じで現在の内容も同じファイルは、最初のファイルの変換結果を複製し、
+     * 走査後に内容が変わったファイルは変換しなおすことを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testDedupConvert() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        boolean dedup = service.isDedup();
+        try {
+            Path srcDir = dir.resolve("src");
+            Path destDir = dir.resolve("dest");
+            for (int idx = 0; idx < 3; idx++) {
+                write(srcDir.resolve("file" + idx + ".txt"), EncodingType.EUC_JP,
+                        "日本語\n");
+            }
+            String hash = ContentHash.of(srcDir.resolve("file0.txt"));
+            // 走査後に内容が変わった
+            write(srcDir.resolve("file2.txt"), EncodingType.EUC_JP, "変更\n");
+
+            service.setDedup(true);
+            StreamFileContentConverter converter
+                    = service.createStreamFileContentConverter(
+                            srcDir.toString(), destDir.toString(),
+                            TransferType.COPY,
+                            OverwriteMode.OVERWRITE,
+                            EncodingType.UTF8, TextTermType.CRLF);
+            Assert.assertTrue(converter.convert("file0.txt", EncodingType.EUC_JP,
+                    TextTermType.UNKNOWN, hash));
+            Assert.assertEquals("日本語\r\n", new String(
+                    Files.readAllBytes(destDir.resolve("file0.txt")), "UTF-8"));
+
+            // 最初のファイルの変換結果が複製されることを確かめるため、書き換えておく
+            Files.write(destDir.resolve("file0.txt"), "copied".getBytes("UTF-8"));
+
+            Assert.assertTrue(converter.convert("file1.txt", EncodingType.EUC_JP,
+                    TextTermType.UNKNOWN, hash));
+            Assert.assertEquals("copied", new String(
+                    Files.readAllBytes(destDir.resolve("file1.txt")), "UTF-8"));
+
+            Assert.assertTrue(converter.convert("file2.txt", EncodingType.EUC_JP,
+                    TextTermType.UNKNOWN, hash));
+            Assert.assertEquals("変更\r\n", new String(
+                    Files.readAllBytes(destDir.resolve("file2.txt")), "UTF-8"));
+
+            // まとめた変換でも、すべてのファイルが変換される
+            List<ConvertTarget> targets = new ArrayList<>();
+            for (int idx = 0; idx < 3; idx++) {
+                targets.add(new ConvertTarget("file" + idx + ".txt",
+                        EncodingType.EUC_JP, TextTermType.UNKNOWN, hash));
+            }
+            converter = service.createStreamFileContentConverter(
+                    srcDir.toString(), dir.resolve("dest2").toString(),
+                    TransferType.COPY,
+                    OverwriteMode.OVERWRITE,
+                    EncodingType.UTF8, TextTermType.CRLF);
+            ConvertResult result = service.createConvertCallable(
+                    converter, targets).call();
+            Assert.assertEquals(3, result.getConverted().size());
+            Assert.assertEquals("日本語\r\n", new String(Files.readAllBytes(
+                    dir.resolve("dest2/file1.txt")), "UTF-8"));
+            Assert.assertEquals("変更\r\n", new String(Files.readAllBytes(
+                    dir.resolve("dest2/file2.txt")), "UTF-8"));
+
+        } finally {
+            service.setDedup(dedup);
+        }
+    }
+
+    /**
+     * 並列変換のテスト.<br>
+     * 変換できないファイルがあっても残りのファイルは変換され、
+     * 失敗したファイルが結果に含まれることを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testConvertCallable() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        int parallelism = service.getParallelism();
+        try {
+            List<ConvertTarget> targets = new ArrayList<>();
+            for (int idx = 0; idx < 40; idx++) {
+                String name = "file" + idx + ".txt";
+                write(dir.resolve(name), EncodingType.EUC_JP, "日本語\n" + idx);
+                // 7番目だけ文字コードの指定を誤る
+                targets.add(new ConvertTarget(name, idx == 7
+                        ? EncodingType.UTF8 : EncodingType.EUC_JP));
+            }
+
+            StreamFileContentConverter converter
+                    = service.createStreamFileContentConverter(
+                            dir.toString(), null,
+                            TransferType.REPLACE,
+                            OverwriteMode.OVERWRITE,
+                            EncodingType.UTF8, TextTermType.CRLF);
+
+            service.setParallelism(4);
+            FileConvertCallable callable
+                    = service.createConvertCallable(converter, targets);
+            List<ConvertTarget> notified
+                    = Collections.synchronizedList(new ArrayList<>());
+            callable.setConvertedListener(notified::add);
+            AtomicInteger lastDone = new AtomicInteger();
+            callable.setProgressCallback(new ProgressCallback() {
+                @Override
+                public void updateTitle(String title) {
+                }
+
+                @Override
+                public void updateMessage(String message) {
+                }
+
+                @Override
+                public void updateProgress(double workDone, double max) {
+                    Assert.assertEquals(40, (int) max);
+                    lastDone.accumulateAndGet((int) workDone, Math::max);
+                }
+            });
+            ConvertResult result = callable.call();
+
+            Assert.assertEquals(39, result.getConverted().size());
+            Assert.assertEquals(39, notified.size());
+            Assert.assertEquals(40, lastDone.get());
+            Assert.assertEquals(1, result.getFailures().size());
+            Assert.assertSame(targets.get(7),
+                    result.getFailures().keySet().iterator().next());
+            for (int idx = 0; idx < 40; idx++) {
+                byte[] data = Files.readAllBytes(dir.resolve("file" + idx + ".txt"));
+                if (idx == 7) {
+                    Assert.assertEquals("日本語\n" + idx,
+                            new String(data, "EUC-JP"));
+                } else {
+                    Assert.assertEquals("日本語\r\n" + idx,
+                            new String(data, "UTF-8"));
+                }
+            }
+
+        } finally {
+            service.setParallelism(parallelism);
+        }
+    }
+}
@@ -1,12 +1,27 @@
 package jp.seraphyware.textencodechanger.services;
 
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.regex.Pattern;
+import static jp.seraphyware.textencodechanger.TestFiles.write;
 import jp.seraphyware.textencodechanger.UnitTestConfiguration;
+import jp.seraphyware.textencodechanger.services.FileWalkService.FileInfo;
 import jp.seraphyware.textencodechanger.services.FileWalkService.FileNameMatcher;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -20,9 +35,18 @@ import org.springframework.test.context.junit4.SpringRunner;
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes = {UnitTestConfiguration.class})
 public class FileWalkServiceTest {
-    
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Autowired
     private FileWalkService service;
+
+    @Autowired
+    private ScanResultCache scanResultCache;
+
+    @Autowired
+    private FileLoadService fileLoadService;
     
     /**
      * ファイルパターンのテスト
@@ -79,4 +103,553 @@ public class FileWalkServiceTest {
         Assert.assertTrue(matcher.match(Paths.get("XYZ")));
         Assert.assertTrue(matcher.match(Paths.get("X@z")));
     }
+
+    /**
+     * まとめて照合するマッチャーが、パターンごとの正規表現と同じ結果となることのテスト
+     */
+    @Test
+    public void testFileNameMatcherSameAsRegex() {
+        String[] patternsList = {
+            "*", "*.*", "*.txt", "*.TXT;*.java", "abc", "a?c", "a*b*c",
+            "*.tar.gz", "README*;*.md", "?", "x*", "*x", "[ab].txt", "a+b",
+            "日本語*.txt",
+        };
+        String[] names = {
+            "", "a", "abc", "ABC", "aXc", "abbc", "axbyc", "a.txt", "A.TXT",
+            "b.Java", "x.tar.gz", "readme", "README.md", "x", "xx", "zx",
+            ".txt", "txt", "a.txt.bak", "b.txt", "ab", "aab", "a+b",
+            "日本語.txt", "日本語X.TXT", "a\nc", "a𠮷c", "𠮷",
+        };
+        for (String patterns : patternsList) {
+            List<Pattern> regexps = service.makePatterns(patterns);
+            FileNameMatcher matcher = service.createFileNameMatcher(regexps);
+            for (String name : names) {
+                Path path;
+                try {
+                    path = Paths.get(name);
+                } catch (InvalidPathException ex) {
+                    // ファイルシステムで表現できない名前
+                    continue;
+                }
+                boolean expected = regexps.stream().anyMatch(
+                        pattern -> pattern.matcher(name).matches());
+                Assert.assertEquals(patterns + "|" + name, expected,
+                        matcher.match(path));
+            }
+        }
+    }
+
+    /**
+     * 並列走査の結果が逐次走査と同じであり、パス順であることのテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testParallelWalk() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        int parallelism = service.getParallelism();
+        try {
+            EncodingType[] encodings = {EncodingType.UTF8,
+                EncodingType.Windows31J, EncodingType.EUC_JP};
+            for (int idx = 0; idx < 30; idx++) {
+                Path sub = dir.resolve("sub" + (idx % 3));
+                Files.createDirectories(sub);
+                EncodingType enc = encodings[idx % encodings.length];
+                ByteBuffer data = enc.encode(CharBuffer.wrap("日本語\n" + idx));
+                Files.write(sub.resolve("file" + idx + ".txt"),
+                        Arrays.copyOf(data.array(), data.limit()));
+            }
+            Files.write(dir.resolve("ignore.bin"), new byte[]{1, 2, 3});
+
+            List<Pattern> patterns = service.makePatterns("*.txt");
+
+            service.setParallelism(1);
+            List<FileInfo> serial = service.createCallable(dir, true, patterns).call();
+
+            service.setParallelism(4);
+            List<FileInfo> parallel = service.createCallable(dir, true, patterns).call();
+
+            Assert.assertEquals(30, serial.size());
+            Assert.assertEquals(serial.toString(), parallel.toString());
+            for (int idx = 1; idx < parallel.size(); idx++) {
+                Assert.assertTrue(parallel.get(idx - 1).getPath().compareTo(
+                        parallel.get(idx).getPath()) < 0);
+            }
+            for (FileInfo fileInfo : parallel) {
+                Assert.assertEquals(TextTermType.LF, fileInfo.getTermType());
+            }
+
+        } finally {
+            service.setParallelism(parallelism);
+        }
+    }
+
+    /**
+     * 走査の途中結果の通知のテスト.<br>
+     * 通知された結果をすべて合わせると最終結果と一致し、
+     * 走査時のサイズと最終更新日時を保持していることを検査する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testResultListener() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        int parallelism = service.getParallelism();
+        try {
+            for (int idx = 0; idx < 600; idx++) {
+                Path sub = dir.resolve("sub" + (idx % 5));
+                Files.createDirectories(sub);
+                Files.write(sub.resolve("file" + idx + ".txt"),
+                        ("abc\r\n" + idx).getBytes("UTF-8"));
+            }
+
+            List<Pattern> patterns = service.makePatterns("*.txt");
+            for (int threads : new int[]{1, 4}) {
+                service.setParallelism(threads);
+                FileWalkerCallable callable = service.createCallable(dir, true, patterns);
+                List<List<FileInfo>> batches = new ArrayList<>();
+                callable.setResultListener(batches::add);
+                List<FileInfo> files = callable.call();
+
+                Assert.assertEquals(600, files.size());
+                Assert.assertTrue(batches.size() >= 2);
+                List<FileInfo> published = new ArrayList<>();
+                for (List<FileInfo> batch : batches) {
+                    Assert.assertFalse(batch.isEmpty());
+                    published.addAll(batch);
+                }
+                published.sort(Comparator.comparing(FileInfo::getPath));
+                Assert.assertEquals(files.toString(), published.toString());
+
+                for (FileInfo fileInfo : files) {
+                    Assert.assertEquals(Files.size(fileInfo.getPath()),
+                            fileInfo.getSize());
+                    Assert.assertEquals(Files.getLastModifiedTime(fileInfo.getPath()),
+                            fileInfo.getLastModified());
+                }
+            }
+
+        } finally {
+            service.setParallelism(parallelism);
+        }
+    }
+
+    /**
+     * 先頭部分から推定するモードのテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testSniffing() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        int sniffSize = service.getSniffSize();
+        int sniffSamples = service.getSniffSamples();
+        try {
+            StringBuilder asciiLines = new StringBuilder();
+            for (int idx = 0; idx < 100; idx++) {
+                asciiLines.append("line").append(idx).append("\r\n");
+            }
+            StringBuilder longLine = new StringBuilder();
+            for (int idx = 0; idx < 1000; idx++) {
+                longLine.append('x');
+            }
+
+            // 先頭部分で判別できる
+            write(dir.resolve("a.txt"), EncodingType.EUC_JP,
+                    "日本語\r\n" + asciiLines);
+            // 先頭部分に行末がない
+            write(dir.resolve("b.txt"), EncodingType.Windows31J,
+                    longLine + "日本語\n");
+            // 先頭部分はASCIIのみで、後半に日本語がある
+            write(dir.resolve("c.txt"), EncodingType.Windows31J,
+                    asciiLines + "日本語\r\n");
+            // ファイルが先頭部分より小さい
+            write(dir.resolve("d.txt"), EncodingType.UTF8, "日本語\n");
+
+            List<Pattern> patterns = service.makePatterns("*.txt");
+
+            service.setSniffSize(0);
+            List<FileInfo> full = service.createCallable(dir, false, patterns).call();
+
+            service.setSniffSize(64);
+            service.setSniffSamples(2);
+            List<FileInfo> sniffed = service.createCallable(dir, false, patterns).call();
+
+            Assert.assertEquals(full.toString(), sniffed.toString());
+            for (int idx = 0; idx < full.size(); idx++) {
+                Assert.assertTrue(full.get(idx).isVerified());
+                Assert.assertEquals(full.get(idx).getTermType(),
+                        sniffed.get(idx).getTermType());
+            }
+            Assert.assertEquals(TextTermType.CRLF, sniffed.get(0).getTermType());
+            Assert.assertFalse(sniffed.get(0).isVerified());
+            Assert.assertEquals(TextTermType.LF, sniffed.get(1).getTermType());
+            Assert.assertTrue(sniffed.get(1).isVerified());
+            Assert.assertEquals(EncodingType.Windows31J, sniffed.get(2).getEncoding());
+            Assert.assertTrue(sniffed.get(2).isVerified());
+            Assert.assertTrue(sniffed.get(3).isVerified());
+
+        } finally {
+            service.setSniffSize(sniffSize);
+            service.setSniffSamples(sniffSamples);
+        }
+    }
+
+    /**
+     * メモリマップして読み込むモードのテスト.<br>
+     * ヒープに読み込んだ場合と同じ結果となることを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testMemoryMapped() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        long mapThreshold = fileLoadService.getMapThreshold();
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (int idx = 0; idx < 10000; idx++) {
+                lines.append("日本語").append(idx).append("\r\n");
+            }
+            write(dir.resolve("a.txt"), EncodingType.EUC_JP, lines.toString());
+            write(dir.resolve("b.txt"), EncodingType.UTF8_BOM, "日本語\n");
+            write(dir.resolve("c.txt"), EncodingType.Windows31J, "");
+
+            List<Pattern> patterns = service.makePatterns("*.txt");
+
+            fileLoadService.setMapThreshold(0);
+            List<FileInfo> loaded = service.createCallable(dir, false, patterns).call();
+
+            fileLoadService.setMapThreshold(1);
+            List<FileInfo> mapped = service.createCallable(dir, false, patterns).call();
+
+            Assert.assertEquals(loaded.toString(), mapped.toString());
+            Assert.assertEquals(EncodingType.EUC_JP, mapped.get(0).getEncoding());
+            Assert.assertEquals(TextTermType.CRLF, mapped.get(0).getTermType());
+            Assert.assertEquals(TextTermType.LF, mapped.get(1).getTermType());
+
+            try (FileLoadService.LoadedFile file = fileLoadService.load(dir.resolve("a.txt"))) {
+                Assert.assertTrue(file.isMapped());
+                Assert.assertEquals(Files.size(dir.resolve("a.txt")),
+                        file.getBuffer().remaining());
+            }
+            fileLoadService.setMapThreshold(0);
+            try (FileLoadService.LoadedFile file = fileLoadService.load(dir.resolve("a.txt"))) {
+                Assert.assertFalse(file.isMapped());
+            }
+
+        } finally {
+            fileLoadService.setMapThreshold(mapThreshold);
+        }
+    }
+
+    /**
+     * 除外するパターン、.gitignore、サイズ、拡張子による除外のテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testExcludes() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        boolean useGitIgnore = service.isUseGitIgnore();
+        long maxFileSize = service.getMaxFileSize();
+        String binaryExtensions = service.getBinaryExtensions();
+        try {
+            StringBuilder big = new StringBuilder();
+            for (int idx = 0; idx < 100; idx++) {
+                big.append("line").append(idx).append('\n');
+            }
+            String[] files = {
+                "a.txt", "local.txt", "x.log.txt", "img.png", "img.txt",
+                ".git/config.txt", "node_modules/x/y.txt", "build/c.txt",
+                "sub/b.txt", "sub/local.txt", "sub/keep.log.txt",
+                "sub/build.txt",
+            };
+            for (String file : files) {
+                Path path = dir.resolve(file);
+                Files.createDirectories(path.getParent());
+                write(path, EncodingType.UTF8, "abc\n");
+            }
+            write(dir.resolve("big.txt"), EncodingType.UTF8, big.toString());
+            Files.write(dir.resolve(".gitignore"), Arrays.asList(
+                    "# comment", "*.log.txt", "build/", "/sub/local.txt"));
+            Files.write(dir.resolve("sub/.gitignore"), Arrays.asList(
+                    "!keep.log.txt"));
+
+            service.setUseGitIgnore(true);
+            service.setMaxFileSize(100);
+            service.setBinaryExtensions("png; *.jpg");
+
+            List<FileInfo> result = service.createCallable(dir, true,
+                    service.makePatterns("*.txt;*.png"),
+                    service.makePatterns(".git;node_modules")).call();
+            List<String> names = new ArrayList<>();
+            for (FileInfo fileInfo : result) {
+                names.add(dir.relativize(fileInfo.getPath()).toString()
+                        .replace('\\', '/'));
+            }
+            Assert.assertEquals(Arrays.asList("a.txt", "img.txt", "local.txt",
+                    "sub/b.txt", "sub/build.txt", "sub/keep.log.txt"), names);
+
+            // 除外の設定がなければすべて対象となる
+            service.setUseGitIgnore(false);
+            service.setMaxFileSize(0);
+            service.setBinaryExtensions("");
+            result = service.createCallable(dir, true,
+                    service.makePatterns("*.txt;*.png")).call();
+            Assert.assertEquals(files.length + 1, result.size());
+
+        } finally {
+            service.setUseGitIgnore(useGitIgnore);
+            service.setMaxFileSize(maxFileSize);
+            service.setBinaryExtensions(binaryExtensions);
+        }
+    }
+
+    /**
+     * .gitignoreの規則の解析と照合のテスト
+     */
+    @Test
+    public void testGitIgnoreRules() {
+        GitIgnoreRules rules = GitIgnoreRules.parse(
+                "", "# comment", "*.o", "!keep.o", "/root.txt", "doc/*.md",
+                "out/", "**/gen/**", "a/**/z", "\\#hash", "[ab]?.c  ");
+        Assert.assertEquals(Boolean.TRUE, rules.match("x.o", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("dir/x.o", false));
+        Assert.assertEquals(Boolean.FALSE, rules.match("dir/keep.o", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("root.txt", false));
+        Assert.assertNull(rules.match("dir/root.txt", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("doc/a.md", false));
+        Assert.assertNull(rules.match("doc/sub/a.md", false));
+        Assert.assertNull(rules.match("x/doc/a.md", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("out", true));
+        Assert.assertEquals(Boolean.TRUE, rules.match("x/out", true));
+        Assert.assertNull(rules.match("out", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("x/gen/y.txt", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("a/z", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("a/b/c/z", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("#hash", false));
+        Assert.assertEquals(Boolean.TRUE, rules.match("ax.c", false));
+        Assert.assertNull(rules.match("cx.c", false));
+        Assert.assertNull(rules.match("x.txt", false));
+    }
+
+    /**
+     * 解析結果のキャッシュのテスト.<br>
+     * サイズと最終更新日時が同じであれば、内容を変更しても前回の結果が返ることで
+     * キャッシュが使われたことを確認する.<br>
+     * 解析の設定が変われば、キャッシュを用いないことも確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testScanCache() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        boolean detectBinary = service.isDetectBinary();
+        boolean enabled = scanResultCache.isEnabled();
+        String cacheFile = scanResultCache.getCacheFile();
+        try {
+            Path file = dir.resolve("a.txt");
+            write(file, EncodingType.Windows31J, "日本語\n");
+            FileTime lastModified = Files.getLastModifiedTime(file);
+
+            scanResultCache.setEnabled(true);
+            scanResultCache.setCacheFile(dir.resolve("cache/cache.tsv").toString());
+            scanResultCache.load();
+
+            List<Pattern> patterns = service.makePatterns("*.txt");
+            List<FileInfo> first = service.createCallable(dir, true, patterns).call();
+            Assert.assertEquals(EncodingType.Windows31J, first.get(0).getEncoding());
+            Assert.assertTrue(Files.exists(dir.resolve("cache/cache.tsv")));
+
+            // サイズと最終更新日時を変えずに内容を変更する
+            write(file, EncodingType.EUC_JP, "日本語\n");
+            Files.setLastModifiedTime(file, lastModified);
+
+            // 保存したキャッシュを読み込みなおしても同じ結果となる
+            scanResultCache.load();
+            List<FileInfo> cached = service.createCallable(dir, true, patterns).call();
+            Assert.assertEquals(first.toString(), cached.toString());
+
+            // バイナリ判定の設定が変われば解析しなおす
+            service.setDetectBinary(!detectBinary);
+            List<FileInfo> reconfigured = service.createCallable(dir, true, patterns).call();
+            Assert.assertEquals(EncodingType.EUC_JP, reconfigured.get(0).getEncoding());
+
+            // 設定を戻しても、破棄したキャッシュは使われない
+            service.setDetectBinary(detectBinary);
+            write(file, EncodingType.Windows31J, "日本語\n");
+            Files.setLastModifiedTime(file, lastModified);
+            List<FileInfo> restored = service.createCallable(dir, true, patterns).call();
+            Assert.assertEquals(EncodingType.Windows31J, restored.get(0).getEncoding());
+            write(file, EncodingType.EUC_JP, "日本語\n");
+
+            // 最終更新日時が変われば解析しなおす
+            Files.setLastModifiedTime(file,
+                    FileTime.fromMillis(lastModified.toMillis() + 2000));
+            List<FileInfo> updated = service.createCallable(dir, true, patterns).call();
+            Assert.assertEquals(EncodingType.EUC_JP, updated.get(0).getEncoding());
+
+        } finally {
+            service.setDetectBinary(detectBinary);
+            scanResultCache.setEnabled(enabled);
+            scanResultCache.setCacheFile(cacheFile);
+            scanResultCache.load();
+        }
+    }
+
+    /**
+     * バイナリファイルの判定のテスト.<br>
+     * バイナリと判定したファイルは文字コードを推定せず、変換の対象とならないこと、
+     * BOMのないUTF-16などのテキストはバイナリとしないことを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testBinaryFiles() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        boolean detectBinary = service.isDetectBinary();
+        int sniffSize = service.getSniffSize();
+        try {
+            // マジックナンバー
+            Files.write(dir.resolve("a.dat"), new byte[]{
+                (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 'a', 'b'});
+            // NULを偶数位置と奇数位置の両方に含む
+            byte[] data = new byte[1000];
+            for (int idx = 0; idx < data.length; idx++) {
+                data[idx] = (byte) (idx % 7 == 0 ? 0 : 'a' + idx % 26);
+            }
+            Files.write(dir.resolve("b.dat"), data);
+            // NULはないが制御文字が多い
+            for (int idx = 0; idx < data.length; idx++) {
+                data[idx] = (byte) (idx % 3 == 0 ? 0x01 : 'a');
+            }
+            Files.write(dir.resolve("c.dat"), data);
+            // Windowsの実行ファイル(NULは少ないがPEシグネチャがある)
+            byte[] exe = new byte[256];
+            Arrays.fill(exe, (byte) 'x');
+            exe[0] = 'M';
+            exe[1] = 'Z';
+            exe[0x3c] = (byte) 0x80;
+            exe[0x3d] = 0;
+            exe[0x3e] = 0;
+            exe[0x3f] = 0;
+            System.arraycopy(new byte[]{'P', 'E', 0, 0}, 0, exe, 0x80, 4);
+            Assert.assertTrue(BinaryDetector.isBinary(ByteBuffer.wrap(exe)));
+            // テキスト
+            write(dir.resolve("d.dat"), EncodingType.UTF16_LE, "abc\r\ndef\r\n");
+            write(dir.resolve("e.dat"), EncodingType.UTF16_BOM_BE, "abc\ndef\n");
+            Files.write(dir.resolve("f.dat"), "\u001b$B$\"\u001b(B\tabc\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            Files.write(dir.resolve("g.dat"), new byte[0]);
+            // MZで始まるテキスト
+            Files.write(dir.resolve("h.dat"), "MZ-80K manual\r\nchapter 1\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            // 全角空白(U+3000)で字下げしたBOMのないUTF-16LEのテキスト
+            StringBuilder indented = new StringBuilder();
+            for (int idx = 0; idx < 200; idx++) {
+                indented.append("\u3000abc \u30c7\u30fc\u30bf\r\n");
+            }
+            write(dir.resolve("i.dat"), EncodingType.UTF16_LE, indented.toString());
+
+            List<Pattern> patterns = service.makePatterns("*.dat");
+
+            service.setDetectBinary(true);
+            for (int size : new int[]{0, 16}) {
+                service.setSniffSize(size);
+                List<FileInfo> result = service.createCallable(dir, false, patterns).call();
+                Assert.assertEquals(9, result.size());
+                for (FileInfo fileInfo : result) {
+                    String name = fileInfo.getPath().getFileName().toString();
+                    boolean binary = name.compareTo("d.dat") < 0;
+                    Assert.assertEquals(name, binary, fileInfo.isBinary());
+                    if (name.equals("i.dat")) {
+                        Assert.assertEquals(EncodingType.UTF16_LE, fileInfo.getEncoding());
+                    }
+                    if (binary) {
+                        Assert.assertNull(fileInfo.getEncoding());
+                        Assert.assertEquals(TextTermType.UNKNOWN, fileInfo.getTermType());
+                        Assert.assertFalse(fileInfo.needsConversion(
+                                EncodingType.UTF8, TextTermType.LF));
+                    }
+                }
+            }
+
+            // 判定しない場合は、すべて文字コードの推定を試みる
+            service.setDetectBinary(false);
+            service.setSniffSize(0);
+            for (FileInfo fileInfo : service.createCallable(dir, false, patterns).call()) {
+                Assert.assertFalse(fileInfo.isBinary());
+            }
+
+        } finally {
+            service.setDetectBinary(detectBinary);
+            service.setSniffSize(sniffSize);
+        }
+    }
+
+    /**
+     * 大きなバイナリファイルの判定のテスト.<br>
+     * 先頭部分から推定しない設定でも、先頭部分だけでバイナリと判定し、
+     * ファイル全体を読み込まないことを確認する.<br>
+     * (全体を読み込めないサイズのファイルでも、バイナリとして走査できる.)<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testLargeBinaryFile() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        boolean detectBinary = service.isDetectBinary();
+        int sniffSize = service.getSniffSize();
+        try {
+            // NULだけからなる(スパースファイルとして作成される)大きなファイル
+            try (RandomAccessFile file = new RandomAccessFile(
+                    dir.resolve("large.dat").toFile(), "rw")) {
+                file.setLength(Integer.MAX_VALUE + 1L);
+            }
+
+            service.setDetectBinary(true);
+            service.setSniffSize(0);
+            List<FileInfo> result = service.createCallable(dir, false,
+                    service.makePatterns("*.dat")).call();
+            Assert.assertEquals(1, result.size());
+            Assert.assertTrue(result.get(0).isBinary());
+
+        } finally {
+            service.setDetectBinary(detectBinary);
+            service.setSniffSize(sniffSize);
+        }
+    }
+
+    /**
+     * 同じ内容のファイルの解析をまとめるテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testDedup() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        boolean dedup = service.isDedup();
+        try {
+            for (int idx = 0; idx < 4; idx++) {
+                write(dir.resolve("same" + idx + ".txt"), EncodingType.EUC_JP,
+                        "日本語\r\n");
+            }
+            write(dir.resolve("other.txt"), EncodingType.Windows31J, "日本語\n");
+
+            List<Pattern> patterns = service.makePatterns("*.txt");
+
+            service.setDedup(false);
+            List<FileInfo> plain = service.createCallable(dir, false, patterns).call();
+
+            service.setDedup(true);
+            List<FileInfo> deduped = service.createCallable(dir, false, patterns).call();
+
+            Assert.assertEquals(plain.toString(), deduped.toString());
+            String hash = deduped.get(1).getContentHash();
+            Assert.assertNotNull(hash);
+            Assert.assertNotEquals(hash, deduped.get(0).getContentHash());
+            for (int idx = 1; idx < 5; idx++) {
+                FileInfo fileInfo = deduped.get(idx);
+                Assert.assertEquals(hash, fileInfo.getContentHash());
+                Assert.assertEquals(EncodingType.EUC_JP, fileInfo.getEncoding());
+                Assert.assertEquals(TextTermType.CRLF, fileInfo.getTermType());
+                Assert.assertEquals(Files.size(fileInfo.getPath()), fileInfo.getSize());
+            }
+            Assert.assertNull(plain.get(0).getContentHash());
+
+        } finally {
+            service.setDedup(dedup);
+        }
+    }
 }
@@ -0,0 +1,250 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import static jp.seraphyware.textencodechanger.TestFiles.write;
+import jp.seraphyware.textencodechanger.UnitTestConfiguration;
+import jp.seraphyware.textencodechanger.services.FileReplaceService.StreamFileContentConverter;
+import jp.seraphyware.textencodechanger.services.FileWalkService.FileInfo;
+import jp.seraphyware.textencodechanger.services.FileWatchService.FileWatchListener;
+import jp.seraphyware.textencodechanger.services.FileWatchService.FileWatcher;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * FileWatchServiceのテスト
+ *
+ * @author seraphy
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = {UnitTestConfiguration.class})
+public class FileWatchServiceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * イベントを待つ時間の上限(ミリ秒)
+     */
+    private static final long TIMEOUT = 10000;
+
+    @Autowired
+    private FileWatchService service;
+
+    @Autowired
+    private FileWalkService fileWalkService;
+
+    @Autowired
+    private FileReplaceService fileReplaceService;
+
+    /**
+     * 作成・変更・削除されたファイルが個別に解析されて通知されることのテスト.<br>
+     * 作成されたサブフォルダは監視に加えられ、除外するフォルダは監視しない.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testWatch() throws Exception {
+        String text = "日本語のテキストファイルです。\r\n";
+        long settleDelay = service.getSettleDelay();
+        Path dir = tempFolder.getRoot().toPath();
+        Files.createDirectories(dir.resolve("skip"));
+        service.setSettleDelay(100);
+        Recorder recorder = new Recorder();
+        FileWatcher watcher = service.createWatcher(dir, true,
+                fileWalkService.makePatterns("*.txt"),
+                fileWalkService.makePatterns("skip"), recorder);
+        try {
+            watcher.start();
+
+            // 作成されたファイル
+            Path file1 = dir.resolve("a.txt");
+            write(file1, EncodingType.EUC_JP, text);
+            await(() -> recorder.encodingOf(file1) == EncodingType.EUC_JP);
+
+            // 変更されたファイル
+            write(file1, EncodingType.UTF8, text);
+            await(() -> recorder.encodingOf(file1) == EncodingType.UTF8);
+
+            // 作成されたサブフォルダのファイル、パターンに合致しないファイル、除外するフォルダのファイル
+            Path file2 = dir.resolve("sub").resolve("b.txt");
+            write(file2, EncodingType.UTF8, text);
+            write(dir.resolve("c.dat"), EncodingType.UTF8, text);
+            write(dir.resolve("skip").resolve("d.txt"), EncodingType.UTF8, text);
+            await(() -> recorder.encodingOf(file2) == EncodingType.UTF8);
+
+            // サブフォルダの監視を始めてから作成されたファイル
+            Path file3 = dir.resolve("sub").resolve("c.txt");
+            write(file3, EncodingType.UTF8, text);
+            await(() -> recorder.encodingOf(file3) == EncodingType.UTF8);
+
+            // 削除されたファイル
+            Files.delete(file1);
+            await(() -> recorder.removed.contains(file1));
+            Assert.assertFalse(recorder.updated.containsKey(file1));
+
+            Assert.assertFalse(recorder.updated.containsKey(dir.resolve("c.dat")));
+            Assert.assertFalse(recorder.updated.containsKey(
+                    dir.resolve("skip").resolve("d.txt")));
+
+        } finally {
+            watcher.close();
+            service.setSettleDelay(settleDelay);
+        }
+    }
+
+    /**
+     * 自動変換を指定した場合、変換が必要なファイルが変換されることのテスト.
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testAutoConvert() throws Exception {
+        String text = "日本語のテキストファイルです。\r\n二行目です。\r\n";
+        long settleDelay = service.getSettleDelay();
+        Path dir = tempFolder.getRoot().toPath();
+        service.setSettleDelay(100);
+        Recorder recorder = new Recorder();
+        FileWatcher watcher = service.createWatcher(dir, true,
+                fileWalkService.makePatterns("*.txt"),
+                fileWalkService.makePatterns(""), recorder);
+        StreamFileContentConverter converter
+                = fileReplaceService.createStreamFileContentConverter(
+                        dir.toString(), null,
+                        TransferType.REPLACE,
+                        OverwriteMode.OVERWRITE,
+                        EncodingType.UTF8, TextTermType.LF);
+        watcher.setAutoConverter(converter, EncodingType.UTF8, TextTermType.LF);
+        try {
+            watcher.start();
+
+            Path file = dir.resolve("a.txt");
+            write(file, EncodingType.EUC_JP, text);
+            await(() -> recorder.converted.contains(file));
+
+            // 変換後のファイルは変更のイベントにより解析しなおされる
+            await(() -> recorder.encodingOf(file) == EncodingType.UTF8);
+            Assert.assertArrayEquals(
+                    text.replace("\r\n", "\n").getBytes("UTF-8"),
+                    Files.readAllBytes(file));
+
+        } finally {
+            watcher.close();
+            service.setSettleDelay(settleDelay);
+        }
+    }
+
+    /**
+     * 上書きしてバックアップを作成する自動変換で、すべてのファイルを対象としても
+     * 変換処理自身が作成したバックアップや一時ファイル、書き込んだ出力先を
+     * 変換しなおさないことのテスト.
+     * 変換処理が作成していない同じ拡張子のファイルは、通常どおり解析されることも確認する.
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testAutoConvertIgnoresOwnOutputs() throws Exception {
+        String text = "日本語のテキストファイルです。\r\n";
+        long settleDelay = service.getSettleDelay();
+        Path dir = tempFolder.getRoot().toPath();
+        service.setSettleDelay(100);
+        Recorder recorder = new Recorder();
+        FileWatcher watcher = service.createWatcher(dir, true,
+                fileWalkService.makePatterns("*"),
+                fileWalkService.makePatterns(""), recorder);
+        StreamFileContentConverter converter
+                = fileReplaceService.createStreamFileContentConverter(
+                        dir.toString(), null,
+                        TransferType.REPLACE,
+                        OverwriteMode.CREATE_BACKUP,
+                        EncodingType.UTF8, TextTermType.LF);
+        watcher.setAutoConverter(converter, EncodingType.UTF8, TextTermType.LF);
+        try {
+            watcher.start();
+
+            Path file = dir.resolve("a.txt");
+            write(file, EncodingType.EUC_JP, text);
+            await(() -> recorder.converted.contains(file));
+            await(() -> recorder.encodingOf(file) == EncodingType.UTF8);
+
+            // 変換後のイベントが処理されるまで待っても、ファイルは増えない
+            Thread.sleep(1000);
+            try (Stream<Path> paths = Files.list(dir)) {
+                Assert.assertEquals(2, paths.count());
+            }
+            Assert.assertEquals(1, recorder.converted.size());
+            Assert.assertTrue(Files.exists(dir.resolve("a.txt.bak")));
+            Assert.assertFalse(recorder.updated.containsKey(dir.resolve("a.txt.bak")));
+
+            // 利用者が作成したバックアップと同じ名前のファイル
+            Path notes = dir.resolve("notes.bak");
+            write(notes, EncodingType.UTF8, "日本語のメモです。\n");
+            await(() -> recorder.encodingOf(notes) == EncodingType.UTF8);
+            Path temp = dir.resolve("notes.123.tmp");
+            write(temp, EncodingType.UTF8, "一時ファイルではありません。\n");
+            await(() -> recorder.encodingOf(temp) == EncodingType.UTF8);
+            Assert.assertEquals(1, recorder.converted.size());
+
+        } finally {
+            watcher.close();
+            service.setSettleDelay(settleDelay);
+        }
+    }
+
+    /**
+     * 通知された結果を記録するリスナー
+     */
+    private static final class Recorder implements FileWatchListener {
+
+        private final Map<Path, FileInfo> updated = new ConcurrentHashMap<>();
+
+        private final Set<Path> removed = ConcurrentHashMap.newKeySet();
+
+        private final Set<Path> converted = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void filesChanged(List<FileInfo> files, List<Path> paths) {
+            for (FileInfo fileInfo : files) {
+                updated.put(fileInfo.getPath(), fileInfo);
+                removed.remove(fileInfo.getPath());
+            }
+            for (Path path : paths) {
+                updated.remove(path);
+                removed.add(path);
+            }
+        }
+
+        @Override
+        public void fileConverted(FileInfo fileInfo) {
+            converted.add(fileInfo.getPath());
+        }
+
+        EncodingType encodingOf(Path path) {
+            FileInfo fileInfo = updated.get(path);
+            return fileInfo == null ? null : fileInfo.getEncoding();
+        }
+    }
+
+    /**
+     * 条件が満たされるまで待つ
+     * @param condition 条件
+     * @throws InterruptedException 割り込まれた
+     */
+    private static void await(BooleanSupplier condition)
+            throws InterruptedException {
+        long limit = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() < limit);
+            Thread.sleep(50);
+        }
+    }
+}
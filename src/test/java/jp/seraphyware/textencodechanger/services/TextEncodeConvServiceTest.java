@@ -3,6 +3,11 @@ package jp.seraphyware.textencodechanger.services;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+import java.util.Random;
 import jp.seraphyware.textencodechanger.UnitTestConfiguration;
 import org.junit.Assert;
 import org.junit.Test;
@@ -22,6 +27,9 @@ public class TextEncodeConvServiceTest {
     
     @Autowired
     private TextEncodeConvService serivce;
+
+    @Autowired
+    private TextTermConvService termConvSrv;
     
     /**
      * サポートする文字コード一覧の取得テスト
@@ -51,6 +59,288 @@ public class TextEncodeConvServiceTest {
         // 推定に使うのは難しい
     }
     
+    /**
+     * 一括推定の結果が、検査順に文字コードごとの読み込みを試行した場合と
+     * 一致することを検査する.
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testPresumeEncodingSameAsTrialDecoding() throws Exception {
+        Random rnd = new Random(0);
+        int[] pool = {0x00, 0x0a, 0x0d, 0x41, 0x7f, 0x80, 0x81, 0x8e, 0x8f,
+            0x9f, 0xa0, 0xa1, 0xbb, 0xbf, 0xc2, 0xd8, 0xdc, 0xdf, 0xe0, 0xed,
+            0xef, 0xf0, 0xf4, 0xf5, 0xfc, 0xfe, 0xff};
+        for (int cnt = 0; cnt < 20000; cnt++) {
+            byte[] data = new byte[rnd.nextInt(16)];
+            for (int idx = 0; idx < data.length; idx++) {
+                data[idx] = (byte) pool[rnd.nextInt(pool.length)];
+            }
+            ByteBuffer byteBuf = ByteBuffer.wrap(data);
+
+            EncodingType expected = null;
+            for (EncodingType enc : serivce.getCheckEncodingOrder()) {
+                byteBuf.rewind();
+                if (enc.checkEncodable(byteBuf)) {
+                    expected = enc;
+                    break;
+                }
+            }
+
+            Assert.assertEquals(Arrays.toString(data), expected,
+                    serivce.presumeEncoding(byteBuf));
+        }
+    }
+
+    /**
+     * 分割して逐次読み込んだ場合の推定結果が、一括して推定した場合と
+     * 一致することを検査する.
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testPresumeEncodingFromChannel() throws Exception {
+        Random rnd = new Random(1);
+        int[] pool = {0x0a, 0x41, 0x80, 0x8e, 0x8f, 0xa1, 0xa4, 0xbf, 0xd8,
+            0xdc, 0xe3, 0x81, 0x82, 0xfe, 0xff, 0xef, 0xbb};
+        for (int cnt = 0; cnt < 5000; cnt++) {
+            byte[] data = new byte[rnd.nextInt(24)];
+            for (int idx = 0; idx < data.length; idx++) {
+                data[idx] = (byte) pool[rnd.nextInt(pool.length)];
+            }
+            ByteBuffer byteBuf = ByteBuffer.wrap(data);
+            EncodingType expected = serivce.presumeEncoding(byteBuf);
+
+            // 1～3バイトずつ返すチャネル
+            ByteBuffer src = ByteBuffer.wrap(data);
+            ReadableByteChannel ch = new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) {
+                    if (!src.hasRemaining()) {
+                        return -1;
+                    }
+                    int len = Math.min(src.remaining(),
+                            Math.min(dst.remaining(), 1 + rnd.nextInt(3)));
+                    for (int idx = 0; idx < len; idx++) {
+                        dst.put(src.get());
+                    }
+                    return len;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+
+            Assert.assertEquals(Arrays.toString(data), expected,
+                    serivce.presumeEncoding(ch));
+        }
+    }
+
+    /**
+     * 文字コードと同時に推定した行末タイプが、推定した文字コードで読み込んだ
+     * テキストの行末タイプと一致することを検査する.<br>
+     * 逐次読み込んだ場合も、区切りをまたぐCRLFを1つの行末として数えることを検査する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testPresumeEncodingAndTermType() throws Exception {
+        Random rnd = new Random(2);
+        int[] pool = {0x00, 0x0a, 0x0d, 0x0a, 0x0d, 0x41, 0x82, 0xa0, 0xa4,
+            0xe3, 0x81, 0x8e, 0xfe, 0xff, 0xef, 0xbb, 0xbf, 0xd8, 0xdc};
+        for (int cnt = 0; cnt < 20000; cnt++) {
+            byte[] data = new byte[rnd.nextInt(24)];
+            for (int idx = 0; idx < data.length; idx++) {
+                data[idx] = (byte) pool[rnd.nextInt(pool.length)];
+            }
+            assertPresumeEncodingAndTermType(data, rnd);
+        }
+
+        // テキストの行末の組み合わせ(走査の区切りをまたぐ長さ)
+        String[] words = {"abc", "日本語", "\r\n", "\n", "\r"};
+        EncodingType[] encs = {EncodingType.UTF8, EncodingType.UTF8_BOM,
+            EncodingType.Windows31J, EncodingType.EUC_JP,
+            EncodingType.UTF16_BOM_LE, EncodingType.UTF16_BOM_BE};
+        for (int cnt = 0; cnt < 200; cnt++) {
+            String term = words[2 + rnd.nextInt(3)];
+            boolean mixed = rnd.nextInt(4) == 0;
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 10000) {
+                text.append(words[rnd.nextInt(2)]);
+                text.append(mixed ? words[2 + rnd.nextInt(3)] : term);
+            }
+            for (EncodingType enc : encs) {
+                ByteBuffer data = enc.encode(CharBuffer.wrap(text));
+                assertPresumeEncodingAndTermType(
+                        Arrays.copyOf(data.array(), data.limit()), rnd);
+            }
+        }
+    }
+
+    /**
+     * バイト列から文字コードと同時に推定した行末タイプが、推定した文字コードで
+     * 読み込んだテキストの行末タイプと一致することを検査する.
+     * @param data バイト列
+     * @param rnd 逐次読み込む長さの乱数
+     * @throws Exception 失敗
+     */
+    private void assertPresumeEncodingAndTermType(byte[] data, Random rnd)
+            throws Exception {
+        EncodingType expectedEnc = serivce.presumeEncoding(ByteBuffer.wrap(data));
+        TextTermType expectedTerm = TextTermType.UNKNOWN;
+        if (expectedEnc != null) {
+            expectedTerm = termConvSrv.presumeTermType(
+                    expectedEnc.decode(ByteBuffer.wrap(data)));
+        }
+
+        TextEncodeConvService.PresumeResult result
+                = serivce.presumeEncodingAndTermType(ByteBuffer.wrap(data));
+        Assert.assertEquals(Arrays.toString(data), expectedEnc, result.getEncoding());
+        Assert.assertEquals(Arrays.toString(data), expectedTerm, result.getTermType());
+
+        // 1～5バイトずつ返すチャネル
+        ByteBuffer src = ByteBuffer.wrap(data);
+        ReadableByteChannel ch = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!src.hasRemaining()) {
+                    return -1;
+                }
+                int len = Math.min(src.remaining(),
+                        Math.min(dst.remaining(), 1 + rnd.nextInt(5)));
+                for (int idx = 0; idx < len; idx++) {
+                    dst.put(src.get());
+                }
+                return len;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        result = serivce.presumeEncodingAndTermType(ch);
+        Assert.assertEquals(Arrays.toString(data), expectedEnc, result.getEncoding());
+        Assert.assertEquals(Arrays.toString(data), expectedTerm, result.getTermType());
+    }
+
+    /**
+     * 先頭部分からの推定と、判別できない場合のテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testSniffEncoding() throws Exception {
+        ByteBuffer sjis = EncodingType.Windows31J.encode(
+                CharBuffer.wrap("abc\n日本語\n"));
+        ByteBuffer ascii = ByteBuffer.wrap("abc\ndef\n".getBytes("US-ASCII"));
+
+        // 先頭部分で文字コードが決まる
+        Assert.assertEquals(EncodingType.Windows31J,
+                serivce.sniffEncoding(sjis, Arrays.asList()));
+
+        // 末尾で2バイト文字が途切れていても不適合とはしない
+        ByteBuffer truncated = sjis.duplicate();
+        truncated.limit(truncated.limit() - 2);
+        Assert.assertEquals(EncodingType.Windows31J,
+                serivce.sniffEncoding(truncated, Arrays.asList()));
+
+        // ASCIIだけなら、途中もASCIIだけである場合に限りUTF-8とする
+        Assert.assertEquals(EncodingType.UTF8,
+                serivce.sniffEncoding(ascii, Arrays.asList(ascii)));
+        Assert.assertNull(serivce.sniffEncoding(ascii, Arrays.asList(sjis)));
+
+        // 途中から抜き出した部分が適合しない
+        ByteBuffer utf8 = EncodingType.UTF8.encode(
+                CharBuffer.wrap("abc\n日本語\n"));
+        Assert.assertNull(serivce.sniffEncoding(utf8, Arrays.asList(sjis)));
+    }
+
+    /**
+     * スレッドごとのデコーダの再利用のテスト.<br>
+     * 変換に失敗した後でも、再利用したデコーダで正しく変換できることを確認する.<br>
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testCoderReuse() throws Exception {
+        EncodingType enc = EncodingType.Windows31J;
+        CharsetDecoder dec = enc.acquireDecoder();
+        // 使用中に取得した場合は別のデコーダとなる
+        CharsetDecoder nested = enc.acquireDecoder();
+        Assert.assertNotSame(dec, nested);
+        enc.releaseDecoder(nested);
+        enc.releaseDecoder(dec);
+        Assert.assertSame(dec, enc.acquireDecoder());
+        enc.releaseDecoder(dec);
+
+        // 途中で終わる2バイト文字
+        ByteBuffer broken = ByteBuffer.wrap(new byte[] {'a', (byte) 0x93});
+        Assert.assertFalse(enc.checkEncodable(broken));
+        try {
+            enc.decode(ByteBuffer.wrap(new byte[] {'a', (byte) 0x93}));
+            Assert.fail();
+        } catch (CharacterCodingException ex) {
+            // OK
+        }
+
+        ByteBuffer sjis = enc.encode(CharBuffer.wrap("abc\n日本語\n"));
+        Assert.assertTrue(enc.checkEncodable(sjis.duplicate()));
+        Assert.assertEquals("abc\n日本語\n", enc.decode(sjis.duplicate()).toString());
+        Assert.assertEquals("abc\n日本語\n",
+                serivce.readText(sjis.duplicate(), enc).toString());
+
+        // 作業用バッファより長いテキストの検証
+        StringBuilder text = new StringBuilder();
+        for (int idx = 0; idx < 5000; idx++) {
+            text.append("日本語");
+        }
+        Assert.assertTrue(enc.checkEncodable(enc.encode(CharBuffer.wrap(text))));
+        Assert.assertFalse(EncodingType.UTF8.checkEncodable(enc.encode(CharBuffer.wrap(text))));
+    }
+
+    /**
+     * 検証で最初のエラーの位置が返されることのテスト
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testValidate() throws Exception {
+        EncodingType enc = EncodingType.Windows31J;
+
+        // 変換可能
+        ByteBuffer sjis = enc.encode(CharBuffer.wrap("abc\n日本語\n"));
+        Assert.assertEquals(-1, enc.validate(sjis.duplicate()));
+        Assert.assertEquals(-1, enc.validate(ByteBuffer.allocate(0)));
+
+        // 途中で終わる2バイト文字
+        Assert.assertEquals(1, enc.validate(
+                ByteBuffer.wrap(new byte[] {'a', (byte) 0x93})));
+
+        // 途中の不正なバイト
+        Assert.assertEquals(4, EncodingType.UTF8.validate(sjis.duplicate()));
+
+        // BOMがない
+        Assert.assertEquals(0, EncodingType.UTF8_BOM.validate(
+                ByteBuffer.wrap("abc".getBytes("UTF-8"))));
+
+        // 作業用バッファより後ろのエラー、位置は検証開始位置から数える
+        StringBuilder text = new StringBuilder();
+        for (int idx = 0; idx < 5000; idx++) {
+            text.append("日本語");
+        }
+        byte[] utf8 = text.toString().getBytes("UTF-8");
+        ByteBuffer data = ByteBuffer.allocate(utf8.length + 3);
+        data.put((byte) 'x').put(utf8).put((byte) 0xff).put((byte) 'y');
+        data.flip();
+        data.position(1);
+        Assert.assertEquals(utf8.length, EncodingType.UTF8.validate(data));
+    }
+
     /**
      * 文字コードのテストが正しく判定されるか検査する
      * @param encoding
@@ -0,0 +1,224 @@
+package jp.seraphyware.textencodechanger.services;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Random;
+import jp.seraphyware.textencodechanger.UnitTestConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * TextTermConvServiceのテスト
+ *
+ * @author seraphy
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = {UnitTestConfiguration.class})
+public class TextTermConvServiceTest {
+
+    @Autowired
+    private TextTermConvService service;
+
+    /**
+     * 改行コードの変換結果が、1文字ずつ変換した場合と一致することを検査する.
+     * (配列を持つバッファ、持たないバッファ、CRの連続、末尾のCRを含む)
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testChangeTermType() throws Exception {
+        Random rnd = new Random(0);
+        String[] words = {"abc", "日本語", "\r\n", "\n", "\r", "\r\r", "𠮷"};
+        for (int cnt = 0; cnt < 200; cnt++) {
+            StringBuilder text = new StringBuilder();
+            int len = rnd.nextInt(50);
+            for (int idx = 0; idx < len; idx++) {
+                text.append(words[rnd.nextInt(words.length)]);
+            }
+            for (TextTermType termType : TextTermType.values()) {
+                String expected = changeTermTypeByChar(text, termType);
+                Assert.assertEquals(expected, service.changeTermType(
+                        CharBuffer.wrap(text), termType).toString());
+                Assert.assertEquals(expected, service.changeTermType(
+                        CharBuffer.wrap(text.toString().toCharArray()),
+                        termType).toString());
+            }
+        }
+    }
+
+    /**
+     * すでに変換後の改行コードである場合は、引数のバッファをそのまま返すことを検査する.
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testChangeTermTypeFastPath() throws Exception {
+        CharBuffer lf = CharBuffer.wrap("abc\ndef\n");
+        Assert.assertSame(lf, service.changeTermType(lf, TextTermType.LF));
+        Assert.assertEquals(TextTermType.LF, service.presumeTermType(lf));
+
+        CharBuffer noTerm = CharBuffer.wrap("abc");
+        Assert.assertSame(noTerm, service.changeTermType(noTerm, TextTermType.CRLF));
+
+        // 元の改行コードが判明していれば走査しない
+        CharBuffer crlf = CharBuffer.wrap("abc\r\ndef");
+        Assert.assertSame(crlf, service.changeTermType(
+                crlf, TextTermType.CRLF, TextTermType.CRLF));
+        Assert.assertEquals("abc\ndef", service.changeTermType(
+                crlf, TextTermType.CRLF, TextTermType.LF).toString());
+    }
+
+    /**
+     * バイト列から推定した改行コードが、テキストから推定した改行コードと一致することを検査する.
+     * (すべての文字コード、分割して与えた場合、配列を持たないバッファを含む)
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testPresumeTermTypeFromBytes() throws Exception {
+        Random rnd = new Random(0);
+        // U+0D0AはUTF-16ではCR, LFと同じバイトを含む
+        String[] words = {"abc", "日本語", "\r\n", "\n", "\r", "\r\r", "\u0d0a"};
+        for (int cnt = 0; cnt < 200; cnt++) {
+            StringBuilder text = new StringBuilder();
+            int len = rnd.nextInt(50);
+            for (int idx = 0; idx < len; idx++) {
+                text.append(words[rnd.nextInt(words.length)]);
+            }
+            TextTermType expected = service.presumeTermType(CharBuffer.wrap(text));
+            for (EncodingType enc : EncodingType.values()) {
+                String str = text.toString();
+                if (!enc.getCharset().newEncoder().canEncode(str)) {
+                    continue;
+                }
+                ByteBuffer encoded = enc.encode(CharBuffer.wrap(str));
+                byte[] data = new byte[encoded.remaining()];
+                encoded.get(data);
+
+                Assert.assertEquals(enc + ": " + cnt, expected,
+                        service.presumeTermType(ByteBuffer.wrap(data), enc));
+
+                TextTermConvService.ByteTermCounter counter
+                        = service.createTermCounter(enc);
+                int pos = 0;
+                while (pos < data.length) {
+                    int size = Math.min(data.length - pos, 1 + rnd.nextInt(5));
+                    ByteBuffer chunk;
+                    if (rnd.nextBoolean()) {
+                        chunk = ByteBuffer.wrap(data, pos, size);
+                    } else {
+                        chunk = ByteBuffer.allocateDirect(size);
+                        chunk.put(data, pos, size);
+                        chunk.flip();
+                    }
+                    counter.accept(chunk);
+                    Assert.assertFalse(chunk.hasRemaining());
+                    pos += size;
+                }
+                Assert.assertEquals(enc + ": " + cnt, expected,
+                        counter.getTermType(true));
+            }
+        }
+    }
+
+    /**
+     * バイト列のまま改行コードを変換した結果が、テキストを変換してから
+     * 同じ文字コードにした場合と一致することを検査する.
+     * (すべての文字コード、分割して与えた場合、配列を持たないバッファを含む)
+     * @throws Exception 失敗
+     */
+    @Test
+    public void testRewriteTermTypeFromBytes() throws Exception {
+        Random rnd = new Random(0);
+        // U+0D0AはUTF-16ではCR, LFと同じバイトを含む
+        String[] words = {"abc", "日本語", "\r\n", "\n", "\r", "\r\r", "\u0d0a"};
+        for (int cnt = 0; cnt < 200; cnt++) {
+            StringBuilder text = new StringBuilder();
+            int len = rnd.nextInt(50);
+            for (int idx = 0; idx < len; idx++) {
+                text.append(words[rnd.nextInt(words.length)]);
+            }
+            String str = text.toString();
+            for (EncodingType enc : EncodingType.values()) {
+                if (!enc.getCharset().newEncoder().canEncode(str)) {
+                    continue;
+                }
+                byte[] data = toBytes(enc.encode(CharBuffer.wrap(str)));
+                for (TextTermType termType : TextTermType.values()) {
+                    byte[] expected = toBytes(enc.encode(CharBuffer.wrap(
+                            changeTermTypeByChar(str, termType))));
+
+                    TextTermConvService.ByteTermRewriter rewriter
+                            = service.createTermRewriter(enc, termType);
+                    ByteBuffer actual = ByteBuffer.allocate(data.length * 2 + 1);
+                    int pos = 0;
+                    while (pos < data.length) {
+                        int size = Math.min(data.length - pos, 1 + rnd.nextInt(5));
+                        ByteBuffer chunk;
+                        if (rnd.nextBoolean()) {
+                            chunk = ByteBuffer.wrap(data, pos, size);
+                        } else {
+                            chunk = ByteBuffer.allocateDirect(size);
+                            chunk.put(data, pos, size);
+                            chunk.flip();
+                        }
+                        actual.put(rewriter.rewrite(chunk));
+                        Assert.assertFalse(chunk.hasRemaining());
+                        pos += size;
+                    }
+                    actual.put(rewriter.finish());
+                    actual.flip();
+                    Assert.assertArrayEquals(enc + "/" + termType + ": " + cnt,
+                            expected, toBytes(actual));
+                }
+            }
+        }
+
+        // UTF-16の組にならない末尾のバイトはそのまま残す
+        TextTermConvService.ByteTermRewriter rewriter
+                = service.createTermRewriter(EncodingType.UTF16_LE, TextTermType.LF);
+        ByteBuffer odd = ByteBuffer.wrap(new byte[]{'a', 0, '\r', 0, '\n', 0, 'b'});
+        Assert.assertArrayEquals(new byte[]{'a', 0, '\n', 0},
+                toBytes(rewriter.rewrite(odd)));
+        Assert.assertArrayEquals(new byte[]{'b'}, toBytes(rewriter.finish()));
+    }
+
+    /**
+     * バッファの残りをバイト配列にする.
+     * @param buf バッファ
+     * @return バイト配列
+     */
+    private static byte[] toBytes(ByteBuffer buf) {
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return data;
+    }
+
+    /**
+     * 1文字ずつ改行コードを変換する.
+     * @param text テキスト
+     * @param termType 改行コード
+     * @return 変換されたテキスト
+     */
+    private String changeTermTypeByChar(CharSequence text, TextTermType termType) {
+        if (termType == TextTermType.UNKNOWN) {
+            return text.toString();
+        }
+        StringBuilder buf = new StringBuilder();
+        for (int idx = 0; idx < text.length(); idx++) {
+            char ch = text.charAt(idx);
+            if (ch == '\r') {
+                if (idx + 1 < text.length() && text.charAt(idx + 1) == '\n') {
+                    idx++;
+                }
+                buf.append(termType.getChars());
+            } else if (ch == '\n') {
+                buf.append(termType.getChars());
+            } else {
+                buf.append(ch);
+            }
+        }
+        return buf.toString();
+    }
+}